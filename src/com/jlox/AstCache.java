@@ -0,0 +1,96 @@
+package com.jlox;
+
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.List;
+
+class AstCache {
+
+	/* An on-disk cache of resolved syntax trees (see --cache), so that a script which hasn't
+	 * changed since it last ran skips the Scanner, Parser and Resolver entirely.
+	 *
+	 * Each entry is named by a SHA-256 of the source, the AstCodec format and VERSION, so editing
+	 * the script, changing the node definitions or bumping VERSION all simply miss. Entries are
+	 * memory-mapped to load them and are only ever written for scripts without errors. The cache
+	 * is best effort: any problem reading or writing an entry is treated as a miss.
+	 * */
+
+	// Bump this when the front end starts producing different trees for the same source.
+	static final int VERSION = 1;
+	private static final int MAGIC = 0x4A4C4F58; // JLOX
+
+	private final Path directory;
+
+	AstCache(Path directory){
+		this.directory = directory;
+	}
+
+	static Path defaultDirectory() {
+		String configured = System.getenv("JLOX_CACHE_DIR");
+		if (configured != null) return Paths.get(configured);
+		return Paths.get(System.getProperty("user.home"), ".cache", "jlox");
+	}
+
+	Path entry(CharSequence source) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update((VERSION + ":" + AstCodec.FORMAT + ":").getBytes(StandardCharsets.UTF_8));
+			digest.update(StandardCharsets.UTF_8.encode(CharBuffer.wrap(source)));
+			StringBuilder name = new StringBuilder();
+			for (byte b : digest.digest()) {
+				name.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+			}
+			return directory.resolve(name.append(".ast").toString());
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java platform is required to support SHA-256.
+			throw new IllegalStateException(e);
+		}
+	}
+
+	List<Stmt> load(Path entry, Interpreter interpreter) {
+		/* Returns null on a miss. The depths of resolved expressions are handed to the
+		 * interpreter as they're read, just as the Resolver would. */
+		if (!Files.isRegularFile(entry)) return null;
+		try (FileChannel channel = FileChannel.open(entry, StandardOpenOption.READ)) {
+			MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			AstInput in = new AstInput(mapped);
+			if (mapped.getInt() != MAGIC || !in.readString().equals(AstCodec.FORMAT)) return null;
+			List<Stmt> statements = new AstCodec(in, interpreter).readStmts();
+			return in.atEnd() ? statements : null;
+		} catch (IOException | RuntimeException e) {
+			// A corrupt or truncated entry, it'll be written again.
+			return null;
+		}
+	}
+
+	void store(Path entry, List<Stmt> statements, Interpreter interpreter) {
+		AstOutput out = new AstOutput();
+		for (int shift = 24; shift >= 0; shift -= 8) out.writeByte(MAGIC >>> shift);
+		out.writeString(AstCodec.FORMAT);
+		new AstCodec(out, interpreter).writeStmts(statements);
+
+		try {
+			// Written to one side and moved into place, so a reader never sees half an entry.
+			Files.createDirectories(directory);
+			Path temporary = Files.createTempFile(directory, "entry", ".tmp");
+			try {
+				Files.write(temporary, out.toByteArray());
+				Files.move(temporary, entry, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} finally {
+				Files.deleteIfExists(temporary);
+			}
+		} catch (IOException e) {
+			// Not being able to cache is no reason to fail the run.
+		}
+	}
+}
@@ -0,0 +1,451 @@
+/**This file has been automatically generated by: GenerateAst.java*/
+
+package com.jlox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+class AstCodec implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+
+	static final String FORMAT = "8c202ec7";
+
+	private final AstOutput out;
+	private final AstInput in;
+	private final Interpreter interpreter;
+
+	AstCodec(AstOutput out, Interpreter interpreter) {
+		this.out = out;
+		this.in = null;
+		this.interpreter = interpreter;
+	}
+
+	AstCodec(AstInput in, Interpreter interpreter) {
+		this.out = null;
+		this.in = in;
+		this.interpreter = interpreter;
+	}
+
+	void writeExprs(List<? extends Expr> nodes) {
+		out.writeInt(nodes.size());
+		for (Expr node : nodes) writeExpr(node);
+	}
+
+	void writeExpr(Expr node) {
+		if (node == null) {
+			out.writeInt(0);
+		} else {
+			node.accept(this);
+		}
+	}
+
+	List<Expr> readExprs() {
+		int count = in.readInt();
+		List<Expr> nodes = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) nodes.add(readExpr());
+		return nodes;
+	}
+
+	void writeStmts(List<? extends Stmt> nodes) {
+		out.writeInt(nodes.size());
+		for (Stmt node : nodes) writeStmt(node);
+	}
+
+	void writeStmt(Stmt node) {
+		if (node == null) {
+			out.writeInt(0);
+		} else {
+			node.accept(this);
+		}
+	}
+
+	List<Stmt> readStmts() {
+		int count = in.readInt();
+		List<Stmt> nodes = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) nodes.add(readStmt());
+		return nodes;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> List<T> cast(List<?> nodes) {
+		return (List<T>)nodes;
+	}
+
+	Expr readExpr() {
+		int tag = in.readInt();
+		if (tag == 0) return null;
+		int depth = in.readDepth();
+		Expr node;
+		switch (tag) {
+		case 1:
+			node = new Expr.Ternary(in.readToken(), readExpr(), readExpr(), readExpr());
+			break;
+		case 2:
+			node = new Expr.Assign(in.readToken(), readExpr());
+			break;
+		case 3:
+			node = new Expr.Binary(readExpr(), in.readToken(), readExpr());
+			break;
+		case 4:
+			node = new Expr.BinaryError(in.readToken(), readExpr());
+			break;
+		case 5:
+			node = new Expr.Call(readExpr(), in.readToken(), readExprs());
+			break;
+		case 6:
+			node = new Expr.Get(readExpr(), in.readToken());
+			break;
+		case 7:
+			node = new Expr.Grouping(readExpr());
+			break;
+		case 8:
+			node = new Expr.Literal(in.readValue());
+			break;
+		case 9:
+			node = new Expr.Logical(readExpr(), in.readToken(), readExpr());
+			break;
+		case 10:
+			node = new Expr.Set(readExpr(), in.readToken(), readExpr());
+			break;
+		case 11:
+			node = new Expr.Super(in.readToken(), in.readToken());
+			break;
+		case 12:
+			node = new Expr.This(in.readToken());
+			break;
+		case 13:
+			node = new Expr.Unary(in.readToken(), readExpr());
+			break;
+		case 14:
+			node = new Expr.Variable(in.readToken());
+			break;
+		case 15:
+			node = new Expr.Lambda(in.readTokens(), readStmts());
+			break;
+		case 16:
+			node = new Expr.Increment((Expr.Assign)readExpr(), (Expr.Variable)readExpr(), in.readToken(), in.readValue());
+			break;
+		case 17:
+			node = new Expr.Compare((Expr.Binary)readExpr(), (Expr.Variable)readExpr(), readExpr());
+			break;
+		case 18:
+			node = new Expr.SetThis((Expr.Set)readExpr(), (Expr.This)readExpr(), readExpr());
+			break;
+		case 19:
+			node = new Expr.GetField((Expr.Get)readExpr(), (Expr.Variable)readExpr());
+			break;
+		default:
+			throw new IllegalStateException("Malformed Expr tag " + tag + ".");
+		}
+		if (depth >= 0) interpreter.resolve(node, depth);
+		return node;
+	}
+
+	Stmt readStmt() {
+		int tag = in.readInt();
+		if (tag == 0) return null;
+		Stmt node;
+		switch (tag) {
+		case 1:
+			node = new Stmt.Block(readStmts());
+			break;
+		case 2:
+			node = new Stmt.Class(in.readToken(), (Expr.Variable)readExpr(), AstCodec.<Stmt.Function>cast(readStmts()), (Stmt.Class)readStmt());
+			break;
+		case 3:
+			node = new Stmt.Expression(readExpr());
+			break;
+		case 4:
+			node = new Stmt.Function(in.readToken(), in.readTokens(), readStmts());
+			break;
+		case 5:
+			node = new Stmt.If(readExpr(), readStmt(), readStmt());
+			break;
+		case 6:
+			node = new Stmt.Print(readExpr());
+			break;
+		case 7:
+			node = new Stmt.Return(in.readToken(), readExpr());
+			break;
+		case 8:
+			node = new Stmt.Var(in.readToken(), readExpr());
+			break;
+		case 9:
+			node = new Stmt.While(readExpr(), readStmt());
+			break;
+		case 10:
+			node = new Stmt.Break((Stmt.While)readStmt());
+			break;
+		case 11:
+			node = new Stmt.Import(in.readToken(), in.readToken());
+			break;
+		default:
+			throw new IllegalStateException("Malformed Stmt tag " + tag + ".");
+		}
+		return node;
+	}
+
+	@Override
+	public Void visitTernaryExpr(Expr.Ternary expr) {
+		out.writeInt(1);
+		out.writeDepth(interpreter.resolvedDepth(expr));
+		out.writeToken(expr.qmark);
+		writeExpr(expr.cond);
+		writeExpr(expr.left);
+		writeExpr(expr.right);
+		return null;
+	}
+
+	@Override
+	public Void visitAssignExpr(Expr.Assign expr) {
+		out.writeInt(2);
+		out.writeDepth(interpreter.resolvedDepth(expr));
+		out.writeToken(expr.name);
+		writeExpr(expr.value);
+		return null;
+	}
+
+	@Override
+	public Void visitBinaryExpr(Expr.Binary expr) {
+		out.writeInt(3);
+		out.writeDepth(interpreter.resolvedDepth(expr));
+		writeExpr(expr.left);
+		out.writeToken(expr.operator);
+		writeExpr(expr.right);
+		return null;
+	}
+
+	@Override
+	public Void visitBinaryErrorExpr(Expr.BinaryError expr) {
+		out.writeInt(4);
+		out.writeDepth(interpreter.resolvedDepth(expr));
+		out.writeToken(expr.operator);
+		writeExpr(expr.right);
+		return null;
+	}
+
+	@Override
+	public Void visitCallExpr(Expr.Call expr) {
+		out.writeInt(5);
+		out.writeDepth(interpreter.resolvedDepth(expr));
+		writeExpr(expr.callee);
+		out.writeToken(expr.paren);
+		writeExprs(expr.arguments);
+		return null;
+	}
+
+	@Override
+	public Void visitGetExpr(Expr.Get expr) {
+		out.writeInt(6);
+		out.writeDepth(interpreter.resolvedDepth(expr));
+		writeExpr(expr.object);
+		out.writeToken(expr.name);
+		return null;
+	}
+
+	@Override
+	public Void visitGroupingExpr(Expr.Grouping expr) {
+		out.writeInt(7);
+		out.writeDepth(interpreter.resolvedDepth(expr));
+		writeExpr(expr.expression);
+		return null;
+	}
+
+	@Override
+	public Void visitLiteralExpr(Expr.Literal expr) {
+		out.writeInt(8);
+		out.writeDepth(interpreter.resolvedDepth(expr));
+		out.writeValue(expr.value);
+		return null;
+	}
+
+	@Override
+	public Void visitLogicalExpr(Expr.Logical expr) {
+		out.writeInt(9);
+		out.writeDepth(interpreter.resolvedDepth(expr));
+		writeExpr(expr.left);
+		out.writeToken(expr.operator);
+		writeExpr(expr.right);
+		return null;
+	}
+
+	@Override
+	public Void visitSetExpr(Expr.Set expr) {
+		out.writeInt(10);
+		out.writeDepth(interpreter.resolvedDepth(expr));
+		writeExpr(expr.object);
+		out.writeToken(expr.name);
+		writeExpr(expr.value);
+		return null;
+	}
+
+	@Override
+	public Void visitSuperExpr(Expr.Super expr) {
+		out.writeInt(11);
+		out.writeDepth(interpreter.resolvedDepth(expr));
+		out.writeToken(expr.keyword);
+		out.writeToken(expr.method);
+		return null;
+	}
+
+	@Override
+	public Void visitThisExpr(Expr.This expr) {
+		out.writeInt(12);
+		out.writeDepth(interpreter.resolvedDepth(expr));
+		out.writeToken(expr.keyword);
+		return null;
+	}
+
+	@Override
+	public Void visitUnaryExpr(Expr.Unary expr) {
+		out.writeInt(13);
+		out.writeDepth(interpreter.resolvedDepth(expr));
+		out.writeToken(expr.operator);
+		writeExpr(expr.right);
+		return null;
+	}
+
+	@Override
+	public Void visitVariableExpr(Expr.Variable expr) {
+		out.writeInt(14);
+		out.writeDepth(interpreter.resolvedDepth(expr));
+		out.writeToken(expr.name);
+		return null;
+	}
+
+	@Override
+	public Void visitLambdaExpr(Expr.Lambda expr) {
+		out.writeInt(15);
+		out.writeDepth(interpreter.resolvedDepth(expr));
+		out.writeTokens(expr.params);
+		writeStmts(expr.body);
+		return null;
+	}
+
+	@Override
+	public Void visitIncrementExpr(Expr.Increment expr) {
+		out.writeInt(16);
+		out.writeDepth(interpreter.resolvedDepth(expr));
+		writeExpr(expr.original);
+		writeExpr(expr.variable);
+		out.writeToken(expr.operator);
+		out.writeValue(expr.delta);
+		return null;
+	}
+
+	@Override
+	public Void visitCompareExpr(Expr.Compare expr) {
+		out.writeInt(17);
+		out.writeDepth(interpreter.resolvedDepth(expr));
+		writeExpr(expr.original);
+		writeExpr(expr.left);
+		writeExpr(expr.right);
+		return null;
+	}
+
+	@Override
+	public Void visitSetThisExpr(Expr.SetThis expr) {
+		out.writeInt(18);
+		out.writeDepth(interpreter.resolvedDepth(expr));
+		writeExpr(expr.original);
+		writeExpr(expr.keyword);
+		writeExpr(expr.value);
+		return null;
+	}
+
+	@Override
+	public Void visitGetFieldExpr(Expr.GetField expr) {
+		out.writeInt(19);
+		out.writeDepth(interpreter.resolvedDepth(expr));
+		writeExpr(expr.original);
+		writeExpr(expr.object);
+		return null;
+	}
+
+	@Override
+	public Void visitBlockStmt(Stmt.Block stmt) {
+		out.writeInt(1);
+		writeStmts(stmt.statements);
+		return null;
+	}
+
+	@Override
+	public Void visitClassStmt(Stmt.Class stmt) {
+		out.writeInt(2);
+		out.writeToken(stmt.name);
+		writeExpr(stmt.superclass);
+		writeStmts(stmt.methods);
+		writeStmt(stmt.metaclass);
+		return null;
+	}
+
+	@Override
+	public Void visitExpressionStmt(Stmt.Expression stmt) {
+		out.writeInt(3);
+		writeExpr(stmt.expression);
+		return null;
+	}
+
+	@Override
+	public Void visitFunctionStmt(Stmt.Function stmt) {
+		out.writeInt(4);
+		out.writeToken(stmt.name);
+		out.writeTokens(stmt.params);
+		writeStmts(stmt.body);
+		return null;
+	}
+
+	@Override
+	public Void visitIfStmt(Stmt.If stmt) {
+		out.writeInt(5);
+		writeExpr(stmt.condition);
+		writeStmt(stmt.thenBranch);
+		writeStmt(stmt.elseBranch);
+		return null;
+	}
+
+	@Override
+	public Void visitPrintStmt(Stmt.Print stmt) {
+		out.writeInt(6);
+		writeExpr(stmt.expression);
+		return null;
+	}
+
+	@Override
+	public Void visitReturnStmt(Stmt.Return stmt) {
+		out.writeInt(7);
+		out.writeToken(stmt.keyword);
+		writeExpr(stmt.value);
+		return null;
+	}
+
+	@Override
+	public Void visitVarStmt(Stmt.Var stmt) {
+		out.writeInt(8);
+		out.writeToken(stmt.name);
+		writeExpr(stmt.initializer);
+		return null;
+	}
+
+	@Override
+	public Void visitWhileStmt(Stmt.While stmt) {
+		out.writeInt(9);
+		writeExpr(stmt.condition);
+		writeStmt(stmt.body);
+		return null;
+	}
+
+	@Override
+	public Void visitBreakStmt(Stmt.Break stmt) {
+		out.writeInt(10);
+		writeStmt(stmt.enclosing);
+		return null;
+	}
+
+	@Override
+	public Void visitImportStmt(Stmt.Import stmt) {
+		out.writeInt(11);
+		out.writeToken(stmt.keyword);
+		out.writeToken(stmt.path);
+		return null;
+	}
+}
@@ -0,0 +1,111 @@
+package com.jlox;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+class AstInput {
+
+	/* Reads back what an AstOutput wrote, straight out of a (usually memory-mapped) buffer.
+	 * Malformed input throws an IllegalStateException, or whatever the buffer throws when read
+	 * past its end. */
+
+	private final ByteBuffer bytes;
+	private final List<String> strings = new ArrayList<>();
+	// The interned Symbol for each string used as a name, filled in on first use.
+	private final List<Symbol> symbols = new ArrayList<>();
+
+	AstInput(ByteBuffer bytes) {
+		this.bytes = bytes;
+	}
+
+	boolean atEnd() {
+		return !bytes.hasRemaining();
+	}
+
+	int readByte() {
+		return bytes.get() & 0xFF;
+	}
+
+	int readInt() {
+		int value = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			int b = readByte();
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) return value;
+		}
+		throw new IllegalStateException("Malformed integer.");
+	}
+
+	long readLong() {
+		long value = 0;
+		for (int i = 0; i < 8; i++) {
+			value |= (long)readByte() << (i * 8);
+		}
+		return value;
+	}
+
+	String readString() {
+		return strings.get(readStringIndex());
+	}
+	
+	private int readStringIndex() {
+		int index = readInt();
+		if (index != 0) return index - 1;
+		byte[] utf8 = new byte[readInt()];
+		bytes.get(utf8);
+		strings.add(new String(utf8, StandardCharsets.UTF_8));
+		symbols.add(null);
+		return strings.size() - 1;
+	}
+
+	Object readValue() {
+		switch (readByte()) {
+		case AstOutput.NIL:
+			return null;
+		case AstOutput.FALSE:
+			return false;
+		case AstOutput.TRUE:
+			return true;
+		case AstOutput.NUMBER:
+			return Double.longBitsToDouble(readLong());
+		case AstOutput.STRING:
+			return readString();
+		default:
+			throw new IllegalStateException("Malformed value.");
+		}
+	}
+
+	Token readToken() {
+		int type = readInt();
+		if (type == 0) return null;
+		TokenType tokenType = AstOutput.type(type - 1);
+		int lexeme = readStringIndex();
+		Object literal = readValue();
+		int line = readInt();
+		
+		// Each distinct name is only interned once per file.
+		Symbol symbol = null;
+		if (Token.isNamed(tokenType)) {
+			symbol = symbols.get(lexeme);
+			if (symbol == null) {
+				symbol = SymbolTable.intern(strings.get(lexeme));
+				symbols.set(lexeme, symbol);
+			}
+		}
+		return new Token(tokenType, strings.get(lexeme), literal, line, symbol);
+	}
+
+	List<Token> readTokens() {
+		int count = readInt();
+		List<Token> tokens = new ArrayList<>(count);
+		for (int i = 0; i < count; i++) tokens.add(readToken());
+		return tokens;
+	}
+
+	int readDepth() {
+		/* -1 for a global. */
+		return readInt() - 1;
+	}
+}
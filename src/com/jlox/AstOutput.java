@@ -0,0 +1,106 @@
+package com.jlox;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+class AstOutput {
+
+	/* The low-level half of AstCodec's binary format: a growable byte array with variable-length
+	 * integers, and a string table so each distinct lexeme is only written once.
+	 *
+	 * Integers are written as unsigned LEB128 varints, so small ones (node tags, depths, most line
+	 * numbers) take a single byte. A string is written as its index in the table, plus 1; a
+	 * string seen for the first time is written as 0 followed by its UTF-8 bytes.
+	 * */
+
+	private static final TokenType[] TYPES = TokenType.values();
+
+	private byte[] bytes = new byte[4096];
+	private int size = 0;
+	private final Map<String, Integer> strings = new HashMap<>();
+
+	// Tags for the values of literals
+	static final int NIL = 0;
+	static final int FALSE = 1;
+	static final int TRUE = 2;
+	static final int NUMBER = 3;
+	static final int STRING = 4;
+
+	byte[] toByteArray() {
+		return Arrays.copyOf(bytes, size);
+	}
+
+	void writeByte(int value) {
+		if (size == bytes.length) bytes = Arrays.copyOf(bytes, size * 2);
+		bytes[size++] = (byte)value;
+	}
+
+	void writeInt(int value) {
+		while ((value & ~0x7F) != 0) {
+			writeByte((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		writeByte(value);
+	}
+
+	void writeLong(long value) {
+		for (int i = 0; i < 8; i++) {
+			writeByte((int)(value >>> (i * 8)));
+		}
+	}
+
+	void writeString(String value) {
+		Integer index = strings.get(value);
+		if (index != null) {
+			writeInt(index + 1);
+			return;
+		}
+		strings.put(value, strings.size());
+		byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+		writeInt(0);
+		writeInt(utf8.length);
+		for (byte b : utf8) writeByte(b);
+	}
+
+	void writeValue(Object value) {
+		if (value == null) {
+			writeByte(NIL);
+		} else if (value instanceof Boolean) {
+			writeByte((Boolean)value ? TRUE : FALSE);
+		} else if (value instanceof Double) {
+			writeByte(NUMBER);
+			writeLong(Double.doubleToRawLongBits((Double)value));
+		} else {
+			writeByte(STRING);
+			writeString((String)value);
+		}
+	}
+
+	void writeToken(Token token) {
+		if (token == null) {
+			writeInt(0);
+			return;
+		}
+		writeInt(token.type.ordinal() + 1);
+		writeString(token.lexeme);
+		writeValue(token.literal);
+		writeInt(token.line);
+	}
+
+	void writeTokens(List<Token> tokens) {
+		writeInt(tokens.size());
+		for (Token token : tokens) writeToken(token);
+	}
+
+	void writeDepth(Integer depth) {
+		// 0 for a global, otherwise the number of scopes out plus 1
+		writeInt(depth == null ? 0 : depth + 1);
+	}
+
+	static TokenType type(int ordinal) {
+		return TYPES[ordinal];
+	}
+}
@@ -200,6 +200,11 @@ public class AstPrinter implements Expr.Visitor<String>, Stmt.Visitor<String> {
 		return "break";
 	}
 
+	@Override
+	public String visitImportStmt(Stmt.Import stmt) {
+		return parenthesize("import: " + stmt.path.lexeme);
+	}
+
 	@Override
 	public String visitFunctionStmt(Function stmt) {
 		String declaration = parenthesize("fun declaration <" + stmt.name.lexeme + "> " + stmt.params.toString());
@@ -230,4 +235,24 @@ public class AstPrinter implements Expr.Visitor<String>, Stmt.Visitor<String> {
 	public String visitSuperExpr(Super expr) {
 		return parenthesize("super");
 	}
+
+	@Override
+	public String visitIncrementExpr(Expr.Increment expr) {
+		return expr.original.accept(this);
+	}
+
+	@Override
+	public String visitCompareExpr(Expr.Compare expr) {
+		return expr.original.accept(this);
+	}
+
+	@Override
+	public String visitSetThisExpr(Expr.SetThis expr) {
+		return expr.original.accept(this);
+	}
+
+	@Override
+	public String visitGetFieldExpr(Expr.GetField expr) {
+		return expr.original.accept(this);
+	}
 }
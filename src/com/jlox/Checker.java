@@ -0,0 +1,91 @@
+package com.jlox;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+class Checker {
+
+	/* Scans, parses and resolves many scripts concurrently without running them (--check).
+	 *
+	 * Each file is checked as its own task on the common ForkJoinPool, with its own Interpreter
+	 * (for the Resolver's depths) and its own buffered ErrorReporter, which puts the file name in
+	 * front of each of its diagnostics. The diagnostics are printed file by file, in the order the
+	 * files were given, as each file's task finishes.
+	 * */
+
+	private Checker() {}
+
+	static int check(String[] arguments) {
+		/* Returns the exit code: 65 if any file had errors, otherwise 0. */
+		ErrorReporter reporter = new ErrorReporter(new PrintWriter(System.err, true));
+		List<Path> files = new ArrayList<>();
+		for (String argument : arguments) {
+			try {
+				files.addAll(scripts(Paths.get(argument)));
+			} catch (IOException e) {
+				ErrorReporter failed = ErrorReporter.buffered(argument + ": ");
+				failed.error(0, "Could not read: " + e.getMessage());
+				reporter.replay(failed);
+			}
+		}
+
+		List<ForkJoinTask<ErrorReporter>> tasks = new ArrayList<>(files.size());
+		for (Path file : files) {
+			tasks.add(ForkJoinPool.commonPool().submit(() -> check(file)));
+		}
+
+		int failures = 0;
+		for (ForkJoinTask<ErrorReporter> task : tasks) {
+			ErrorReporter result = task.join();
+			if (result.hadError) failures++;
+			reporter.replay(result);
+		}
+
+		System.out.println("Checked " + files.size() + " files, " + failures + " with errors.");
+		return reporter.hadError ? 65 : 0;
+	}
+
+	private static List<Path> scripts(Path path) throws IOException {
+		/* A file as given, or every .lox file under a directory, in a stable order. */
+		if (!Files.isDirectory(path)) return List.of(path);
+		try (Stream<Path> walk = Files.walk(path)) {
+			return walk.filter(file -> file.toString().endsWith(".lox") && Files.isRegularFile(file))
+					.sorted()
+					.collect(Collectors.toList());
+		}
+	}
+
+	private static ErrorReporter check(Path file) {
+		ErrorReporter reporter = ErrorReporter.buffered(file + ": ");
+		CharSequence source;
+		try {
+			source = MappedSource.open(file);
+		} catch (IOException e) {
+			reporter.error(0, "Could not read: " + e.getMessage());
+			return reporter;
+		}
+
+		Parser parser;
+		if (source.length() >= Scanner.PARALLEL_THRESHOLD) {
+			parser = new Parser(Scanner.scanParallel(source, reporter), false, reporter);
+		} else {
+			parser = new Parser(new Scanner(source, reporter), reporter);
+		}
+		List<Stmt> statements = parser.parse();
+
+		// As when running, resolver errors are only looked for once the file parses.
+		if (!reporter.hadError) {
+			new Resolver(new Interpreter(reporter)).resolve(statements);
+		}
+		return reporter;
+	}
+}
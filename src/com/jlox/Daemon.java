@@ -0,0 +1,175 @@
+package com.jlox;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+class Daemon {
+
+	/* A long-running jlox which runs scripts sent to it over a Unix domain socket (--daemon), so
+	 * that each run skips starting a JVM, and gets the interpreter after the JIT has warmed it
+	 * up. Scripts are sent by LoxClient, which is all that starts for each run.
+	 *
+	 * A connection carries one run. The client sends the script's source, in UTF-8, and shuts down
+	 * its side for writing. The daemon answers with frames, each a one-byte tag and a four-byte
+	 * big-endian integer: for STDOUT and STDERR the integer is the length of the UTF-8 text which
+	 * follows, and the last frame is EXIT, whose integer is the exit code jlox would have given
+	 * (0, 65 or 70). Output is sent a line at a time as it's printed, in the order it was printed.
+	 *
+	 * Each script is compiled into a Program and run on an Isolate from a pool, so scripts running
+	 * at the same time don't see each other, and a script doesn't see what the last one on the
+	 * same Isolate left behind. If a prelude was given, every Isolate has run it already.
+	 *
+	 * The prelude's file is looked at before each run. If it has changed, and the new version
+	 * compiles and runs, its changed functions and classes are swapped into the Isolates (see
+	 * IsolatePool.reload()), which keep the rest of their state, so a small change to it doesn't
+	 * need a restart. Otherwise its errors go to the daemon's standard error, and the version
+	 * already loaded stays.
+	 * */
+
+	static final int STDOUT = 1;
+	static final int STDERR = 2;
+	static final int EXIT = 3;
+
+	private final IsolatePool pool;
+	private final Path prelude;
+	// When the prelude's file was last changed, as of the version loaded
+	private FileTime loaded;
+
+	private Daemon(IsolatePool pool, Path prelude, FileTime loaded){
+		this.pool = pool;
+		this.prelude = prelude;
+		this.loaded = loaded;
+	}
+
+	static void serve(Path socket, Path prelude) throws IOException {
+		/* Runs until the process is killed. Exits with 65 if the prelude has errors. */
+		Program program = null;
+		FileTime loaded = null;
+		if (prelude != null) {
+			loaded = Files.getLastModifiedTime(prelude);
+			program = Program.compile(MappedSource.open(prelude), new ErrorReporter(new PrintWriter(System.err, true)));
+			if (program == null) System.exit(65);
+		}
+		IsolatePool pool = new IsolatePool(program, Runtime.getRuntime().availableProcessors(), 10, TimeUnit.MINUTES);
+		Daemon daemon = new Daemon(pool, prelude, loaded);
+
+		// A socket file left behind by a daemon which was killed would stop the bind.
+		Files.deleteIfExists(socket);
+		try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+			server.bind(UnixDomainSocketAddress.of(socket));
+			socket.toFile().deleteOnExit();
+			ExecutorService runs = Executors.newCachedThreadPool();
+			for (;;) {
+				SocketChannel client = server.accept();
+				runs.execute(() -> daemon.run(client));
+			}
+		}
+	}
+
+	private synchronized void refresh() {
+		/* Reloads the prelude if its file has changed since it was loaded. */
+		if (prelude == null) return;
+		try {
+			FileTime modified = Files.getLastModifiedTime(prelude);
+			if (modified.equals(loaded)) return;
+			loaded = modified;
+
+			// Read rather than mapped, as the file may be written again while it's in use
+			ErrorReporter errors = ErrorReporter.buffered("");
+			Program program = Program.compile(Files.readString(prelude), errors);
+			if (program == null || !new Isolate(new PrintWriter(Writer.nullWriter()), errors).run(program)) {
+				System.err.print("The prelude wasn't reloaded:\n" + errors.report());
+				return;
+			}
+			pool.reload(program);
+		} catch (IOException e) {
+			// Keep the prelude that's loaded, perhaps the file is being replaced.
+		}
+	}
+
+	private void run(SocketChannel client) {
+		refresh();
+		try (client) {
+			String source = new String(Channels.newInputStream(client).readAllBytes(), StandardCharsets.UTF_8);
+			PrintWriter out = new PrintWriter(new FrameWriter(client, STDOUT), true);
+			PrintWriter err = new PrintWriter(new FrameWriter(client, STDERR), true);
+			ErrorReporter reporter = new ErrorReporter(err);
+
+			int status;
+			try {
+				Program program = Program.compile(source, reporter);
+				if (program == null) {
+					status = 65;
+				} else {
+					status = pool.run(program, out, reporter) ? 0 : 70;
+				}
+			} catch (Throwable t) {
+				// Such as a StackOverflowError from deep recursion: the client still gets its EXIT.
+				err.println("The script stopped with " + t + ".");
+				status = 70;
+			}
+			out.flush();
+			err.flush();
+			send(client, EXIT, status, null);
+		} catch (IOException e) {
+			// The client went away, there's no one to tell.
+		}
+	}
+
+	private static void send(SocketChannel client, int tag, int value, byte[] payload) throws IOException {
+		ByteBuffer frame = ByteBuffer.allocate(5 + (payload == null ? 0 : payload.length));
+		frame.put((byte)tag).putInt(value);
+		if (payload != null) frame.put(payload);
+		frame.flip();
+		// Frames from stdout and stderr mustn't interleave.
+		synchronized (client) {
+			while (frame.hasRemaining()) client.write(frame);
+		}
+	}
+
+	private static final class FrameWriter extends Writer {
+
+		/* Sends what's written as one frame each time it's flushed. */
+
+		private final SocketChannel client;
+		private final int tag;
+		private final StringBuilder pending = new StringBuilder();
+
+		FrameWriter(SocketChannel client, int tag){
+			this.client = client;
+			this.tag = tag;
+		}
+
+		@Override
+		public void write(char[] chars, int offset, int length) {
+			pending.append(chars, offset, length);
+		}
+
+		@Override
+		public void flush() throws IOException {
+			if (pending.length() == 0) return;
+			byte[] text = pending.toString().getBytes(StandardCharsets.UTF_8);
+			pending.setLength(0);
+			send(client, tag, text.length, text);
+		}
+
+		@Override
+		public void close() throws IOException {
+			flush();
+		}
+	}
+}
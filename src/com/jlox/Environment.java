@@ -3,38 +3,73 @@ package com.jlox;
 import java.util.Map;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Set;
 import java.util.ArrayList;
 
 class Environment {
 	
 	final Environment enclosing;
-	private final Map<String, Object> values = new HashMap<>();
-	private List<String> declaredOnly = new ArrayList<String>();
+	// The globals at the end of the chain, which are the module's globals in a module's function
+	final Environment root;
+	/* Variables are keyed by their interned Symbol, so lookups compare by identity. */
+	private final Map<Symbol, Object> values = new HashMap<>();
+	private List<Symbol> declaredOnly = new ArrayList<Symbol>();
+	// While marked (see mark()), each binding changed since, as it was before its first change
+	private Map<Symbol, Saved> journal = null;
+	// How many modules had been imported when marked
+	private int importsMarked = 0;
+	// For the globals, the environments of the modules imported (see LoxModule), looked in last
+	private List<Environment> imports = null;
+	// A module's globals once it's loaded, which nothing may assign to
+	private boolean frozen = false;
+	
+	private static final Object UNBOUND = new Object();
+	
+	private static final class Saved {
+		final Object value;
+		final int declarations;
+		
+		Saved(Object value, int declarations){
+			this.value = value;
+			this.declarations = declarations;
+		}
+	}
 	
 	Environment(){
 		enclosing = null;
+		root = this;
 	}
 	
 	Environment(Environment enclosing){
 		this.enclosing = enclosing;
+		this.root = enclosing.root;
 	}
 	
 	Object get(Token name) {
-		if (declaredOnly.contains(name.lexeme)) {
+		if (declaredOnly.contains(name.symbol)) {
 			throw new RuntimeError(name, "Uninitialized variable '" + name.lexeme + "'.");
 		}
-		else if(values.containsKey(name.lexeme)) {
-			return values.get(name.lexeme);
+		else if(values.containsKey(name.symbol)) {
+			return values.get(name.symbol);
 		}
 		if (enclosing != null) {
 			return enclosing.get(name);
 		}
+		Environment module = imported(name.symbol);
+		if (module != null) {
+			return module.get(name);
+		}
 		throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
 	}
 	
 	void define(String name, Object value) {
+		define(SymbolTable.intern(name), value);
+	}
+	
+	void define(Symbol name, Object value) {
 		/* when a variable is declared, but not defined, we put it in a separate
 		 * list, rather than in the values Map*/
+		if (journal != null) save(name);
 		if (value != null) {
 			values.put(name, value);
 			//System.out.println(name + "added to values");
@@ -44,7 +79,7 @@ class Environment {
 		}
 	}
 	
-	Object getAt(int distance, String name) {
+	Object getAt(int distance, Symbol name) {
 		return ancestor(distance).values.get(name);
 	}
 	
@@ -61,15 +96,20 @@ class Environment {
 	}
 	
 	void assign(Token name, Object value) {
-		if (values.containsKey(name.lexeme)) {
-			values.put(name.lexeme, value);
+		if (frozen) {
+			throw new RuntimeError(name, "Can't assign to '" + name.lexeme + "', a module's variables are read-only.");
+		}
+		if (values.containsKey(name.symbol)) {
+			if (journal != null) save(name.symbol);
+			values.put(name.symbol, value);
 			return;
 		}
-		else if (declaredOnly.contains(name.lexeme)) {
+		else if (declaredOnly.contains(name.symbol)) {
 			/* if the token has already been  declared but not defined, we move it
 			 * from the list of declaredOnly and add it to the main values Map*/
-			declaredOnly.remove(name.lexeme);
-			values.put(name.lexeme, value);
+			if (journal != null) save(name.symbol);
+			declaredOnly.remove(name.symbol);
+			values.put(name.symbol, value);
 			return;
 		}
 		
@@ -77,6 +117,81 @@ class Environment {
 			enclosing.assign(name, value);
 			return;
 		}
+		if (imported(name.symbol) != null) {
+			throw new RuntimeError(name, "Can't assign to imported variable '" + name.lexeme + "'.");
+		}
 		throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
 	}
+	
+	void mark() {
+		/* Starts keeping a journal of the bindings in this environment that change, so that
+		 * rollback() can put them back as they are now. It costs nothing for a binding that
+		 * doesn't change, and a rollback only touches the ones that did. */
+		journal = new HashMap<>();
+		importsMarked = imports == null ? 0 : imports.size();
+	}
+	
+	void rollback() {
+		/* Undoes every change to a binding since mark(), and keeps the mark. Values held by
+		 * a binding are not copied, so changes to an instance's fields are not undone. */
+		for (Map.Entry<Symbol, Saved> entry : journal.entrySet()) {
+			Symbol name = entry.getKey();
+			Saved saved = entry.getValue();
+			if (saved.value == UNBOUND) {
+				values.remove(name);
+			} else {
+				values.put(name, saved.value);
+			}
+			declaredOnly.removeIf(declared -> declared == name);
+			for (int i = 0; i < saved.declarations; i++) {
+				declaredOnly.add(name);
+			}
+		}
+		journal.clear();
+		if (imports != null) imports.subList(importsMarked, imports.size()).clear();
+	}
+	
+	Set<Symbol> changed() {
+		/* The bindings changed since mark(). */
+		return journal.keySet();
+	}
+	
+	Map<Symbol, Object> values() {
+		/* The bindings themselves, for a Snapshot to write out and read back in. */
+		return values;
+	}
+	
+	List<Symbol> declaredOnly() {
+		return declaredOnly;
+	}
+	
+	void addImport(Environment module) {
+		/* Makes a module's globals visible from these, behind any of their own. A module
+		 * imported later is looked in first. */
+		if (imports == null) imports = new ArrayList<>();
+		if (!imports.contains(module)) imports.add(module);
+	}
+	
+	void freeze() {
+		frozen = true;
+	}
+	
+	private Environment imported(Symbol name) {
+		if (imports == null) return null;
+		for (int i = imports.size() - 1; i >= 0; i--) {
+			Environment module = imports.get(i);
+			if (module.values.containsKey(name) || module.declaredOnly.contains(name)) return module;
+		}
+		return null;
+	}
+	
+	private void save(Symbol name) {
+		if (journal.containsKey(name)) return;
+		Object value = values.containsKey(name) ? values.get(name) : UNBOUND;
+		int declarations = 0;
+		for (Symbol declared : declaredOnly) {
+			if (declared == name) declarations++;
+		}
+		journal.put(name, new Saved(value, declarations));
+	}
 }
@@ -0,0 +1,95 @@
+package com.jlox;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+
+public class ErrorReporter {
+
+	/* Where the Scanner, Parser, Resolver and Interpreter report errors, and whether they have.
+	 *
+	 * The command line runs everything against a single reporter on stderr (Lox.reporter). Anything
+	 * that runs several programs at once, such as --check, gives each its own, so one program's
+	 * errors are never mixed up with another's. Reports may come from several threads (see
+	 * --pipeline): the PrintWriter serializes the lines, and the flags are volatile.
+	 * */
+
+	private final PrintWriter out;
+	private final String prefix;
+	// Only for a buffered reporter, what out writes to
+	private final StringWriter text;
+	volatile boolean hadError = false;
+	volatile boolean hadRuntimeError = false;
+
+	ErrorReporter(PrintWriter out){
+		this(out, "");
+	}
+
+	ErrorReporter(PrintWriter out, String prefix){
+		// The prefix goes in front of every line, such as the file name in --check.
+		this(out, prefix, null);
+	}
+
+	private ErrorReporter(PrintWriter out, String prefix, StringWriter text){
+		this.out = out;
+		this.prefix = prefix;
+		this.text = text;
+	}
+
+	public static ErrorReporter buffered(String prefix) {
+		/* A reporter which keeps its lines until they're asked for with report(). */
+		StringWriter text = new StringWriter();
+		return new ErrorReporter(new PrintWriter(text), prefix, text);
+	}
+
+	ErrorReporter deferred() {
+		/* A buffered reporter with the same prefix, to be replayed into this one later. */
+		return buffered(prefix);
+	}
+
+	void error(int line, String message) {
+		report(line, "", message);
+	}
+
+	void error(Token token, String message) {
+		if (token == null) {
+			report(token.line, " at '" + token.lexeme + "'", message);
+		}
+		if(token.type == TokenType.EOF) {
+			report(token.line, " at end", message);
+		} else {
+			report(token.line, " at '" + token.lexeme + "'", message);
+		}
+	}
+
+	void runtimeError(RuntimeError error) {
+		out.println(prefix + error.getMessage() + "\n[line " + error.token.line + "]");
+		out.flush();
+		hadRuntimeError = true;
+	}
+
+	private void report(int line, String where, String message) {
+		out.println(prefix + "[line " + line + "] Error " + where + " : " + message);
+		out.flush();
+		hadError = true;
+	}
+
+	void replay(ErrorReporter buffered) {
+		/* Passes on everything a buffered reporter was told, in order. */
+		String text = buffered.report();
+		if (!text.isEmpty()) {
+			out.print(text);
+			out.flush();
+		}
+		if (buffered.hadError) hadError = true;
+		if (buffered.hadRuntimeError) hadRuntimeError = true;
+	}
+
+	public String report() {
+		/* The text reported so far, for a buffered reporter. */
+		return text == null ? "" : text.toString();
+	}
+
+	void reset() {
+		hadError = false;
+	}
+}
@@ -24,6 +24,10 @@ abstract class Expr {
 	R visitUnaryExpr(Unary expr);
 	R visitVariableExpr(Variable expr);
 	R visitLambdaExpr(Lambda expr);
+	R visitIncrementExpr(Increment expr);
+	R visitCompareExpr(Compare expr);
+	R visitSetThisExpr(SetThis expr);
+	R visitGetFieldExpr(GetField expr);
 	}
 static class Ternary extends Expr {
 
@@ -269,4 +273,76 @@ static class Lambda extends Expr {
 		return visitor.visitLambdaExpr(this);
 	}
 }
+static class Increment extends Expr {
+
+	final Expr.Assign original;
+	final Expr.Variable variable;
+	final Token operator;
+	final Object delta;
+
+	Increment (Expr.Assign original, Expr.Variable variable, Token operator, Object delta) {
+		this.original = original;
+		this.variable = variable;
+		this.operator = operator;
+		this.delta = delta;
+
+	}
+
+	@Override
+	<R> R accept(Visitor<R> visitor){
+		return visitor.visitIncrementExpr(this);
+	}
+}
+static class Compare extends Expr {
+
+	final Expr.Binary original;
+	final Expr.Variable left;
+	final Expr right;
+
+	Compare (Expr.Binary original, Expr.Variable left, Expr right) {
+		this.original = original;
+		this.left = left;
+		this.right = right;
+
+	}
+
+	@Override
+	<R> R accept(Visitor<R> visitor){
+		return visitor.visitCompareExpr(this);
+	}
+}
+static class SetThis extends Expr {
+
+	final Expr.Set original;
+	final Expr.This keyword;
+	final Expr value;
+
+	SetThis (Expr.Set original, Expr.This keyword, Expr value) {
+		this.original = original;
+		this.keyword = keyword;
+		this.value = value;
+
+	}
+
+	@Override
+	<R> R accept(Visitor<R> visitor){
+		return visitor.visitSetThisExpr(this);
+	}
+}
+static class GetField extends Expr {
+
+	final Expr.Get original;
+	final Expr.Variable object;
+
+	GetField (Expr.Get original, Expr.Variable object) {
+		this.original = original;
+		this.object = object;
+
+	}
+
+	@Override
+	<R> R accept(Visitor<R> visitor){
+		return visitor.visitGetFieldExpr(this);
+	}
+}
 }
@@ -0,0 +1,395 @@
+package com.jlox;
+
+import java.util.Arrays;
+import java.util.List;
+
+class FlatAst implements Expr.Visitor<Integer>, Stmt.Visitor<Integer> {
+
+	/* A resolved program encoded as flat records in an int[], rather than as a tree of Expr and
+	 * Stmt objects (see --flat). FlatInterpreter runs it directly.
+	 *
+	 * Every node is a record of STRIDE ints, and is referred to by the offset of its record:
+	 *
+	 *   KIND   what the node is, one of the constants below
+	 *   TOKEN  an index into the token tables, or NONE
+	 *   A B C  children, list references, constant indices or depths, depending on the kind
+	 *
+	 * A list is a count followed by that many node (or token) indices in lists, and is referred
+	 * to by the index of its count. The Resolver's depths are kept in the records of the nodes
+	 * that look up a variable (Variable, Assign, This and Super), with NONE for a global, and
+	 * are forgotten by the interpreter as they're converted, so nothing refers back to the
+	 * object tree once a program is converted.
+	 *
+	 * Tokens aren't kept either: each one is a row of the token tables, its type, lexeme,
+	 * literal, line and symbol, and token() builds a Token from them only where the runtime needs
+	 * one, to look up a global or report an error.
+	 *
+	 * Fused nodes are converted back to the nodes they replaced, and lazy function bodies are
+	 * parsed as they're converted.
+	 * */
+
+	static final int NONE = -1;
+	private static final TokenType[] TOKEN_TYPES = TokenType.values();
+	static final int STRIDE = 5;
+	static final int KIND = 0, TOKEN = 1, A = 2, B = 3, C = 4;
+
+	// Expressions
+	static final int TERNARY = 0;      // qmark   cond       left      right
+	static final int ASSIGN = 1;       // name    value      depth
+	static final int BINARY = 2;       // op      left       right
+	static final int BINARY_ERROR = 3; // op      right
+	static final int CALL = 4;         // paren   callee     arguments
+	static final int GET = 5;          // name    object
+	static final int GROUPING = 6;     //         expression
+	static final int LITERAL = 7;      //         constant
+	static final int LOGICAL = 8;      // op      left       right
+	static final int SET = 9;          // name    object     value
+	static final int SUPER = 10;       // keyword method     depth
+	static final int THIS = 11;        // keyword depth
+	static final int UNARY = 12;       // op      right
+	static final int VARIABLE = 13;    // name    depth
+	static final int LAMBDA = 14;      //         params     body
+	// Statements
+	static final int BLOCK = 15;       //         statements
+	static final int CLASS = 16;       // name    superclass methods   metaclass
+	static final int EXPRESSION = 17;  //         expression
+	static final int FUNCTION = 18;    // name    params     body
+	static final int IF = 19;          //         condition  then      else
+	static final int PRINT = 20;       //         expression
+	static final int RETURN = 21;      // keyword value
+	static final int VAR = 22;         // name    initializer
+	static final int WHILE = 23;       //         condition  body
+	static final int BREAK = 24;
+	static final int IMPORT = 25;      // keyword
+
+	int[] nodes = new int[STRIDE * 64];
+	private int nodeCount = 0;
+	int[] lists = new int[64];
+	private int listCount = 0;
+	private byte[] tokenTypes = new byte[64];
+	private String[] lexemes = new String[64];
+	private Object[] literals = new Object[64];
+	private int[] lines = new int[64];
+	private Symbol[] symbols = new Symbol[64];
+	private int tokenCount = 0;
+	Object[] constants = new Object[16];
+	private int constantCount = 0;
+	// The top level statements, as a list reference
+	int statements;
+
+	private final Interpreter interpreter;
+
+	private FlatAst(Interpreter interpreter){
+		this.interpreter = interpreter;
+	}
+
+	static FlatAst of(List<Stmt> statements, Interpreter interpreter) {
+		/* Converts resolved statements, with the depths the Resolver gave the interpreter. */
+		FlatAst ast = new FlatAst(interpreter);
+		ast.statements = ast.statementList(statements);
+		ast.trim();
+		return ast;
+	}
+
+	int kind(int node) {
+		return nodes[node + KIND];
+	}
+
+	Token token(int node) {
+		return tokenAt(nodes[node + TOKEN]);
+	}
+
+	TokenType type(int node) {
+		return TOKEN_TYPES[tokenTypes[nodes[node + TOKEN]]];
+	}
+
+	Symbol symbol(int node) {
+		return symbols[nodes[node + TOKEN]];
+	}
+
+	Token tokenAt(int index) {
+		/* Builds the token at an index into the token tables, such as an element of a list of
+		 * parameters. */
+		return new Token(TOKEN_TYPES[tokenTypes[index]], lexemes[index], literals[index], lines[index], symbols[index]);
+	}
+
+	Symbol symbolAt(int index) {
+		return symbols[index];
+	}
+
+	int a(int node) {
+		return nodes[node + A];
+	}
+
+	int b(int node) {
+		return nodes[node + B];
+	}
+
+	int c(int node) {
+		return nodes[node + C];
+	}
+
+	int size(int list) {
+		return lists[list];
+	}
+
+	int get(int list, int i) {
+		return lists[list + 1 + i];
+	}
+
+	int nodeCount() {
+		return nodeCount / STRIDE;
+	}
+
+	private void trim() {
+		nodes = Arrays.copyOf(nodes, nodeCount);
+		lists = Arrays.copyOf(lists, listCount);
+		tokenTypes = Arrays.copyOf(tokenTypes, tokenCount);
+		lexemes = Arrays.copyOf(lexemes, tokenCount);
+		literals = Arrays.copyOf(literals, tokenCount);
+		lines = Arrays.copyOf(lines, tokenCount);
+		symbols = Arrays.copyOf(symbols, tokenCount);
+		constants = Arrays.copyOf(constants, constantCount);
+	}
+
+	private int node(int kind, Token token, int a, int b, int c) {
+		if (nodeCount + STRIDE > nodes.length) nodes = Arrays.copyOf(nodes, nodes.length * 2);
+		int node = nodeCount;
+		nodes[node + KIND] = kind;
+		nodes[node + TOKEN] = token == null ? NONE : token(token);
+		nodes[node + A] = a;
+		nodes[node + B] = b;
+		nodes[node + C] = c;
+		nodeCount += STRIDE;
+		return node;
+	}
+
+	private int token(Token token) {
+		if (tokenCount == lexemes.length) {
+			int length = lexemes.length * 2;
+			tokenTypes = Arrays.copyOf(tokenTypes, length);
+			lexemes = Arrays.copyOf(lexemes, length);
+			literals = Arrays.copyOf(literals, length);
+			lines = Arrays.copyOf(lines, length);
+			symbols = Arrays.copyOf(symbols, length);
+		}
+		tokenTypes[tokenCount] = (byte)token.type.ordinal();
+		lexemes[tokenCount] = token.lexeme;
+		literals[tokenCount] = token.literal;
+		lines[tokenCount] = token.line;
+		symbols[tokenCount] = token.symbol;
+		return tokenCount++;
+	}
+
+	private int constant(Object value) {
+		if (constantCount == constants.length) constants = Arrays.copyOf(constants, constants.length * 2);
+		constants[constantCount] = value;
+		return constantCount++;
+	}
+
+	private int list(int[] elements, int count) {
+		if (listCount + count + 1 > lists.length) {
+			lists = Arrays.copyOf(lists, Math.max(lists.length * 2, listCount + count + 1));
+		}
+		int list = listCount;
+		lists[list] = count;
+		System.arraycopy(elements, 0, lists, list + 1, count);
+		listCount += count + 1;
+		return list;
+	}
+
+	private int statementList(List<? extends Stmt> statements) {
+		// The children are converted before the list is written, as they write lists of their own.
+		int[] elements = new int[statements.size()];
+		int count = 0;
+		for (Stmt statement : statements) elements[count++] = convert(statement);
+		return list(elements, count);
+	}
+
+	private int tokenList(List<Token> params) {
+		int[] elements = new int[params.size()];
+		for (int i = 0; i < elements.length; i++) elements[i] = token(params.get(i));
+		return list(elements, elements.length);
+	}
+
+	private int convert(Expr expr) {
+		return expr == null ? NONE : expr.accept(this);
+	}
+
+	private int convert(Stmt stmt) {
+		return stmt == null ? NONE : stmt.accept(this);
+	}
+
+	private int depth(Expr expr) {
+		Integer depth = interpreter.resolvedDepth(expr);
+		interpreter.forgetResolution(expr);
+		return depth == null ? NONE : depth;
+	}
+
+	@Override
+	public Integer visitTernaryExpr(Expr.Ternary expr) {
+		int cond = convert(expr.cond);
+		int left = convert(expr.left);
+		return node(TERNARY, expr.qmark, cond, left, convert(expr.right));
+	}
+
+	@Override
+	public Integer visitAssignExpr(Expr.Assign expr) {
+		return node(ASSIGN, expr.name, convert(expr.value), depth(expr), NONE);
+	}
+
+	@Override
+	public Integer visitBinaryExpr(Expr.Binary expr) {
+		int left = convert(expr.left);
+		return node(BINARY, expr.operator, left, convert(expr.right), NONE);
+	}
+
+	@Override
+	public Integer visitBinaryErrorExpr(Expr.BinaryError expr) {
+		return node(BINARY_ERROR, expr.operator, convert(expr.right), NONE, NONE);
+	}
+
+	@Override
+	public Integer visitCallExpr(Expr.Call expr) {
+		int callee = convert(expr.callee);
+		int[] arguments = new int[expr.arguments.size()];
+		for (int i = 0; i < arguments.length; i++) arguments[i] = convert(expr.arguments.get(i));
+		return node(CALL, expr.paren, callee, list(arguments, arguments.length), NONE);
+	}
+
+	@Override
+	public Integer visitGetExpr(Expr.Get expr) {
+		return node(GET, expr.name, convert(expr.object), NONE, NONE);
+	}
+
+	@Override
+	public Integer visitGroupingExpr(Expr.Grouping expr) {
+		return node(GROUPING, null, convert(expr.expression), NONE, NONE);
+	}
+
+	@Override
+	public Integer visitLiteralExpr(Expr.Literal expr) {
+		return node(LITERAL, null, constant(expr.value), NONE, NONE);
+	}
+
+	@Override
+	public Integer visitLogicalExpr(Expr.Logical expr) {
+		int left = convert(expr.left);
+		return node(LOGICAL, expr.operator, left, convert(expr.right), NONE);
+	}
+
+	@Override
+	public Integer visitSetExpr(Expr.Set expr) {
+		int object = convert(expr.object);
+		return node(SET, expr.name, object, convert(expr.value), NONE);
+	}
+
+	@Override
+	public Integer visitSuperExpr(Expr.Super expr) {
+		return node(SUPER, expr.keyword, token(expr.method), depth(expr), NONE);
+	}
+
+	@Override
+	public Integer visitThisExpr(Expr.This expr) {
+		return node(THIS, expr.keyword, depth(expr), NONE, NONE);
+	}
+
+	@Override
+	public Integer visitUnaryExpr(Expr.Unary expr) {
+		return node(UNARY, expr.operator, convert(expr.right), NONE, NONE);
+	}
+
+	@Override
+	public Integer visitVariableExpr(Expr.Variable expr) {
+		return node(VARIABLE, expr.name, depth(expr), NONE, NONE);
+	}
+
+	@Override
+	public Integer visitLambdaExpr(Expr.Lambda expr) {
+		int params = tokenList(expr.params);
+		return node(LAMBDA, null, params, statementList(expr.body), NONE);
+	}
+
+	/* The fused nodes keep the nodes they replaced, which are converted instead. */
+
+	@Override
+	public Integer visitIncrementExpr(Expr.Increment expr) {
+		return convert(expr.original);
+	}
+
+	@Override
+	public Integer visitCompareExpr(Expr.Compare expr) {
+		return convert(expr.original);
+	}
+
+	@Override
+	public Integer visitSetThisExpr(Expr.SetThis expr) {
+		return convert(expr.original);
+	}
+
+	@Override
+	public Integer visitGetFieldExpr(Expr.GetField expr) {
+		return convert(expr.original);
+	}
+
+	@Override
+	public Integer visitBlockStmt(Stmt.Block stmt) {
+		return node(BLOCK, null, statementList(stmt.statements), NONE, NONE);
+	}
+
+	@Override
+	public Integer visitClassStmt(Stmt.Class stmt) {
+		int superclass = convert(stmt.superclass);
+		int methods = statementList(stmt.methods);
+		return node(CLASS, stmt.name, superclass, methods, convert(stmt.metaclass));
+	}
+
+	@Override
+	public Integer visitExpressionStmt(Stmt.Expression stmt) {
+		return node(EXPRESSION, null, convert(stmt.expression), NONE, NONE);
+	}
+
+	@Override
+	public Integer visitFunctionStmt(Stmt.Function stmt) {
+		int params = tokenList(stmt.params);
+		return node(FUNCTION, stmt.name, params, statementList(stmt.body), NONE);
+	}
+
+	@Override
+	public Integer visitIfStmt(Stmt.If stmt) {
+		int condition = convert(stmt.condition);
+		int thenBranch = convert(stmt.thenBranch);
+		return node(IF, null, condition, thenBranch, convert(stmt.elseBranch));
+	}
+
+	@Override
+	public Integer visitPrintStmt(Stmt.Print stmt) {
+		return node(PRINT, null, convert(stmt.expression), NONE, NONE);
+	}
+
+	@Override
+	public Integer visitReturnStmt(Stmt.Return stmt) {
+		return node(RETURN, stmt.keyword, convert(stmt.value), NONE, NONE);
+	}
+
+	@Override
+	public Integer visitVarStmt(Stmt.Var stmt) {
+		return node(VAR, stmt.name, convert(stmt.initializer), NONE, NONE);
+	}
+
+	@Override
+	public Integer visitWhileStmt(Stmt.While stmt) {
+		int condition = convert(stmt.condition);
+		return node(WHILE, null, condition, convert(stmt.body), NONE);
+	}
+
+	@Override
+	public Integer visitBreakStmt(Stmt.Break stmt) {
+		return node(BREAK, null, NONE, NONE, NONE);
+	}
+
+	@Override
+	public Integer visitImportStmt(Stmt.Import stmt) {
+		return node(IMPORT, stmt.keyword, constant(stmt.path.literal), NONE, NONE);
+	}
+}
@@ -0,0 +1,72 @@
+package com.jlox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+class FlatFunction extends LoxFunction {
+
+	/* A function, method or lambda whose declaration is a node in a FlatAst. It's a LoxFunction
+	 * so that LoxClass and LoxInstance treat flat methods the same as any other. */
+
+	private final FlatInterpreter interpreter;
+	private final FlatAst ast;
+	// A FUNCTION or LAMBDA node
+	private final int declaration;
+	private final Environment closure;
+	private final boolean isInitializer;
+
+	FlatFunction(FlatInterpreter interpreter, FlatAst ast, int declaration, Environment closure, boolean isInitializer){
+		super(null, closure, isInitializer, null);
+		this.interpreter = interpreter;
+		this.ast = ast;
+		this.declaration = declaration;
+		this.closure = closure;
+		this.isInitializer = isInitializer;
+	}
+
+	@Override
+	LoxFunction bind(LoxInstance instance) {
+		Environment environment = new Environment(closure);
+		environment.define(SymbolTable.THIS, instance);
+		return new FlatFunction(interpreter, ast, declaration, environment, isInitializer);
+	}
+
+	@Override
+	public int arity() {
+		return ast.size(ast.a(declaration));
+	}
+
+	@Override
+	public Object call(Interpreter unused, List<Object> arguments) {
+		Environment environment = new Environment(closure);
+		int params = ast.a(declaration);
+		for (int i = 0; i < ast.size(params); i++) {
+			environment.define(ast.symbolAt(ast.get(params, i)), arguments.get(i));
+		}
+
+		try {
+			interpreter.executeBlock(ast, ast.b(declaration), environment);
+		} catch(Return returnValue) {
+			if (isInitializer) {
+				return closure.getAt(0, SymbolTable.THIS);
+			}
+			return returnValue.value;
+		}
+
+		if (isInitializer) return closure.getAt(0, SymbolTable.THIS);
+
+		return null;
+	}
+
+	@Override
+	public String toString() {
+		if (ast.kind(declaration) == FlatAst.LAMBDA) {
+			// As LoxLambda prints it
+			int params = ast.a(declaration);
+			List<Token> tokens = new ArrayList<>();
+			for (int i = 0; i < ast.size(params); i++) tokens.add(ast.tokenAt(ast.get(params, i)));
+			return "<lambda " + tokens + ">";
+		}
+		return "<fn " + ast.token(declaration).lexeme + ">";
+	}
+}
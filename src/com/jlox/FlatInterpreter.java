@@ -0,0 +1,293 @@
+package com.jlox;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.jlox.FlatAst.*;
+
+class FlatInterpreter {
+
+	/* Runs a FlatAst directly off its records, with the same semantics as the Interpreter (see
+	 * --flat). Globals are shared with the Interpreter it's made from, so native functions and
+	 * anything defined by an earlier program are still there, and callables are called with that
+	 * Interpreter. Each node is a switch on its kind rather than a virtual call, and its children
+	 * are read from the same few cache lines.
+	 * */
+
+	private final Interpreter interpreter;
+	private final Environment globals;
+	private Environment environment;
+
+	private boolean breakActive = false;
+	private boolean breakInsideBlockStmt = false;
+
+	FlatInterpreter(Interpreter interpreter){
+		this.interpreter = interpreter;
+		this.globals = interpreter.globals;
+		this.environment = globals;
+	}
+
+	void interpret(FlatAst ast) {
+		try {
+			for (int i = 0; i < ast.size(ast.statements); i++) {
+				execute(ast, ast.get(ast.statements, i));
+			}
+		} catch(RuntimeError e) {
+			interpreter.reporter.runtimeError(e);
+		}
+	}
+
+	private Object evaluate(FlatAst ast, int node) {
+		switch (ast.kind(node)) {
+		case TERNARY:
+			if (Interpreter.isTruthy(evaluate(ast, ast.a(node)))) {
+				return evaluate(ast, ast.b(node));
+			}
+			return evaluate(ast, ast.c(node));
+
+		case ASSIGN: {
+			Object value = evaluate(ast, ast.a(node));
+			Token name = ast.token(node);
+			if (ast.b(node) != NONE) {
+				environment.assignAt(ast.b(node), name, value);
+			} else {
+				globals.assign(name, value);
+			}
+			environment.assign(name, value);
+			return value;
+		}
+
+		case BINARY: {
+			Object left = evaluate(ast, ast.a(node));
+			Object right = evaluate(ast, ast.b(node));
+			return Interpreter.binary(ast.token(node), left, right);
+		}
+
+		case BINARY_ERROR: {
+			Token operator = ast.token(node);
+			throw new RuntimeError(operator, "\'" + operator.lexeme + "\' requires two operands.");
+		}
+
+		case CALL:
+			return call(ast, node);
+
+		case GET: {
+			Object object = evaluate(ast, ast.a(node));
+			if (object instanceof LoxInstance) {
+				return ((LoxInstance)object).get(ast.token(node));
+			}
+			throw new RuntimeError(ast.token(node), "Only instances have properties.");
+		}
+
+		case GROUPING:
+			return evaluate(ast, ast.a(node));
+
+		case LITERAL:
+			return ast.constants[ast.a(node)];
+
+		case LOGICAL: {
+			Object left = evaluate(ast, ast.a(node));
+			if (ast.type(node) == TokenType.OR) {
+				if (Interpreter.isTruthy(left)) return left;
+			} else {
+				if (!Interpreter.isTruthy(left)) return left;
+			}
+			return evaluate(ast, ast.b(node));
+		}
+
+		case SET: {
+			Object object = evaluate(ast, ast.a(node));
+			if (!(object instanceof LoxInstance)) {
+				throw new RuntimeError(ast.token(node), "Only instances have fields.");
+			}
+			Object value = evaluate(ast, ast.b(node));
+			((LoxInstance)object).set(ast.token(node), value);
+			return value;
+		}
+
+		case SUPER: {
+			int distance = ast.b(node);
+			Token method = ast.tokenAt(ast.a(node));
+			LoxClass superclass = (LoxClass)environment.getAt(distance, SymbolTable.SUPER);
+			LoxInstance object = (LoxInstance)environment.getAt(distance - 1, SymbolTable.THIS);
+			LoxFunction function = superclass.findMethod(method.symbol);
+			if (function == null) {
+				throw new RuntimeError(method, "Undefined property: '" + method.lexeme + "'.");
+			}
+			return function.bind(object);
+		}
+
+		case THIS:
+		case VARIABLE: {
+			if (ast.a(node) != NONE) {
+				return environment.getAt(ast.a(node), ast.symbol(node));
+			}
+			return globals.get(ast.token(node));
+		}
+
+		case UNARY: {
+			Object right = evaluate(ast, ast.a(node));
+			if (ast.type(node) == TokenType.MINUS) {
+				if (!(right instanceof Double)) {
+					throw new RuntimeError(ast.token(node), "Operand must be a number.");
+				}
+				return -(double)right;
+			}
+			return !Interpreter.isTruthy(right);
+		}
+
+		case LAMBDA:
+			return new FlatFunction(this, ast, node, environment, false);
+
+		default:
+			throw new IllegalStateException("Not an expression: " + ast.kind(node));
+		}
+	}
+
+	private Object call(FlatAst ast, int node) {
+		Object callee = evaluate(ast, ast.a(node));
+		int list = ast.b(node);
+		List<Object> arguments = new ArrayList<>(ast.size(list));
+		for (int i = 0; i < ast.size(list); i++) {
+			arguments.add(evaluate(ast, ast.get(list, i)));
+		}
+
+		if (!(callee instanceof LoxCallable)) {
+			throw new RuntimeError(ast.token(node), "Can only call functions and classes.");
+		}
+		LoxCallable function = (LoxCallable)callee;
+		if (arguments.size() != function.arity()) {
+			throw new RuntimeError(ast.token(node), "Expected " + function.arity() + " arguments, but got "
+					+ arguments.size() + ".");
+		}
+		return function.call(interpreter, arguments);
+	}
+
+	private void execute(FlatAst ast, int node) {
+		switch (ast.kind(node)) {
+		case BLOCK:
+			executeBlock(ast, ast.a(node), new Environment(environment));
+			break;
+
+		case CLASS:
+			defineClass(ast, node);
+			break;
+
+		case EXPRESSION:
+			evaluate(ast, ast.a(node));
+			break;
+
+		case FUNCTION:
+			environment.define(ast.symbol(node), new FlatFunction(this, ast, node, environment, false));
+			break;
+
+		case IF:
+			if (Interpreter.isTruthy(evaluate(ast, ast.a(node)))) {
+				execute(ast, ast.b(node));
+			} else if (ast.c(node) != NONE) {
+				execute(ast, ast.c(node));
+			}
+			break;
+
+		case PRINT:
+			interpreter.out.println(Interpreter.stringify(evaluate(ast, ast.a(node))));
+			break;
+
+		case RETURN:
+			throw new Return(ast.a(node) == NONE ? null : evaluate(ast, ast.a(node)));
+
+		case VAR:
+			environment.define(ast.symbol(node), ast.a(node) == NONE ? null : evaluate(ast, ast.a(node)));
+			break;
+
+		case WHILE:
+			while (Interpreter.isTruthy(evaluate(ast, ast.a(node)))) {
+				if (breakActive) {
+					breakActive = false;
+					if (breakInsideBlockStmt) {
+						breakInsideBlockStmt = false;
+						break;
+					}
+				} else {
+					execute(ast, ast.b(node));
+				}
+			}
+			break;
+
+		case BREAK:
+			breakActive = true;
+			break;
+
+		case IMPORT:
+			globals.addImport(LoxModule.load(ast.token(node), (String)ast.constants[ast.a(node)], interpreter).environment);
+			break;
+
+		default:
+			throw new IllegalStateException("Not a statement: " + ast.kind(node));
+		}
+	}
+
+	void executeBlock(FlatAst ast, int statements, Environment environment) {
+		Environment previous = this.environment;
+		try {
+			this.environment = environment;
+			for (int i = 0; i < ast.size(statements); i++) {
+				if (breakActive) {
+					breakInsideBlockStmt = true;
+					break;
+				}
+				execute(ast, ast.get(statements, i));
+			}
+		} finally {
+			this.environment = previous;
+		}
+	}
+
+	private void defineClass(FlatAst ast, int node) {
+		/* As Interpreter.visitClassStmt: the name is declared first, so the methods can refer to
+		 * the class, and 'super' gets a scope of its own. */
+		Token name = ast.token(node);
+		int superclassNode = ast.a(node);
+		Object superclass = null;
+		if (superclassNode != NONE) {
+			superclass = evaluate(ast, superclassNode);
+			if (!(superclass instanceof LoxClass)) {
+				throw new RuntimeError(ast.token(superclassNode), "Superclass must be a class.");
+			}
+		}
+
+		environment.define(name.symbol, null);
+
+		if (superclassNode != NONE) {
+			environment = new Environment(environment);
+			environment.define(SymbolTable.SUPER, superclass);
+		}
+
+		Map<Symbol, LoxFunction> methods = methods(ast, ast.b(node));
+		LoxClass metaclass = null;
+		if (ast.c(node) != NONE) {
+			Map<Symbol, LoxFunction> staticMethods = methods(ast, ast.b(ast.c(node)));
+			metaclass = new LoxClass(null, (LoxClass)superclass, name.lexeme + "MetaClass", staticMethods);
+		}
+
+		LoxClass klass = new LoxClass(metaclass, (LoxClass)superclass, name.lexeme, methods);
+
+		if (superclassNode != NONE) {
+			environment = environment.enclosing;
+		}
+
+		environment.assign(name, klass);
+	}
+
+	private Map<Symbol, LoxFunction> methods(FlatAst ast, int list) {
+		Map<Symbol, LoxFunction> methods = new HashMap<>();
+		for (int i = 0; i < ast.size(list); i++) {
+			int method = ast.get(list, i);
+			Symbol name = ast.symbol(method);
+			methods.put(name, new FlatFunction(this, ast, method, environment, name == SymbolTable.INIT));
+		}
+		return methods;
+	}
+}
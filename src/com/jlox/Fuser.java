@@ -0,0 +1,327 @@
+package com.jlox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+class Fuser implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+
+	/* A pass run after the Resolver which rewrites a few very common shapes into fused nodes
+	 * (superinstructions), so the Interpreter does the work in one visit instead of three or four:
+	 *
+	 *  - i = i + 1, i = i - 1   ->  Increment
+	 *  - x < n, x >= 10 etc.    ->  Compare (a variable against a variable or number literal)
+	 *  - this.field = value     ->  SetThis
+	 *  - obj.field              ->  GetField (when obj is a variable)
+	 *
+	 * The AST classes are immutable, so a node is only rebuilt when one of its children changed.
+	 * Variable, This and Super nodes are never rebuilt, which keeps their resolved depths valid, and
+	 * a rebuilt Assign has its depth moved across by the Interpreter.
+	 * */
+
+	private final Interpreter interpreter;
+
+	Fuser(Interpreter interpreter){
+		this.interpreter = interpreter;
+	}
+
+	List<Stmt> fuse(List<Stmt> statements) {
+		List<Stmt> fused = null;
+		for (int i = 0; i < statements.size(); i++) {
+			Stmt statement = statements.get(i);
+			Stmt result = fuse(statement);
+			if (result != statement && fused == null) {
+				fused = new ArrayList<>(statements.subList(0, i));
+			}
+			if (fused != null) fused.add(result);
+		}
+		return fused == null ? statements : fused;
+	}
+
+	private Stmt fuse(Stmt stmt) {
+		if (stmt == null) return null;
+		return stmt.accept(this);
+	}
+
+	private Expr fuse(Expr expr) {
+		if (expr == null) return null;
+		return expr.accept(this);
+	}
+
+	private List<Expr> fuseExprs(List<Expr> exprs) {
+		List<Expr> fused = null;
+		for (int i = 0; i < exprs.size(); i++) {
+			Expr expr = exprs.get(i);
+			Expr result = fuse(expr);
+			if (result != expr && fused == null) {
+				fused = new ArrayList<>(exprs.subList(0, i));
+			}
+			if (fused != null) fused.add(result);
+		}
+		return fused == null ? exprs : fused;
+	}
+
+	private boolean sameBinding(Expr.Assign assign, Expr.Variable variable) {
+		/* i = i + 1 can only be fused when both names resolve to the same variable. */
+		if (assign.name.symbol != variable.name.symbol) return false;
+		Integer assignDepth = interpreter.resolvedDepth(assign);
+		Integer variableDepth = interpreter.resolvedDepth(variable);
+		if (assignDepth == null) return variableDepth == null;
+		return assignDepth.equals(variableDepth);
+	}
+
+	@Override
+	public Expr visitAssignExpr(Expr.Assign expr) {
+		Expr value = fuse(expr.value);
+		Expr.Assign assign = expr;
+		if (value != expr.value) {
+			assign = new Expr.Assign(expr.name, value);
+			interpreter.moveResolution(expr, assign);
+		}
+
+		if (value instanceof Expr.Binary) {
+			Expr.Binary binary = (Expr.Binary)value;
+			TokenType operator = binary.operator.type;
+			if ((operator == TokenType.PLUS || operator == TokenType.MINUS)
+					&& binary.left instanceof Expr.Variable
+					&& binary.right instanceof Expr.Literal
+					&& ((Expr.Literal)binary.right).value instanceof Double
+					&& sameBinding(assign, (Expr.Variable)binary.left)) {
+				return new Expr.Increment(assign, (Expr.Variable)binary.left, binary.operator,
+						((Expr.Literal)binary.right).value);
+			}
+		}
+		return assign;
+	}
+
+	@Override
+	public Expr visitBinaryExpr(Expr.Binary expr) {
+		switch (expr.operator.type) {
+		case LESS:
+		case LESS_EQUAL:
+		case GREATER:
+		case GREATER_EQUAL:
+			if (expr.left instanceof Expr.Variable && (expr.right instanceof Expr.Variable
+					|| (expr.right instanceof Expr.Literal && ((Expr.Literal)expr.right).value instanceof Double))) {
+				return new Expr.Compare(expr, (Expr.Variable)expr.left, expr.right);
+			}
+		}
+
+		Expr left = fuse(expr.left);
+		Expr right = fuse(expr.right);
+		if (left == expr.left && right == expr.right) return expr;
+		return new Expr.Binary(left, expr.operator, right);
+	}
+
+	@Override
+	public Expr visitSetExpr(Expr.Set expr) {
+		Expr object = fuse(expr.object);
+		Expr value = fuse(expr.value);
+		Expr.Set set = expr;
+		if (object != expr.object || value != expr.value) {
+			set = new Expr.Set(object, expr.name, value);
+		}
+
+		if (object instanceof Expr.This) {
+			return new Expr.SetThis(set, (Expr.This)object, value);
+		}
+		return set;
+	}
+
+	@Override
+	public Expr visitGetExpr(Expr.Get expr) {
+		if (expr.object instanceof Expr.Variable) {
+			return new Expr.GetField(expr, (Expr.Variable)expr.object);
+		}
+
+		Expr object = fuse(expr.object);
+		if (object == expr.object) return expr;
+		return new Expr.Get(object, expr.name);
+	}
+
+	@Override
+	public Expr visitTernaryExpr(Expr.Ternary expr) {
+		Expr cond = fuse(expr.cond);
+		Expr left = fuse(expr.left);
+		Expr right = fuse(expr.right);
+		if (cond == expr.cond && left == expr.left && right == expr.right) return expr;
+		return new Expr.Ternary(expr.qmark, cond, left, right);
+	}
+
+	@Override
+	public Expr visitBinaryErrorExpr(Expr.BinaryError expr) {
+		Expr right = fuse(expr.right);
+		if (right == expr.right) return expr;
+		return new Expr.BinaryError(expr.operator, right);
+	}
+
+	@Override
+	public Expr visitCallExpr(Expr.Call expr) {
+		Expr callee = fuse(expr.callee);
+		List<Expr> arguments = fuseExprs(expr.arguments);
+		if (callee == expr.callee && arguments == expr.arguments) return expr;
+		return new Expr.Call(callee, expr.paren, arguments);
+	}
+
+	@Override
+	public Expr visitGroupingExpr(Expr.Grouping expr) {
+		Expr expression = fuse(expr.expression);
+		if (expression == expr.expression) return expr;
+		return new Expr.Grouping(expression);
+	}
+
+	@Override
+	public Expr visitLiteralExpr(Expr.Literal expr) {
+		return expr;
+	}
+
+	@Override
+	public Expr visitLogicalExpr(Expr.Logical expr) {
+		Expr left = fuse(expr.left);
+		Expr right = fuse(expr.right);
+		if (left == expr.left && right == expr.right) return expr;
+		return new Expr.Logical(left, expr.operator, right);
+	}
+
+	@Override
+	public Expr visitSuperExpr(Expr.Super expr) {
+		return expr;
+	}
+
+	@Override
+	public Expr visitThisExpr(Expr.This expr) {
+		return expr;
+	}
+
+	@Override
+	public Expr visitUnaryExpr(Expr.Unary expr) {
+		Expr right = fuse(expr.right);
+		if (right == expr.right) return expr;
+		return new Expr.Unary(expr.operator, right);
+	}
+
+	@Override
+	public Expr visitVariableExpr(Expr.Variable expr) {
+		return expr;
+	}
+
+	@Override
+	public Expr visitLambdaExpr(Expr.Lambda expr) {
+		List<Stmt> body = fuse(expr.body);
+		if (body == expr.body) return expr;
+		return new Expr.Lambda(expr.params, body);
+	}
+
+	@Override
+	public Expr visitIncrementExpr(Expr.Increment expr) {
+		return expr;
+	}
+
+	@Override
+	public Expr visitCompareExpr(Expr.Compare expr) {
+		return expr;
+	}
+
+	@Override
+	public Expr visitSetThisExpr(Expr.SetThis expr) {
+		return expr;
+	}
+
+	@Override
+	public Expr visitGetFieldExpr(Expr.GetField expr) {
+		return expr;
+	}
+
+	@Override
+	public Stmt visitBlockStmt(Stmt.Block stmt) {
+		List<Stmt> statements = fuse(stmt.statements);
+		if (statements == stmt.statements) return stmt;
+		return new Stmt.Block(statements);
+	}
+
+	@Override
+	public Stmt visitClassStmt(Stmt.Class stmt) {
+		List<Stmt.Function> methods = fuseMethods(stmt.methods);
+		Stmt.Class metaclass = stmt.metaclass == null ? null : (Stmt.Class)fuse(stmt.metaclass);
+		if (methods == stmt.methods && metaclass == stmt.metaclass) return stmt;
+		return new Stmt.Class(stmt.name, stmt.superclass, methods, metaclass);
+	}
+
+	private List<Stmt.Function> fuseMethods(List<Stmt.Function> methods) {
+		List<Stmt.Function> fused = null;
+		for (int i = 0; i < methods.size(); i++) {
+			Stmt.Function method = methods.get(i);
+			Stmt.Function result = (Stmt.Function)fuse(method);
+			if (result != method && fused == null) {
+				fused = new ArrayList<>(methods.subList(0, i));
+			}
+			if (fused != null) fused.add(result);
+		}
+		return fused == null ? methods : fused;
+	}
+
+	@Override
+	public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+		Expr expression = fuse(stmt.expression);
+		if (expression == stmt.expression) return stmt;
+		return new Stmt.Expression(expression);
+	}
+
+	@Override
+	public Stmt visitFunctionStmt(Stmt.Function stmt) {
+		// Fused when it's first parsed
+		if (stmt.body instanceof LazyBody) return stmt;
+		List<Stmt> body = fuse(stmt.body);
+		if (body == stmt.body) return stmt;
+		return new Stmt.Function(stmt.name, stmt.params, body);
+	}
+
+	@Override
+	public Stmt visitIfStmt(Stmt.If stmt) {
+		Expr condition = fuse(stmt.condition);
+		Stmt thenBranch = fuse(stmt.thenBranch);
+		Stmt elseBranch = fuse(stmt.elseBranch);
+		if (condition == stmt.condition && thenBranch == stmt.thenBranch && elseBranch == stmt.elseBranch) {
+			return stmt;
+		}
+		return new Stmt.If(condition, thenBranch, elseBranch);
+	}
+
+	@Override
+	public Stmt visitPrintStmt(Stmt.Print stmt) {
+		Expr expression = fuse(stmt.expression);
+		if (expression == stmt.expression) return stmt;
+		return new Stmt.Print(expression);
+	}
+
+	@Override
+	public Stmt visitReturnStmt(Stmt.Return stmt) {
+		Expr value = fuse(stmt.value);
+		if (value == stmt.value) return stmt;
+		return new Stmt.Return(stmt.keyword, value);
+	}
+
+	@Override
+	public Stmt visitVarStmt(Stmt.Var stmt) {
+		Expr initializer = fuse(stmt.initializer);
+		if (initializer == stmt.initializer) return stmt;
+		return new Stmt.Var(stmt.name, initializer);
+	}
+
+	@Override
+	public Stmt visitWhileStmt(Stmt.While stmt) {
+		Expr condition = fuse(stmt.condition);
+		Stmt body = fuse(stmt.body);
+		if (condition == stmt.condition && body == stmt.body) return stmt;
+		return new Stmt.While(condition, body);
+	}
+
+	@Override
+	public Stmt visitBreakStmt(Stmt.Break stmt) {
+		return stmt;
+	}
+
+	@Override
+	public Stmt visitImportStmt(Stmt.Import stmt) {
+		return stmt;
+	}
+}
@@ -0,0 +1,479 @@
+package com.jlox;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+class HashConser implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+
+	/* An optional pass run after the Fuser (see --share) which makes repeated literals, number
+	 * arithmetic and lambdas one shared instance each, so a program that repeats itself a lot (as
+	 * generated scripts do) keeps fewer nodes alive while it runs.
+	 *
+	 * Only what can be shared without a runtime error reporting the wrong line is:
+	 *
+	 *   - Literals, by their value.
+	 *   - Arithmetic on numbers, that is +, - and * (and grouping and negation) whose operands
+	 *     are number literals or such arithmetic in turn, which can't fail, so whichever line
+	 *     its operator is on never matters.
+	 *   - Lambdas whose parameters and bodies are the same, comparing every token with its line
+	 *     and every variable lookup with its resolved depth, so both give the same errors and see
+	 *     the same variables.
+	 *
+	 * Everything else is kept, and rebuilt only where a child was replaced. A node which is
+	 * replaced by an identical one has its depth dropped from the interpreter, as do the nodes
+	 * inside a lambda that's replaced, so nothing keeps them alive.
+	 *
+	 * This relies on each node having a single parent, which holds for everything the Parser and
+	 * Fuser build: a fused node's operands are only ever reached through the node it replaced.
+	 * Lazy function bodies are left as they are.
+	 * */
+
+	private final Interpreter interpreter;
+	private final Map<Key, Expr> canonical = new HashMap<>();
+	// Canonical nodes that give a number without being able to fail
+	private final Set<Expr> numbers = Collections.newSetFromMap(new IdentityHashMap<>());
+	// While in a lambda, what each node visited in it is, to compare the lambda with others
+	private final Map<Object, Object> keys = new IdentityHashMap<>();
+	// For each lambda being visited, the nodes in it with a resolved depth
+	private final Deque<List<Expr>> lambdas = new ArrayDeque<>();
+
+	private int nodes = 0;
+	private int duplicates = 0;
+
+	HashConser(Interpreter interpreter){
+		this.interpreter = interpreter;
+	}
+
+	private static final class Key {
+		private final Object[] parts;
+		private final int hash;
+
+		Key(Object... parts){
+			this.parts = parts;
+			this.hash = Arrays.hashCode(parts);
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			return other instanceof Key && Arrays.equals(parts, ((Key)other).parts);
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+	}
+
+	List<Stmt> share(List<Stmt> statements) {
+		return shareStmts(statements);
+	}
+
+	String report() {
+		return "Shared " + duplicates + " of " + nodes + " syntax tree nodes.";
+	}
+
+	private Expr share(Expr expr) {
+		if (expr == null) return null;
+		nodes++;
+		return expr.accept(this);
+	}
+
+	private Stmt share(Stmt stmt) {
+		if (stmt == null) return null;
+		nodes++;
+		return stmt.accept(this);
+	}
+
+	private Expr canonical(Expr node, Key key) {
+		/* The one instance of a node that's shared. */
+		Expr existing = canonical.putIfAbsent(key, node);
+		if (!lambdas.isEmpty()) keys.put(existing == null ? node : existing, key);
+		if (existing == null) return node;
+		duplicates++;
+		interpreter.forgetResolution(node);
+		return existing;
+	}
+
+	private <T> T keep(T node, Object... parts) {
+		/* A node that isn't shared, which in a lambda is still compared as part of it. The parts
+		 * identify the node, starting with its class. */
+		if (!lambdas.isEmpty()) {
+			Object[] key = new Object[parts.length];
+			for (int i = 0; i < parts.length; i++) key[i] = key(parts[i]);
+			keys.put(node, new Key(key));
+		}
+		return node;
+	}
+
+	private Object key(Object part) {
+		/* What a part of a node in a lambda is compared as: a node or list by what's in it, and a
+		 * token by its line too. */
+		if (part instanceof Expr || part instanceof Stmt) return keys.get(part);
+		if (part instanceof Token) {
+			Token token = (Token)part;
+			return Arrays.asList(token.type, token.lexeme, token.literal, token.line);
+		}
+		if (part instanceof List) {
+			List<Object> list = new ArrayList<>();
+			for (Object element : (List<?>)part) list.add(key(element));
+			return list;
+		}
+		return part;
+	}
+
+	private <T extends Expr> T resolved(T expr) {
+		/* A node with a depth, to be forgotten if the lambda it's in is replaced. */
+		if (!lambdas.isEmpty()) lambdas.peek().add(expr);
+		return expr;
+	}
+
+	private List<Stmt> shareStmts(List<Stmt> statements) {
+		List<Stmt> shared = new ArrayList<>(statements.size());
+		for (Stmt statement : statements) shared.add(share(statement));
+		return shared.equals(statements) ? statements : shared;
+	}
+
+	private List<Expr> shareExprs(List<Expr> exprs) {
+		List<Expr> shared = new ArrayList<>(exprs.size());
+		for (Expr expr : exprs) shared.add(share(expr));
+		return shared.equals(exprs) ? exprs : shared;
+	}
+
+	private Integer depth(Expr expr) {
+		return interpreter.resolvedDepth(expr);
+	}
+
+	@Override
+	public Expr visitTernaryExpr(Expr.Ternary expr) {
+		Expr cond = share(expr.cond);
+		Expr left = share(expr.left);
+		Expr right = share(expr.right);
+		Expr.Ternary ternary = expr;
+		if (cond != expr.cond || left != expr.left || right != expr.right) {
+			ternary = new Expr.Ternary(expr.qmark, cond, left, right);
+		}
+		return keep(ternary, Expr.Ternary.class, ternary.qmark, cond, left, right);
+	}
+
+	@Override
+	public Expr visitAssignExpr(Expr.Assign expr) {
+		Expr value = share(expr.value);
+		Expr.Assign assign = expr;
+		if (value != expr.value) {
+			assign = new Expr.Assign(expr.name, value);
+			interpreter.moveResolution(expr, assign);
+		}
+		return keep(resolved(assign), Expr.Assign.class, assign.name, value, depth(assign));
+	}
+
+	@Override
+	public Expr visitBinaryExpr(Expr.Binary expr) {
+		Expr left = share(expr.left);
+		Expr right = share(expr.right);
+		Expr.Binary binary = expr;
+		if (left != expr.left || right != expr.right) {
+			binary = new Expr.Binary(left, expr.operator, right);
+		}
+		TokenType operator = expr.operator.type;
+		boolean arithmetic = operator == TokenType.PLUS || operator == TokenType.MINUS || operator == TokenType.STAR;
+		if (arithmetic && numbers.contains(left) && numbers.contains(right)) {
+			return number(canonical(binary, new Key(Expr.Binary.class, operator, left, right)));
+		}
+		return keep(binary, Expr.Binary.class, left, binary.operator, right);
+	}
+
+	private Expr number(Expr shared) {
+		numbers.add(shared);
+		return shared;
+	}
+
+	@Override
+	public Expr visitBinaryErrorExpr(Expr.BinaryError expr) {
+		Expr right = share(expr.right);
+		Expr.BinaryError error = expr;
+		if (right != expr.right) {
+			error = new Expr.BinaryError(expr.operator, right);
+		}
+		return keep(error, Expr.BinaryError.class, error.operator, right);
+	}
+
+	@Override
+	public Expr visitCallExpr(Expr.Call expr) {
+		Expr callee = share(expr.callee);
+		List<Expr> arguments = shareExprs(expr.arguments);
+		Expr.Call call = expr;
+		if (callee != expr.callee || arguments != expr.arguments) {
+			call = new Expr.Call(callee, expr.paren, arguments);
+		}
+		return keep(call, Expr.Call.class, callee, call.paren, arguments);
+	}
+
+	@Override
+	public Expr visitGetExpr(Expr.Get expr) {
+		Expr object = share(expr.object);
+		Expr.Get get = expr;
+		if (object != expr.object) {
+			get = new Expr.Get(object, expr.name);
+		}
+		return keep(get, Expr.Get.class, object, get.name);
+	}
+
+	@Override
+	public Expr visitGroupingExpr(Expr.Grouping expr) {
+		Expr expression = share(expr.expression);
+		Expr.Grouping grouping = expr;
+		if (expression != expr.expression) {
+			grouping = new Expr.Grouping(expression);
+		}
+		if (numbers.contains(expression)) {
+			return number(canonical(grouping, new Key(Expr.Grouping.class, expression)));
+		}
+		return keep(grouping, Expr.Grouping.class, expression);
+	}
+
+	@Override
+	public Expr visitLiteralExpr(Expr.Literal expr) {
+		Expr shared = canonical(expr, new Key(Expr.Literal.class, expr.value));
+		return expr.value instanceof Double ? number(shared) : shared;
+	}
+
+	@Override
+	public Expr visitLogicalExpr(Expr.Logical expr) {
+		Expr left = share(expr.left);
+		Expr right = share(expr.right);
+		Expr.Logical logical = expr;
+		if (left != expr.left || right != expr.right) {
+			logical = new Expr.Logical(left, expr.operator, right);
+		}
+		return keep(logical, Expr.Logical.class, left, logical.operator, right);
+	}
+
+	@Override
+	public Expr visitSetExpr(Expr.Set expr) {
+		Expr object = share(expr.object);
+		Expr value = share(expr.value);
+		Expr.Set set = expr;
+		if (object != expr.object || value != expr.value) {
+			set = new Expr.Set(object, expr.name, value);
+		}
+		return keep(set, Expr.Set.class, object, set.name, value);
+	}
+
+	@Override
+	public Expr visitSuperExpr(Expr.Super expr) {
+		return keep(resolved(expr), Expr.Super.class, expr.keyword, expr.method, depth(expr));
+	}
+
+	@Override
+	public Expr visitThisExpr(Expr.This expr) {
+		return keep(resolved(expr), Expr.This.class, expr.keyword, depth(expr));
+	}
+
+	@Override
+	public Expr visitUnaryExpr(Expr.Unary expr) {
+		Expr right = share(expr.right);
+		Expr.Unary unary = expr;
+		if (right != expr.right) {
+			unary = new Expr.Unary(expr.operator, right);
+		}
+		if (expr.operator.type == TokenType.MINUS && numbers.contains(right)) {
+			return number(canonical(unary, new Key(Expr.Unary.class, TokenType.MINUS, right)));
+		}
+		return keep(unary, Expr.Unary.class, unary.operator, right);
+	}
+
+	@Override
+	public Expr visitVariableExpr(Expr.Variable expr) {
+		return keep(resolved(expr), Expr.Variable.class, expr.name, depth(expr));
+	}
+
+	@Override
+	public Expr visitLambdaExpr(Expr.Lambda expr) {
+		lambdas.push(new ArrayList<>());
+		List<Stmt> body;
+		List<Expr> inside;
+		try {
+			body = shareStmts(expr.body);
+		} finally {
+			inside = lambdas.pop();
+		}
+		Expr.Lambda lambda = expr;
+		if (body != expr.body) {
+			lambda = new Expr.Lambda(expr.params, body);
+		}
+
+		Expr shared = canonical(lambda, new Key(Expr.Lambda.class, key(lambda.params), key(body)));
+		if (shared != lambda) {
+			for (Expr resolved : inside) interpreter.forgetResolution(resolved);
+		} else if (!lambdas.isEmpty()) {
+			lambdas.peek().addAll(inside);
+		}
+		// Outside any lambda, nothing is compared with what's in this one any more
+		if (lambdas.isEmpty()) keys.clear();
+		return shared;
+	}
+
+	/* A fused node is rebuilt from its shared original, taking its operands from there. */
+
+	@Override
+	public Expr visitIncrementExpr(Expr.Increment expr) {
+		Expr.Assign original = (Expr.Assign)share(expr.original);
+		Expr.Increment increment = expr;
+		if (original != expr.original) {
+			Expr.Binary value = (Expr.Binary)original.value;
+			increment = new Expr.Increment(original, (Expr.Variable)value.left, value.operator, expr.delta);
+		}
+		return keep(increment, Expr.Increment.class, original);
+	}
+
+	@Override
+	public Expr visitCompareExpr(Expr.Compare expr) {
+		Expr.Binary original = (Expr.Binary)share(expr.original);
+		Expr.Compare compare = expr;
+		if (original != expr.original) {
+			compare = new Expr.Compare(original, (Expr.Variable)original.left, original.right);
+		}
+		return keep(compare, Expr.Compare.class, original);
+	}
+
+	@Override
+	public Expr visitSetThisExpr(Expr.SetThis expr) {
+		Expr.Set original = (Expr.Set)share(expr.original);
+		Expr.SetThis set = expr;
+		if (original != expr.original) {
+			set = new Expr.SetThis(original, (Expr.This)original.object, original.value);
+		}
+		return keep(set, Expr.SetThis.class, original);
+	}
+
+	@Override
+	public Expr visitGetFieldExpr(Expr.GetField expr) {
+		Expr.Get original = (Expr.Get)share(expr.original);
+		Expr.GetField get = expr;
+		if (original != expr.original) {
+			get = new Expr.GetField(original, (Expr.Variable)original.object);
+		}
+		return keep(get, Expr.GetField.class, original);
+	}
+
+	@Override
+	public Stmt visitBlockStmt(Stmt.Block stmt) {
+		List<Stmt> statements = shareStmts(stmt.statements);
+		Stmt.Block block = stmt;
+		if (statements != stmt.statements) {
+			block = new Stmt.Block(statements);
+		}
+		return keep(block, Stmt.Block.class, statements);
+	}
+
+	@Override
+	public Stmt visitClassStmt(Stmt.Class stmt) {
+		Expr.Variable superclass = (Expr.Variable)share(stmt.superclass);
+		List<Stmt.Function> methods = new ArrayList<>(stmt.methods.size());
+		for (Stmt.Function method : stmt.methods) methods.add((Stmt.Function)share(method));
+		if (methods.equals(stmt.methods)) methods = stmt.methods;
+		Stmt.Class metaclass = (Stmt.Class)share(stmt.metaclass);
+
+		Stmt.Class klass = stmt;
+		if (superclass != stmt.superclass || methods != stmt.methods || metaclass != stmt.metaclass) {
+			klass = new Stmt.Class(stmt.name, superclass, methods, metaclass);
+		}
+		return keep(klass, Stmt.Class.class, klass.name, superclass, methods, metaclass);
+	}
+
+	@Override
+	public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+		Expr expression = share(stmt.expression);
+		Stmt.Expression statement = stmt;
+		if (expression != stmt.expression) {
+			statement = new Stmt.Expression(expression);
+		}
+		return keep(statement, Stmt.Expression.class, expression);
+	}
+
+	@Override
+	public Stmt visitFunctionStmt(Stmt.Function stmt) {
+		if (stmt.body instanceof LazyBody) {
+			// Left as it is, and its own key, as comparing its body would parse it
+			if (!lambdas.isEmpty()) keys.put(stmt, stmt);
+			return stmt;
+		}
+		List<Stmt> body = shareStmts(stmt.body);
+		Stmt.Function function = stmt;
+		if (body != stmt.body) {
+			function = new Stmt.Function(stmt.name, stmt.params, body);
+		}
+		return keep(function, Stmt.Function.class, function.name, function.params, body);
+	}
+
+	@Override
+	public Stmt visitIfStmt(Stmt.If stmt) {
+		Expr condition = share(stmt.condition);
+		Stmt thenBranch = share(stmt.thenBranch);
+		Stmt elseBranch = share(stmt.elseBranch);
+		Stmt.If statement = stmt;
+		if (condition != stmt.condition || thenBranch != stmt.thenBranch || elseBranch != stmt.elseBranch) {
+			statement = new Stmt.If(condition, thenBranch, elseBranch);
+		}
+		return keep(statement, Stmt.If.class, condition, thenBranch, elseBranch);
+	}
+
+	@Override
+	public Stmt visitPrintStmt(Stmt.Print stmt) {
+		Expr expression = share(stmt.expression);
+		Stmt.Print statement = stmt;
+		if (expression != stmt.expression) {
+			statement = new Stmt.Print(expression);
+		}
+		return keep(statement, Stmt.Print.class, expression);
+	}
+
+	@Override
+	public Stmt visitReturnStmt(Stmt.Return stmt) {
+		Expr value = share(stmt.value);
+		Stmt.Return statement = stmt;
+		if (value != stmt.value) {
+			statement = new Stmt.Return(stmt.keyword, value);
+		}
+		return keep(statement, Stmt.Return.class, statement.keyword, value);
+	}
+
+	@Override
+	public Stmt visitVarStmt(Stmt.Var stmt) {
+		Expr initializer = share(stmt.initializer);
+		Stmt.Var statement = stmt;
+		if (initializer != stmt.initializer) {
+			statement = new Stmt.Var(stmt.name, initializer);
+		}
+		return keep(statement, Stmt.Var.class, statement.name, initializer);
+	}
+
+	@Override
+	public Stmt visitWhileStmt(Stmt.While stmt) {
+		Expr condition = share(stmt.condition);
+		Stmt body = share(stmt.body);
+		Stmt.While statement = stmt;
+		if (condition != stmt.condition || body != stmt.body) {
+			statement = new Stmt.While(condition, body);
+		}
+		return keep(statement, Stmt.While.class, condition, body);
+	}
+
+	@Override
+	public Stmt visitBreakStmt(Stmt.Break stmt) {
+		return keep(stmt, Stmt.Break.class);
+	}
+
+	@Override
+	public Stmt visitImportStmt(Stmt.Import stmt) {
+		return keep(stmt, Stmt.Import.class, stmt.keyword, stmt.path);
+	}
+}
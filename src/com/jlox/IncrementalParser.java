@@ -0,0 +1,194 @@
+package com.jlox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+class IncrementalParser {
+
+	/* Keeps the top-level statements of a source around between edits, so that an editor or the
+	 * REPL can re-parse after each change without starting from scratch.
+	 *
+	 * The source is a PieceTable, and is cut into segments, one per top-level statement, each
+	 * running from the statement's first token up to the next one's. A segment is scanned and
+	 * parsed on its own, from a Scanner that starts at the segment with its lines counted from
+	 * 1, so nothing in it depends on where it is: its statement's Tokens carry lines relative to
+	 * the segment, and the segment keeps its length, the lines and tokens it spans, and what its
+	 * scanner and parser reported, with positions relative to it too. An edit before a segment
+	 * moves it without touching it.
+	 *
+	 * On an edit, statements are parsed again from the segment before the one the edit starts in
+	 * (the edit may change where that one ended) until one ends on the start of an old segment
+	 * past the edit. From there on, the old segments are kept as they are. Finding the damaged
+	 * segment walks the segments' lengths, but nothing else is proportional to the source.
+	 *
+	 * Errors are kept with their segments, so report() gives every error in the source, from
+	 * reused segments as well as re-parsed ones, at the lines (and for the Parser, the token
+	 * positions) a parse of the whole source would give them.
+	 * */
+
+	private final PieceTable source;
+	private final List<Segment> segments = new ArrayList<>();
+
+	private static final class Segment {
+		final Stmt statement;
+		// Characters from this segment's first token to the next segment's
+		final int length;
+		// Lines as the Scanner counts them, which leaves out newlines in block comments
+		final int lines;
+		final int tokens;
+		final List<Diagnostic> diagnostics;
+		// Whether the statement ran into the end of the source before it was finished
+		final boolean unfinished;
+
+		Segment(Stmt statement, int length, int lines, int tokens, List<Diagnostic> diagnostics, boolean unfinished){
+			this.statement = statement;
+			this.length = length;
+			this.lines = lines;
+			this.tokens = tokens;
+			this.diagnostics = diagnostics;
+			this.unfinished = unfinished;
+		}
+	}
+
+	private static final class Diagnostic {
+		// A Parser position counts tokens, a Scanner's counts lines
+		final boolean parser;
+		final int position;
+		final String message;
+
+		Diagnostic(boolean parser, int position, String message){
+			this.parser = parser;
+			this.position = position;
+			this.message = message;
+		}
+	}
+
+	private static final class Collector extends ErrorReporter {
+		/* Keeps what a segment's Scanner or Parser reports, to be reported later. */
+		private final List<Diagnostic> diagnostics;
+		private final boolean parser;
+
+		Collector(List<Diagnostic> diagnostics, boolean parser){
+			super(null);
+			this.diagnostics = diagnostics;
+			this.parser = parser;
+		}
+
+		@Override
+		void error(int position, String message) {
+			diagnostics.add(new Diagnostic(parser, position, message));
+			hadError = true;
+		}
+	}
+
+	IncrementalParser(String source){
+		this.source = new PieceTable(source);
+		parseFrom(0, 0, new ArrayList<>());
+	}
+
+	List<Stmt> statements() {
+		List<Stmt> statements = new ArrayList<>(segments.size());
+		for (Segment segment : segments) {
+			if (segment.tokens > 0) statements.add(segment.statement);
+		}
+		return statements;
+	}
+
+	CharSequence source() {
+		return source;
+	}
+
+	int line(int index) {
+		/* The line statement index starts on, which its Tokens' lines count from. */
+		int line = 1;
+		for (int i = 0; i < index; i++) {
+			line += segments.get(i).lines;
+		}
+		return line;
+	}
+
+	boolean unfinished() {
+		/* Whether the last statement runs into the end of the source, so more may be coming. */
+		return !segments.isEmpty() && segments.get(segments.size() - 1).unfinished;
+	}
+
+	void report(ErrorReporter reporter) {
+		/* Reports every error in the source. */
+		int line = 1;
+		int tokens = 0;
+		for (Segment segment : segments) {
+			for (Diagnostic diagnostic : segment.diagnostics) {
+				reporter.error(diagnostic.parser ? tokens + diagnostic.position : line - 1 + diagnostic.position,
+						diagnostic.message);
+			}
+			line += segment.lines;
+			tokens += segment.tokens;
+		}
+	}
+
+	List<Stmt> edit(int start, int end, String replacement) {
+		/* Replaces source[start, end) with the replacement, and returns the new statements. */
+		source.replace(start, end, replacement);
+		int delta = replacement.length() - (end - start);
+
+		// The segment the edit starts in, or the last one if it's at the very end.
+		int damaged = 0;
+		int offset = 0;
+		while (damaged < segments.size() - 1 && offset + segments.get(damaged).length <= start) {
+			offset += segments.get(damaged++).length;
+		}
+		int restart = Math.max(damaged - 1, 0);
+		if (restart < damaged) offset -= segments.get(restart).length;
+
+		// The old segments past the edit, by where they now start.
+		int oldOffset = offset;
+		int reusable = restart;
+		while (reusable < segments.size() && oldOffset < end) {
+			oldOffset += segments.get(reusable++).length;
+		}
+		List<Segment> suffix = new ArrayList<>(segments.subList(reusable, segments.size()));
+		segments.subList(restart, segments.size()).clear();
+
+		parseFrom(offset, oldOffset + delta, suffix);
+		return statements();
+	}
+
+	private void parseFrom(int offset, int resume, List<Segment> suffix) {
+		/* Parses segments from offset to the end of the source, unless one ends where one of the
+		 * suffix of old segments now starts, the first of them at resume. The rest of the suffix
+		 * is then taken as it is. */
+		int next = 0;
+		int nextStart = resume;
+		while (offset < source.length()) {
+			while (next < suffix.size() && nextStart < offset) {
+				nextStart += suffix.get(next++).length;
+			}
+			if (next < suffix.size() && nextStart == offset) {
+				segments.addAll(suffix.subList(next, suffix.size()));
+				return;
+			}
+
+			Segment segment = parseSegment(offset);
+			segments.add(segment);
+			offset += segment.length;
+		}
+	}
+
+	private Segment parseSegment(int offset) {
+		/* Scans and parses the statement starting at offset. If there's nothing left but
+		 * whitespace and comments, they make a segment of their own, with no statement. */
+		List<Diagnostic> diagnostics = new ArrayList<>();
+		Scanner scanner = new Scanner(source, offset, new Collector(diagnostics, false));
+		Parser parser = new Parser(scanner, new Collector(diagnostics, true));
+		if (parser.atEnd()) {
+			return new Segment(null, source.length() - offset, scanner.tokenLine() - 1, 0, diagnostics, false);
+		}
+
+		Stmt statement = parser.parseDeclaration();
+		int end = scanner.tokenStart();
+		int tokens = parser.position();
+		Diagnostic last = diagnostics.isEmpty() ? null : diagnostics.get(diagnostics.size() - 1);
+		boolean unfinished = parser.atEnd() && last != null && last.parser && last.position == tokens;
+		return new Segment(statement, end - offset, scanner.tokenLine() - 1, tokens, diagnostics, unfinished);
+	}
+}
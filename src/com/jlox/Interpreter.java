@@ -1,10 +1,12 @@
 package com.jlox;
 
+import java.io.PrintWriter;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Map;
 import java.util.HashMap;
 
+import com.jlox.runtime.NumberParser;
 
 public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
 	
@@ -17,12 +19,27 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
 	
 	final Environment globals = new Environment();
 	private Environment environment = globals;
-	private final Map<Expr, Integer> locals = new HashMap<>();
+	// Replaced by a compiled Program's own depths when one is run
+	private Map<Expr, Integer> locals = new HashMap<>();
+	// Where runtime errors are reported, and the Resolver's errors for this program
+	ErrorReporter reporter;
+	// Where print statements go
+	PrintWriter out;
 	
 	private boolean breakActive = false;
 	private boolean breakInsideBlockStmt = false;
 	
 	Interpreter(){
+		this(Lox.reporter);
+	}
+	
+	Interpreter(ErrorReporter reporter){
+		this(reporter, new PrintWriter(System.out, true));
+	}
+	
+	Interpreter(ErrorReporter reporter, PrintWriter out){
+		this.reporter = reporter;
+		this.out = out;
 		globals.define("clock", new LoxCallable() {
 		@Override
 		public int arity() {
@@ -39,6 +56,47 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
 			return "<native fn>";
 		}
 		});
+		
+		globals.define("parseNumber", new LoxCallable() {
+		@Override
+		public int arity() {
+			return 1;
+		}
+		
+		@Override
+		public Object call(Interpreter interpreter, List<Object> arguments) {
+			/* Parses a decimal number from a string, giving nil if it isn't one. */
+			Object text = arguments.get(0);
+			if (text instanceof Double) return text;
+			if (!(text instanceof String)) return null;
+			try {
+				return NumberParser.parse((String)text);
+			} catch (NumberFormatException e) {
+				return null;
+			}
+		}
+		
+		@Override
+		public String toString() {
+			return "<native fn>";
+		}
+		});
+	}
+	
+	void interpret(Program program) {
+		/* Runs a compiled program, which other interpreters may be running at the same time. Its
+		 * depths take the place of this interpreter's (functions keep the depths they were
+		 * declared with). */
+		locals = program.locals;
+		interpret(program.statements);
+	}
+	
+	void load(Program program) {
+		/* Runs a module's program, leaving a runtime error to whatever imported it. */
+		locals = program.locals;
+		for (Stmt statement : program.statements) {
+			execute(statement);
+		}
 	}
 	
 	void interpret(List<Stmt> statements) {
@@ -47,16 +105,17 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
 				execute(statement);
 			}
 		}catch(RuntimeError e) {
-			Lox.runtimeError(e);
+			reporter.runtimeError(e);
 		}
 	}
 	
 	private Object lookUpVariable(Token name, Expr expr) {
 		Integer distance = locals.get(expr);
 		if (distance != null) {
-			return environment.getAt(distance.intValue(), name.lexeme);
+			return environment.getAt(distance.intValue(), name.symbol);
 		} else {
-			return globals.get(name);
+			// Not necessarily these globals: a module's functions see the module's
+			return environment.root.get(name);
 		}
 	}
 	
@@ -97,9 +156,9 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
 	@Override
 	public Object visitSuperExpr(Expr.Super expr) {
 		int distance = locals.get(expr);
-		LoxClass superclass = (LoxClass)environment.getAt(distance, "super");		
-		LoxInstance object = (LoxInstance)environment.getAt(distance - 1, "this");
-		LoxFunction method = superclass.findMethod(expr.method.lexeme);
+		LoxClass superclass = (LoxClass)environment.getAt(distance, SymbolTable.SUPER);		
+		LoxInstance object = (LoxInstance)environment.getAt(distance - 1, SymbolTable.THIS);
+		LoxFunction method = superclass.findMethod(expr.method.symbol);
 		if (method == null) {
 			throw new RuntimeError(expr.method, "Undefined property: '" + expr.method.lexeme + "'.");
 		}
@@ -147,18 +206,21 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
 		
 		Object left = evaluate(expr.left);
 		Object right = evaluate(expr.right);
-		
-		switch(expr.operator.type) {
+		return binary(expr.operator, left, right);
+	}
+	
+	static Object binary(Token operator, Object left, Object right) {
+		switch(operator.type) {
 		case MINUS:
-			checkNumberOperand(expr.operator, left, right);
+			checkNumberOperand(operator, left, right);
 			return (double)left - (double)right;
 		case STAR:
-			checkNumberOperand(expr.operator, left, right);
+			checkNumberOperand(operator, left, right);
 			return (double)left * (double)right;
 		case SLASH:
-			checkNumberOperand(expr.operator, left, right);
+			checkNumberOperand(operator, left, right);
 			if ((double)right == 0) {
-				throw new RuntimeError(expr.operator, "Division by zero.");
+				throw new RuntimeError(operator, "Division by zero.");
 			}
 			return (double)left / (double)right;
 		case PLUS:
@@ -177,19 +239,19 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
 				return (String)left + (String)right;
 			}
 			
-			throw new RuntimeError(expr.operator, "Operands must be either two numbers or two strings");
+			throw new RuntimeError(operator, "Operands must be either two numbers or two strings");
 			
 		case GREATER:
-			checkNumberOperand(expr.operator, left, right);
+			checkNumberOperand(operator, left, right);
 			return (double)left > (double)right;
 		case LESS:
-			checkNumberOperand(expr.operator, left, right);
+			checkNumberOperand(operator, left, right);
 			return (double)left < (double)right;
 		case GREATER_EQUAL:
-			checkNumberOperand(expr.operator, left, right);
+			checkNumberOperand(operator, left, right);
 			return (double)left >= (double)right;
 		case LESS_EQUAL:
-			checkNumberOperand(expr.operator, left, right);
+			checkNumberOperand(operator, left, right);
 			return (double)left <= (double)right;
 		case EQUAL_EQUAL:
 			return isEqual(left, right);
@@ -248,26 +310,91 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
 	
 	@Override
 	public Object visitLambdaExpr(Expr.Lambda expr) {
-		return new LoxLambda(expr, environment);
+		return new LoxLambda(expr, environment, locals);
+	}
+	
+	/* Fused nodes produced by the Fuser. Each one does the work of the subtree it replaced
+	 * without dispatching through the visitor for its operands. */
+	
+	@Override
+	public Object visitIncrementExpr(Expr.Increment expr) {
+		Object current = lookUpVariable(expr.variable.name, expr.variable);
+		Object value;
+		if (current instanceof Double) {
+			if (expr.operator.type == TokenType.PLUS) {
+				value = (double)current + (double)expr.delta;
+			} else {
+				value = (double)current - (double)expr.delta;
+			}
+		} else {
+			value = binary(expr.operator, current, expr.delta);
+		}
+		return assign(expr.original, value);
+	}
+	
+	@Override
+	public Object visitCompareExpr(Expr.Compare expr) {
+		Object left = lookUpVariable(expr.left.name, expr.left);
+		Object right;
+		if (expr.right instanceof Expr.Literal) {
+			right = ((Expr.Literal)expr.right).value;
+		} else {
+			Expr.Variable variable = (Expr.Variable)expr.right;
+			right = lookUpVariable(variable.name, variable);
+		}
+		
+		if (left instanceof Double && right instanceof Double) {
+			double a = (double)left;
+			double b = (double)right;
+			switch (expr.original.operator.type) {
+			case LESS: return a < b;
+			case LESS_EQUAL: return a <= b;
+			case GREATER: return a > b;
+			case GREATER_EQUAL: return a >= b;
+			}
+		}
+		return binary(expr.original.operator, left, right);
+	}
+	
+	@Override
+	public Object visitSetThisExpr(Expr.SetThis expr) {
+		Object object = lookUpVariable(expr.keyword.keyword, expr.keyword);
+		if (!(object instanceof LoxInstance)) {
+			throw new RuntimeError(expr.original.name, "Only instances have fields.");
+		}
+		
+		Object value = evaluate(expr.value);
+		((LoxInstance)object).set(expr.original.name, value);
+		return value;
 	}
 	
-	private void checkNumberOperand(Token operator, Object operand) {
+	@Override
+	public Object visitGetFieldExpr(Expr.GetField expr) {
+		Object object = lookUpVariable(expr.object.name, expr.object);
+		if (object instanceof LoxInstance) {
+			return ((LoxInstance)object).get(expr.original.name);
+		}
+		
+		throw new RuntimeError(expr.original.name, "Only instances have properties.");
+	}
+	
+	private static void checkNumberOperand(Token operator, Object operand) {
 		if (operand instanceof Double) return;
 		throw new RuntimeError(operator, "Operand must be a number.");		
 	}
 	
-	private void checkNumberOperand(Token operator, Object left, Object right) {
+	private static void checkNumberOperand(Token operator, Object left, Object right) {
 		if (left instanceof Double && right instanceof Double) return;
 		throw new RuntimeError(operator, "Operands must be numbers");
 	}
 	
-	private boolean isEqual(Object a, Object b) {
+	private static boolean isEqual(Object a, Object b) {
 		if (a == null && b == null) return true;
 		if (a == null) return false;
 		return a.equals(b);
 	}
 	
-	private boolean isTruthy(Object object) {
+	static boolean isTruthy(Object object) {
 		if (object == null) return false;
 		if (object instanceof Boolean) return (boolean)object;
 		return true;
@@ -284,10 +411,57 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
 		return statement.accept(this);
 	}
 	
+	void mark() {
+		/* Marks the globals as they are now, for rollback(). */
+		globals.mark();
+	}
+	
+	void rollback() {
+		/* Puts the globals back as they were when marked, and forgets any break that a runtime
+		 * error cut short, so the next program starts from the same state. */
+		globals.rollback();
+		environment = globals;
+		breakActive = false;
+		breakInsideBlockStmt = false;
+	}
+	
 	protected void resolve(Expr expr, int depth) {
 		locals.put(expr, depth);
 	}
 	
+	Integer resolvedDepth(Expr expr) {
+		return locals.get(expr);
+	}
+	
+	Map<Expr, Integer> resolutions() {
+		return locals;
+	}
+	
+	void moveResolution(Expr from, Expr to) {
+		/* Used when a pass after the Resolver rebuilds a node that was resolved. */
+		Integer depth = locals.remove(from);
+		if (depth != null) {
+			locals.put(to, depth);
+		}
+	}
+	
+	void forgetResolution(Expr expr) {
+		/* Used when a pass after the Resolver drops a node that was resolved. */
+		locals.remove(expr);
+	}
+	
+	void executeBody(List<Stmt> body, Environment environment, Map<Expr, Integer> locals) {
+		/* Runs a function's body with the depths of the program that declared it, which need not
+		 * be the program running now (say a function from a prelude, or from an earlier script). */
+		Map<Expr, Integer> previous = this.locals;
+		this.locals = locals;
+		try {
+			executeBlock(body, environment);
+		} finally {
+			this.locals = previous;
+		}
+	}
+	
 	protected void executeBlock(List<Stmt> statements, Environment environment) {
 		Environment previous = this.environment;
 		try {
@@ -326,25 +500,25 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
 		}
 		
 		
-		environment.define(stmt.name.lexeme, null);
+		environment.define(stmt.name.symbol, null);
 		
 		if (stmt.superclass != null) {
 			environment = new Environment(environment);
-			environment.define("super", superclass);
+			environment.define(SymbolTable.SUPER, superclass);
 		}
 		
-		Map<String, LoxFunction> methods = new HashMap<>();
+		Map<Symbol, LoxFunction> methods = new HashMap<>();
 		for (Stmt.Function method : stmt.methods) {
-			LoxFunction function = new LoxFunction(method, environment, method.name.lexeme.equals("init"));
-			methods.put(method.name.lexeme, function);
+			LoxFunction function = new LoxFunction(method, environment, method.name.symbol == SymbolTable.INIT, locals);
+			methods.put(method.name.symbol, function);
 		}
 		
 		LoxClass metaclass = null;
 		if (stmt.metaclass != null) {
-			Map<String, LoxFunction> staticMethods = new HashMap<>();
+			Map<Symbol, LoxFunction> staticMethods = new HashMap<>();
 			for (Stmt.Function method : stmt.metaclass.methods) {
-				LoxFunction function = new LoxFunction(method, environment, method.name.lexeme.equals("init"));
-				staticMethods.put(method.name.lexeme, function);
+				LoxFunction function = new LoxFunction(method, environment, method.name.symbol == SymbolTable.INIT, locals);
+				staticMethods.put(method.name.symbol, function);
 			}
 			metaclass = new LoxClass(null, (LoxClass)superclass, stmt.name.lexeme + "MetaClass", staticMethods);
 		}
@@ -367,8 +541,8 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
 	
 	@Override
 	public Void visitFunctionStmt(Stmt.Function stmt) {
-		LoxFunction function = new LoxFunction(stmt, environment, false);
-		environment.define(stmt.name.lexeme, function);
+		LoxFunction function = new LoxFunction(stmt, environment, false, locals);
+		environment.define(stmt.name.symbol, function);
 		return null;
 	}
 	
@@ -385,7 +559,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
 	@Override
 	public Void visitPrintStmt(Stmt.Print stmt) {
 		Object value = evaluate(stmt.expression);
-		System.out.println(stringify(value));
+		out.println(stringify(value));
 		return null;
 	}
 	
@@ -404,7 +578,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
 		if (stmt.initializer != null ) {
 			value = evaluate(stmt.initializer);
 		}		
-		environment.define(stmt.name.lexeme, value);
+		environment.define(stmt.name.symbol, value);
 		return null;
 	}
 	
@@ -431,21 +605,33 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void>{
 		return null;
 	}
 	
+	@Override
+	public Void visitImportStmt(Stmt.Import stmt) {
+		/* The module is loaded once for the whole process (see LoxModule), and its globals
+		 * are looked in after these. */
+		globals.addImport(LoxModule.load(stmt.keyword, (String)stmt.path.literal, this).environment);
+		return null;
+	}
+	
 	@Override 
 	public Object visitAssignExpr(Expr.Assign expr) {
 		Object value =  evaluate(expr.value);
+		return assign(expr, value);
+	}
+	
+	private Object assign(Expr.Assign expr, Object value) {
 		Integer distance = locals.get(expr);
 		if (distance != null) {
 			environment.assignAt(distance, expr.name, value);
 		} else {
-			globals.assign(expr.name, value);
+			environment.root.assign(expr.name, value);
 		}
 		
 		environment.assign(expr.name, value);
 		return value;
 	}
 	
-	private String stringify(Object object) {
+	static String stringify(Object object) {
 		if (object == null) return "nil";
 		if (object instanceof Double) {
 			String text = object.toString();
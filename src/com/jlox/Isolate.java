@@ -0,0 +1,105 @@
+package com.jlox;
+
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.Map;
+
+public class Isolate {
+
+	/* One of any number of independent Lox executions in the same JVM. An Isolate has its own
+	 * Interpreter, so its own globals and runtime state, prints to its own PrintWriter and
+	 * reports to its own ErrorReporter. What it runs are compiled Programs, which are shared.
+	 *
+	 * An Isolate may be used from any thread, but only by one thread at a time. Globals defined
+	 * by one Program are still there for the next one it runs, unless it's reset.
+	 * */
+
+	private final Interpreter interpreter;
+	ErrorReporter reporter;
+	PrintWriter out;
+	// Created by remember(), for reload()
+	private Reloader reloader = null;
+	// Which of its IsolatePool's preludes it has run
+	int generation = 0;
+
+	Isolate(PrintWriter out, ErrorReporter reporter){
+		this.interpreter = new Interpreter(reporter, out);
+		this.reporter = reporter;
+		this.out = out;
+	}
+
+	public boolean run(Program program) {
+		/* Returns false if the program stopped with a runtime error, which has been reported. */
+		reporter.hadRuntimeError = false;
+		try {
+			interpreter.interpret(program);
+		} finally {
+			out.flush();
+		}
+		return !reporter.hadRuntimeError;
+	}
+
+	public void redirect(PrintWriter out, ErrorReporter reporter) {
+		/* Sends what's printed and reported from now on somewhere else, such as to whoever
+		 * has this Isolate from an IsolatePool. */
+		this.out = out;
+		this.reporter = reporter;
+		interpreter.out = out;
+		interpreter.reporter = reporter;
+	}
+
+	public void define(String name, Object value) {
+		/* Gives the programs this Isolate runs a global variable, such as a value from the host. */
+		interpreter.globals.define(name, value);
+	}
+
+	Object get(String name) {
+		/* The value of a global variable, or null if there isn't one. */
+		return interpreter.globals.getAt(0, SymbolTable.intern(name));
+	}
+
+	public Map<String, Object> changed() {
+		/* Each global changed since mark(), with its value now (null if it has none), leaving out
+		 * functions, classes and instances: their methods close over this Isolate's globals, which
+		 * a pooled Isolate's next user resets and redefines, so they can't be used outside it. */
+		Map<String, Object> changed = new HashMap<>();
+		for (Symbol name : interpreter.globals.changed()) {
+			Object value = interpreter.globals.getAt(0, name);
+			if (value instanceof LoxCallable || value instanceof LoxInstance) continue;
+			changed.put(name.name, value);
+		}
+		return changed;
+	}
+
+	void remember(Program program) {
+		/* Takes the functions and classes in a program it has run as the ones reload() will
+		 * compare against. */
+		if (reloader == null) reloader = new Reloader(interpreter);
+		reloader.remember(program);
+	}
+	
+	boolean reload(Program program) {
+		/* Swaps in the functions and classes in program which have changed since they were
+		 * remembered or last reloaded (see Reloader), and marks the globals again, so that a
+		 * reset() keeps them. Returns false if that stopped with a runtime error. */
+		if (reloader == null) reloader = new Reloader(interpreter);
+		reporter.hadRuntimeError = false;
+		try {
+			return reloader.reload(program) >= 0;
+		} finally {
+			interpreter.mark();
+			out.flush();
+		}
+	}
+	
+	void mark() {
+		/* Remembers the globals as they are now, for reset(). */
+		interpreter.mark();
+	}
+
+	void reset() {
+		/* Puts the globals back as they were at mark(), in time proportional to how many of
+		 * them have changed since. */
+		interpreter.rollback();
+	}
+}
@@ -0,0 +1,141 @@
+package com.jlox;
+
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.TimeUnit;
+
+public class IsolatePool {
+
+	/* Hands out Isolates which have already been created and have already run a prelude, so that
+	 * running a short script costs little more than the script itself.
+	 *
+	 * Each Isolate is marked just after its prelude has run. When it's released its globals are
+	 * reset to that mark, which only touches the globals the script changed, and it goes back
+	 * into the pool. Resetting doesn't undo changes made to the fields of an instance the prelude
+	 * created, so a prelude should only share values which scripts never change.
+	 *
+	 * The prelude can be replaced while the pool is in use (see reload()). Each Isolate takes the
+	 * new version of its functions and classes the next time it's handed out, so it keeps its
+	 * warmed up state, and Isolates created afterwards run the new prelude.
+	 *
+	 * At most size Isolates are kept idle. Any more that are released are dropped, as are any
+	 * that have been idle for longer than the idle timeout. Idle Isolates are handed out most
+	 * recently used first, and expire oldest first. There is no thread for eviction: it happens
+	 * whenever an Isolate is acquired or released. All methods may be called from any thread.
+	 * */
+
+	private static final class Idle {
+		final Isolate isolate;
+		final long since;
+
+		Idle(Isolate isolate, long since){
+			this.isolate = isolate;
+			this.since = since;
+		}
+	}
+
+	private Program prelude;
+	// Bumped each time the prelude is reloaded
+	private int generation = 0;
+	private final int size;
+	private final long idleNanos;
+	// Most recently released first
+	private final Deque<Idle> idle = new ArrayDeque<>();
+
+	public IsolatePool(Program prelude, int size, long idleTimeout, TimeUnit unit){
+		/* Creates all size Isolates up front. The prelude may be null. */
+		if (size < 0) throw new IllegalArgumentException("Negative pool size: " + size);
+		this.prelude = prelude;
+		this.size = size;
+		this.idleNanos = unit.toNanos(idleTimeout);
+		for (int i = 0; i < size; i++) {
+			idle.addLast(new Idle(create(prelude, 0), System.nanoTime()));
+		}
+	}
+
+	boolean run(Program program, PrintWriter out, ErrorReporter reporter) {
+		/* Runs a program on a pooled Isolate. Returns false if it stopped with a runtime error. */
+		Isolate isolate = acquire();
+		try {
+			isolate.redirect(out, reporter);
+			return isolate.run(program);
+		} finally {
+			release(isolate);
+		}
+	}
+
+	public Isolate acquire() {
+		Isolate isolate;
+		Program current;
+		int latest;
+		synchronized (this) {
+			evict(System.nanoTime());
+			Idle warm = idle.pollFirst();
+			isolate = warm == null ? null : warm.isolate;
+			current = prelude;
+			latest = generation;
+		}
+		// Created or brought up to date outside the lock, so others can take an idle one meanwhile
+		if (isolate == null) return create(current, latest);
+		if (isolate.generation != latest && current != null) {
+			ErrorReporter errors = ErrorReporter.buffered("");
+			isolate.redirect(discard(), errors);
+			if (!isolate.reload(current)) {
+				throw new IllegalStateException("Reloading the prelude failed: " + errors.report());
+			}
+			isolate.generation = latest;
+		}
+		return isolate;
+	}
+
+	synchronized void reload(Program prelude) {
+		/* Replaces the prelude, for the Isolates to take up as they're handed out. */
+		this.prelude = prelude;
+		generation++;
+	}
+
+	public void release(Isolate isolate) {
+		isolate.reset();
+		isolate.redirect(discard(), silent());
+		synchronized (this) {
+			long now = System.nanoTime();
+			evict(now);
+			if (idle.size() < size) idle.addFirst(new Idle(isolate, now));
+		}
+	}
+
+	synchronized int idle() {
+		return idle.size();
+	}
+
+	private void evict(long now) {
+		while (!idle.isEmpty() && now - idle.peekLast().since > idleNanos) {
+			idle.pollLast();
+		}
+	}
+
+	private Isolate create(Program prelude, int generation) {
+		ErrorReporter errors = ErrorReporter.buffered("");
+		Isolate isolate = new Isolate(discard(), errors);
+		if (prelude != null) {
+			if (!isolate.run(prelude)) {
+				throw new IllegalStateException("The prelude failed: " + errors.report());
+			}
+			isolate.remember(prelude);
+		}
+		isolate.generation = generation;
+		isolate.redirect(discard(), silent());
+		isolate.mark();
+		return isolate;
+	}
+
+	private static PrintWriter discard() {
+		return new PrintWriter(Writer.nullWriter());
+	}
+
+	private static ErrorReporter silent() {
+		return new ErrorReporter(discard());
+	}
+}
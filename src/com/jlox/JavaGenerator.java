@@ -0,0 +1,921 @@
+package com.jlox;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+class JavaGenerator implements Expr.Visitor<String>, Stmt.Visitor<Boolean> {
+
+	/* Translates a resolved program into the source of one Java class, for jloxc (see Jloxc),
+	 * which runs against LoxRuntime.
+	 *
+	 * Each function declared at the top level becomes a static method, which calls name it
+	 * directly when it's the only global by that name and is never assigned to. Each class
+	 * declared at the top level becomes a nested class, whose methods are static methods. Any
+	 * other function, method or lambda becomes a Java lambda where it's declared. Globals are
+	 * LoxRuntime.Globals, and locals are Java locals, except that a local some nested function
+	 * uses is kept in a one-element array, so that both can change it. The top level is split
+	 * across several methods, to keep each within the JVM's limit on the size of a method.
+	 * Imports can't be compiled, as only the interpreter loads modules, so they're errors.
+	 *
+	 * A first pass (Scopes) matches every name to its declaration, finding which locals are used
+	 * by nested functions. The second emits the code. Statements are visited for whether they
+	 * can complete normally, as Java rejects code after a return or break.
+	 * */
+
+	// Roughly how much Java goes into each of the methods the top level is split across
+	private static final int CHUNK = 16 * 1024;
+
+	private static final class Local {
+		final String name;
+		// How many functions deep it's declared
+		final int function;
+		boolean captured = false;
+
+		Local(String name, int function){
+			this.name = name;
+			this.function = function;
+		}
+	}
+
+	private static final class Body {
+		/* The Java method or lambda being generated. */
+		final String self;
+		final String superclass;
+		final boolean initializer;
+		final int depth;
+		final StringBuilder temporaries = new StringBuilder();
+
+		Body(String self, String superclass, boolean initializer, int depth){
+			this.self = self;
+			this.superclass = superclass;
+			this.initializer = initializer;
+			this.depth = depth;
+		}
+	}
+
+	private final String className;
+	private final ErrorReporter reporter;
+	private final StringBuilder fields = new StringBuilder();
+	private final StringBuilder methods = new StringBuilder();
+	private final StringBuilder classes = new StringBuilder();
+	private final Map<String, String> globals = new HashMap<>();
+	private final Map<String, String> sites = new HashMap<>();
+	private final Map<Double, String> numbers = new HashMap<>();
+	private final Set<String> classNames = new HashSet<>();
+	private int unique = 0;
+
+	// Found by Scopes
+	private final Map<Object, Local> locals = new IdentityHashMap<>();
+	private final Map<String, Integer> declarations = new HashMap<>();
+	private final Set<String> assigned = new HashSet<>();
+	private final Map<String, Stmt.Function> functions = new HashMap<>();
+	private final Map<Stmt.Function, String> staticMethods = new IdentityHashMap<>();
+
+	private StringBuilder out;
+	private int indent;
+	private Body body;
+
+	JavaGenerator(String className, ErrorReporter reporter){
+		this.className = className;
+		this.reporter = reporter;
+		classNames.add(className);
+	}
+
+	String generate(List<Stmt> statements, String file) {
+		/* Returns null if the program can't be compiled, having reported why. */
+		new Scopes().resolve(statements);
+		if (reporter.hadError) return null;
+
+		List<String> chunks = new ArrayList<>();
+		int next = 0;
+		while (next < statements.size()) {
+			String chunk = "run" + chunks.size();
+			chunks.add(chunk);
+			body = new Body(null, null, false, 1);
+			out = new StringBuilder();
+			indent = 2;
+			do {
+				statements.get(next++).accept(this);
+			} while (next < statements.size() && out.length() < CHUNK);
+			methods.append("\tprivate static void ").append(chunk).append("() {\n")
+				.append(body.temporaries).append(out).append("\t}\n\n");
+		}
+
+		StringBuilder java = new StringBuilder();
+		java.append("import com.jlox.runtime.LoxRuntime;\n\n");
+		java.append("public final class ").append(className).append(" {\n\n");
+		java.append("\t/* Compiled by jloxc from ").append(file).append(". */\n\n");
+		java.append(fields).append('\n');
+		java.append("\tpublic static void main(String[] args) {\n");
+		java.append("\t\tLoxRuntime.run(").append(className).append("::run);\n");
+		java.append("\t}\n\n");
+		java.append("\tprivate static void run() {\n");
+		for (String chunk : chunks) java.append("\t\t").append(chunk).append("();\n");
+		java.append("\t}\n\n");
+		java.append(methods);
+		java.append(classes);
+		java.append("}\n");
+		return java.toString();
+	}
+
+	// Statements, each returning whether it can complete normally
+
+	@Override
+	public Boolean visitBlockStmt(Stmt.Block stmt) {
+		line("{");
+		indent++;
+		boolean completes = statements(stmt.statements);
+		indent--;
+		line("}");
+		return completes;
+	}
+
+	@Override
+	public Boolean visitClassStmt(Stmt.Class stmt) {
+		String superclass = null;
+		if (stmt.superclass != null) {
+			superclass = "super_" + unique++;
+			line("Object " + superclass + " = LoxRuntime.superclass(" + stmt.superclass.accept(this) + ", " + site(stmt.superclass.name) + ");");
+		}
+
+		Local local = locals.get(stmt);
+		if (local != null) {
+			declare(local, "null");
+			line(store(local, classBuilder(stmt, superclass, null)) + ";");
+			return true;
+		}
+
+		// A class at the top level gets a Java class of its own.
+		String nested = identifier(stmt.name.lexeme) + "Class";
+		while (!classNames.add(nested)) nested = nested + unique++;
+		String global = global(stmt.name.lexeme);
+		line(global + ".define(null);");
+		if (superclass != null) line(nested + ".superclass = " + superclass + ";");
+		line(global + ".assign(" + site(stmt.name) + ", " + classBuilder(stmt, superclass, nested) + ");");
+		return true;
+	}
+
+	private String classBuilder(Stmt.Class stmt, String superclass, String nested) {
+		/* The class's methods are lambdas, or static methods of the nested class if it has one. */
+		StringBuilder nestedClass = null;
+		if (nested != null) {
+			nestedClass = new StringBuilder();
+			nestedClass.append("\tstatic final class ").append(nested).append(" {\n\n");
+			if (superclass != null) nestedClass.append("\t\tstatic Object superclass;\n\n");
+		}
+
+		StringBuilder builder = new StringBuilder("LoxRuntime.klass(" + literal(stmt.name.lexeme) + ", " + (superclass == null ? "null" : superclass) + ")");
+		List<Stmt.Function> all = new ArrayList<>(stmt.methods);
+		if (stmt.metaclass != null) all.addAll(stmt.metaclass.methods);
+		for (int i = 0; i < all.size(); i++) {
+			Stmt.Function method = all.get(i);
+			boolean isStatic = i >= stmt.methods.size();
+			boolean initializer = method.name.lexeme.equals("init");
+			String self = "self_" + unique++;
+			String args = "args_" + unique++;
+			String code;
+			if (nestedClass != null) {
+				String name = "m_" + identifier(method.name.lexeme) + "_" + unique++;
+				Body context = new Body(self, "superclass", initializer, 2);
+				nestedClass.append("\t\tstatic Object ").append(name).append("(Object ").append(self).append(", Object[] ").append(args).append(") ")
+					.append(block(context, parameters(method.params, args), method.body)).append("\n\n");
+				code = nested + "::" + name;
+			} else {
+				Body context = new Body(self, superclass, initializer, indent);
+				code = "(" + self + ", " + args + ") -> " + block(context, parameters(method.params, args), method.body);
+			}
+			builder.append('.').append(isStatic ? "staticMethod" : "method").append('(').append(literal(method.name.lexeme))
+				.append(", ").append(method.params.size()).append(", ").append(code).append(')');
+		}
+
+		if (nestedClass != null) {
+			classes.append(nestedClass).append("\t}\n\n");
+		}
+		return builder.append(".build()").toString();
+	}
+
+	@Override
+	public Boolean visitExpressionStmt(Stmt.Expression stmt) {
+		Expr expression = stmt.expression;
+		if (expression instanceof Expr.Assign && locals.containsKey(expression)) {
+			Expr.Assign assign = (Expr.Assign)expression;
+			line(store(locals.get(assign), assign.value.accept(this)) + ";");
+		} else if (expression instanceof Expr.Call || expression instanceof Expr.Set || expression instanceof Expr.Assign) {
+			// These are already method calls.
+			line(expression.accept(this) + ";");
+		} else {
+			line("LoxRuntime.discard(" + expression.accept(this) + ");");
+		}
+		return true;
+	}
+
+	@Override
+	public Boolean visitFunctionStmt(Stmt.Function stmt) {
+		Local local = locals.get(stmt);
+		if (local == null) {
+			staticMethod(stmt);
+			return true;
+		}
+
+		String function = function(stmt.name.lexeme, stmt.params, stmt.body);
+		if (local.captured) {
+			// It may call itself, so it's declared before it's made.
+			line("final Object[] " + local.name + " = {null};");
+			line(local.name + "[0] = " + function + ";");
+		} else {
+			line("Object " + local.name + " = " + function + ";");
+		}
+		return true;
+	}
+
+	private void staticMethod(Stmt.Function stmt) {
+		/* A function at the top level, as a static method taking its own value first (which a
+		 * direct call gets from its global, so as to fail the same way if it's not defined yet),
+		 * then its parameters. */
+		String name = staticMethods.get(stmt);
+		StringBuilder parameters = new StringBuilder("Object callee");
+		List<String> prologue = new ArrayList<>();
+		StringBuilder arguments = new StringBuilder("self");
+		for (int i = 0; i < stmt.params.size(); i++) {
+			Local local = locals.get(stmt.params.get(i));
+			if (local.captured) {
+				String parameter = "p_" + unique++;
+				parameters.append(", Object ").append(parameter);
+				prologue.add("final Object[] " + local.name + " = {" + parameter + "};");
+			} else {
+				parameters.append(", Object ").append(local.name);
+			}
+			arguments.append(", args[").append(i).append(']');
+		}
+		Body context = new Body(null, null, false, 1);
+		methods.append("\tstatic Object ").append(name).append('(').append(parameters).append(") ")
+			.append(block(context, prologue, stmt.body)).append("\n\n");
+
+		line(global(stmt.name.lexeme) + ".define(LoxRuntime.function(" + literal(stmt.name.lexeme) + ", " + stmt.params.size()
+			+ ", (self, args) -> " + name + "(" + arguments + ")));");
+	}
+
+	private String function(String name, List<Token> params, List<Stmt> statements) {
+		String self = "self_" + unique++;
+		String args = "args_" + unique++;
+		// A function inside a method sees the method's 'this'.
+		Body context = new Body(body.self, body.superclass, false, indent);
+		return "LoxRuntime.function(" + literal(name) + ", " + params.size() + ", (" + self + ", " + args + ") -> "
+			+ block(context, parameters(params, args), statements) + ")";
+	}
+
+	private List<String> parameters(List<Token> params, String args) {
+		List<String> prologue = new ArrayList<>();
+		for (int i = 0; i < params.size(); i++) {
+			prologue.add(declaration(locals.get(params.get(i)), args + "[" + i + "]"));
+		}
+		return prologue;
+	}
+
+	private String block(Body context, List<String> prologue, List<Stmt> statements) {
+		/* The Java block for the body of a function, indented to the context's depth. */
+		StringBuilder savedOut = out;
+		int savedIndent = indent;
+		Body savedBody = body;
+		out = new StringBuilder();
+		indent = context.depth + 1;
+		body = context;
+
+		for (String line : prologue) line(line);
+		if (statements(statements)) {
+			line("return " + (context.initializer ? context.self : "null") + ";");
+		}
+		String code = "{\n" + context.temporaries + out + tabs(context.depth) + "}";
+
+		out = savedOut;
+		indent = savedIndent;
+		body = savedBody;
+		return code;
+	}
+
+	@Override
+	public Boolean visitIfStmt(Stmt.If stmt) {
+		line("if (" + condition(stmt.condition) + ") {");
+		boolean completes = branch(stmt.thenBranch);
+		if (stmt.elseBranch == null) {
+			line("}");
+			return true;
+		}
+		line("} else {");
+		completes |= branch(stmt.elseBranch);
+		line("}");
+		return completes;
+	}
+
+	@Override
+	public Boolean visitPrintStmt(Stmt.Print stmt) {
+		line("LoxRuntime.print(" + stmt.expression.accept(this) + ");");
+		return true;
+	}
+
+	@Override
+	public Boolean visitReturnStmt(Stmt.Return stmt) {
+		if (body.initializer) {
+			line("return " + body.self + ";");
+		} else {
+			line("return " + (stmt.value == null ? "null" : stmt.value.accept(this)) + ";");
+		}
+		return false;
+	}
+
+	@Override
+	public Boolean visitVarStmt(Stmt.Var stmt) {
+		String value = stmt.initializer == null ? "null" : stmt.initializer.accept(this);
+		Local local = locals.get(stmt);
+		if (local == null) {
+			line(global(stmt.name.lexeme) + ".define(" + value + ");");
+		} else {
+			declare(local, value);
+		}
+		return true;
+	}
+
+	@Override
+	public Boolean visitWhileStmt(Stmt.While stmt) {
+		line("while (" + condition(stmt.condition) + ") {");
+		branch(stmt.body);
+		line("}");
+		return true;
+	}
+
+	@Override
+	public Boolean visitBreakStmt(Stmt.Break stmt) {
+		line("break;");
+		return false;
+	}
+
+	@Override
+	public Boolean visitImportStmt(Stmt.Import stmt) {
+		// Unreachable: Scopes reports every import as an error
+		return true;
+	}
+
+	private boolean statements(List<Stmt> statements) {
+		/* Stops at the first statement which can't complete, as the rest can never run. */
+		for (Stmt statement : statements) {
+			if (!statement.accept(this)) return false;
+		}
+		return true;
+	}
+
+	private boolean branch(Stmt statement) {
+		/* The body of an if or while, always in braces, so a declaration is never on its own. */
+		indent++;
+		boolean completes;
+		if (statement instanceof Stmt.Block) {
+			completes = statements(((Stmt.Block)statement).statements);
+		} else {
+			completes = statement.accept(this);
+		}
+		indent--;
+		return completes;
+	}
+
+	private void declare(Local local, String value) {
+		line(declaration(local, value));
+	}
+
+	private static String declaration(Local local, String value) {
+		if (local.captured) return "final Object[] " + local.name + " = {" + value + "};";
+		return "Object " + local.name + " = " + value + ";";
+	}
+
+	private static String load(Local local) {
+		return local.captured ? local.name + "[0]" : local.name;
+	}
+
+	private static String store(Local local, String value) {
+		return load(local) + " = " + value;
+	}
+
+	// Expressions, each as a Java expression of type Object
+
+	@Override
+	public String visitTernaryExpr(Expr.Ternary expr) {
+		return "(" + condition(expr.cond) + " ? " + expr.left.accept(this) + " : " + expr.right.accept(this) + ")";
+	}
+
+	@Override
+	public String visitAssignExpr(Expr.Assign expr) {
+		Local local = locals.get(expr);
+		if (local != null) return "(" + store(local, expr.value.accept(this)) + ")";
+		return global(expr.name.lexeme) + ".assign(" + site(expr.name) + ", " + expr.value.accept(this) + ")";
+	}
+
+	@Override
+	public String visitBinaryExpr(Expr.Binary expr) {
+		String left = expr.left.accept(this);
+		String right = expr.right.accept(this);
+		String site = site(expr.operator);
+		switch (expr.operator.type) {
+		case PLUS:
+			return "LoxRuntime.add(" + left + ", " + right + ", " + site + ")";
+		case MINUS:
+			return "LoxRuntime.subtract(" + left + ", " + right + ", " + site + ")";
+		case STAR:
+			return "LoxRuntime.multiply(" + left + ", " + right + ", " + site + ")";
+		case SLASH:
+			return "LoxRuntime.divide(" + left + ", " + right + ", " + site + ")";
+		case LESS:
+		case LESS_EQUAL:
+		case GREATER:
+		case GREATER_EQUAL:
+		case EQUAL_EQUAL:
+		case BANG_EQUAL:
+			return "Boolean.valueOf(" + comparison(expr, left, right) + ")";
+		default:
+			return "LoxRuntime.binary(" + left + ", " + right + ", " + site + ")";
+		}
+	}
+
+	private String comparison(Expr.Binary expr, String left, String right) {
+		String site = site(expr.operator);
+		switch (expr.operator.type) {
+		case LESS:
+			return "LoxRuntime.less(" + left + ", " + right + ", " + site + ")";
+		case LESS_EQUAL:
+			return "LoxRuntime.lessEqual(" + left + ", " + right + ", " + site + ")";
+		case GREATER:
+			return "LoxRuntime.greater(" + left + ", " + right + ", " + site + ")";
+		case GREATER_EQUAL:
+			return "LoxRuntime.greaterEqual(" + left + ", " + right + ", " + site + ")";
+		case EQUAL_EQUAL:
+			return "LoxRuntime.equal(" + left + ", " + right + ")";
+		default:
+			return "!LoxRuntime.equal(" + left + ", " + right + ")";
+		}
+	}
+
+	private String condition(Expr expr) {
+		/* A Java boolean for whether the expression is truthy, without boxing where it can. */
+		if (expr instanceof Expr.Grouping) {
+			return condition(((Expr.Grouping)expr).expression);
+		}
+		if (expr instanceof Expr.Binary) {
+			Expr.Binary binary = (Expr.Binary)expr;
+			switch (binary.operator.type) {
+			case LESS:
+			case LESS_EQUAL:
+			case GREATER:
+			case GREATER_EQUAL:
+			case EQUAL_EQUAL:
+			case BANG_EQUAL:
+				return comparison(binary, binary.left.accept(this), binary.right.accept(this));
+			default:
+				break;
+			}
+		}
+		if (expr instanceof Expr.Unary && ((Expr.Unary)expr).operator.type == TokenType.BANG) {
+			return "!(" + condition(((Expr.Unary)expr).right) + ")";
+		}
+		if (expr instanceof Expr.Logical) {
+			Expr.Logical logical = (Expr.Logical)expr;
+			String operator = logical.operator.type == TokenType.OR ? " || " : " && ";
+			return "(" + condition(logical.left) + operator + condition(logical.right) + ")";
+		}
+		return "LoxRuntime.isTruthy(" + expr.accept(this) + ")";
+	}
+
+	@Override
+	public String visitBinaryErrorExpr(Expr.BinaryError expr) {
+		return "LoxRuntime.fail(" + site(expr.operator) + ", " + literal("'" + expr.operator.lexeme + "' requires two operands.") + ")";
+	}
+
+	@Override
+	public String visitCallExpr(Expr.Call expr) {
+		StringBuilder arguments = new StringBuilder();
+		for (Expr argument : expr.arguments) {
+			arguments.append(", ").append(argument.accept(this));
+		}
+
+		if (expr.callee instanceof Expr.Variable && !locals.containsKey(expr.callee)) {
+			Token name = ((Expr.Variable)expr.callee).name;
+			Stmt.Function function = functions.get(name.lexeme);
+			if (function != null && declarations.get(name.lexeme) == 1 && !assigned.contains(name.lexeme)
+					&& function.params.size() == expr.arguments.size()) {
+				return staticMethods.get(function) + "(" + global(name.lexeme) + ".get(" + site(name) + ")" + arguments + ")";
+			}
+		}
+		return "LoxRuntime.call(" + expr.callee.accept(this) + ", " + site(expr.paren) + arguments + ")";
+	}
+
+	@Override
+	public String visitGetExpr(Expr.Get expr) {
+		return "LoxRuntime.get(" + expr.object.accept(this) + ", " + site(expr.name) + ")";
+	}
+
+	@Override
+	public String visitGroupingExpr(Expr.Grouping expr) {
+		return expr.expression.accept(this);
+	}
+
+	@Override
+	public String visitLiteralExpr(Expr.Literal expr) {
+		Object value = expr.value;
+		if (value == null) return "null";
+		if (value instanceof Boolean) return (Boolean)value ? "Boolean.TRUE" : "Boolean.FALSE";
+		if (value instanceof Double) return number((Double)value);
+		return literal((String)value);
+	}
+
+	@Override
+	public String visitLogicalExpr(Expr.Logical expr) {
+		String left = temporary();
+		String test = "LoxRuntime.isTruthy(" + left + " = " + expr.left.accept(this) + ")";
+		if (expr.operator.type == TokenType.OR) {
+			return "(" + test + " ? " + left + " : " + expr.right.accept(this) + ")";
+		}
+		return "(" + test + " ? " + expr.right.accept(this) + " : " + left + ")";
+	}
+
+	@Override
+	public String visitSetExpr(Expr.Set expr) {
+		String site = site(expr.name);
+		return "LoxRuntime.set(LoxRuntime.fields(" + expr.object.accept(this) + ", " + site + "), " + site + ", " + expr.value.accept(this) + ")";
+	}
+
+	@Override
+	public String visitSuperExpr(Expr.Super expr) {
+		return "LoxRuntime.superMethod(" + body.superclass + ", " + body.self + ", " + site(expr.method) + ")";
+	}
+
+	@Override
+	public String visitThisExpr(Expr.This expr) {
+		return body.self;
+	}
+
+	@Override
+	public String visitUnaryExpr(Expr.Unary expr) {
+		if (expr.operator.type == TokenType.BANG) {
+			return "Boolean.valueOf(!LoxRuntime.isTruthy(" + expr.right.accept(this) + "))";
+		}
+		return "LoxRuntime.negate(" + expr.right.accept(this) + ", " + site(expr.operator) + ")";
+	}
+
+	@Override
+	public String visitVariableExpr(Expr.Variable expr) {
+		Local local = locals.get(expr);
+		if (local != null) return load(local);
+		return global(expr.name.lexeme) + ".get(" + site(expr.name) + ")";
+	}
+
+	@Override
+	public String visitLambdaExpr(Expr.Lambda expr) {
+		String self = "self_" + unique++;
+		String args = "args_" + unique++;
+		Body context = new Body(body.self, body.superclass, false, indent);
+		return "LoxRuntime.lambda(" + literal("<lambda " + expr.params.toString() + ">") + ", " + expr.params.size()
+			+ ", (" + self + ", " + args + ") -> " + block(context, parameters(expr.params, args), expr.body) + ")";
+	}
+
+	// Fused nodes are only made after resolving, for the interpreter, but are simply unfused.
+
+	@Override
+	public String visitIncrementExpr(Expr.Increment expr) {
+		return expr.original.accept(this);
+	}
+
+	@Override
+	public String visitCompareExpr(Expr.Compare expr) {
+		return expr.original.accept(this);
+	}
+
+	@Override
+	public String visitSetThisExpr(Expr.SetThis expr) {
+		return expr.original.accept(this);
+	}
+
+	@Override
+	public String visitGetFieldExpr(Expr.GetField expr) {
+		return expr.original.accept(this);
+	}
+
+	// Names and constants, as static fields of the class
+
+	private String global(String name) {
+		String field = globals.get(name);
+		if (field == null) {
+			field = "g_" + identifier(name);
+			globals.put(name, field);
+			fields.append("\tprivate static final LoxRuntime.Global ").append(field)
+				.append(" = LoxRuntime.global(").append(literal(name)).append(");\n");
+		}
+		return field;
+	}
+
+	private String site(Token token) {
+		String key = token.type + " " + token.line + " " + token.lexeme;
+		String field = sites.get(key);
+		if (field == null) {
+			field = "s" + sites.size();
+			sites.put(key, field);
+			fields.append("\tprivate static final LoxRuntime.Site ").append(field).append(" = LoxRuntime.site(")
+				.append(literal(token.lexeme)).append(", ").append(token.line).append(");\n");
+		}
+		return field;
+	}
+
+	private String number(Double value) {
+		String field = numbers.get(value);
+		if (field == null) {
+			field = "n" + numbers.size();
+			numbers.put(value, field);
+			fields.append("\tprivate static final Double ").append(field).append(" = ").append(value).append(";\n");
+		}
+		return field;
+	}
+
+	private String temporary() {
+		String name = "t_" + unique++;
+		body.temporaries.append(tabs(body.depth + 1)).append("Object ").append(name).append(";\n");
+		return name;
+	}
+
+	private void line(String text) {
+		out.append(tabs(indent)).append(text).append('\n');
+	}
+
+	private static String tabs(int count) {
+		return "\t".repeat(count);
+	}
+
+	static String identifier(String name) {
+		StringBuilder identifier = new StringBuilder();
+		for (int i = 0; i < name.length(); i++) {
+			char c = name.charAt(i);
+			identifier.append(Character.isJavaIdentifierPart(c) && c < 128 ? c : '_');
+		}
+		if (identifier.length() == 0 || !Character.isJavaIdentifierStart(identifier.charAt(0))) identifier.insert(0, '_');
+		return identifier.toString();
+	}
+
+	private static String literal(String text) {
+		StringBuilder literal = new StringBuilder("\"");
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			switch (c) {
+			case '\\': literal.append("\\\\"); break;
+			case '"': literal.append("\\\""); break;
+			case '\n': literal.append("\\n"); break;
+			case '\r': literal.append("\\r"); break;
+			case '\t': literal.append("\\t"); break;
+			default:
+				if (c < 32 || c > 126) {
+					literal.append(String.format("\\u%04x", (int)c));
+				} else {
+					literal.append(c);
+				}
+			}
+		}
+		return literal.append('"').toString();
+	}
+
+	private final class Scopes implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+
+		/* Matches each name to a Local, or leaves it global, the same way the Resolver does. */
+
+		private final Deque<Map<String, Local>> scopes = new ArrayDeque<>();
+		private int function = 0;
+
+		void resolve(List<Stmt> statements) {
+			for (Stmt statement : statements) statement.accept(this);
+		}
+
+		private void declare(Object node, Token name) {
+			if (scopes.isEmpty()) {
+				declarations.merge(name.lexeme, 1, Integer::sum);
+				return;
+			}
+			Local local = new Local(identifier(name.lexeme) + "_" + unique++, function);
+			scopes.peek().put(name.lexeme, local);
+			locals.put(node, local);
+		}
+
+		private void reference(Expr node, Token name, boolean assignment) {
+			for (Map<String, Local> scope : scopes) {
+				Local local = scope.get(name.lexeme);
+				if (local != null) {
+					if (local.function < function) local.captured = true;
+					locals.put(node, local);
+					return;
+				}
+			}
+			if (assignment) assigned.add(name.lexeme);
+		}
+
+		private void function(List<Token> params, List<Stmt> body) {
+			function++;
+			scopes.push(new HashMap<>());
+			for (Token param : params) declare(param, param);
+			resolve(body);
+			scopes.pop();
+			function--;
+		}
+
+		@Override
+		public Void visitBlockStmt(Stmt.Block stmt) {
+			scopes.push(new HashMap<>());
+			resolve(stmt.statements);
+			scopes.pop();
+			return null;
+		}
+
+		@Override
+		public Void visitClassStmt(Stmt.Class stmt) {
+			declare(stmt, stmt.name);
+			if (stmt.superclass != null) stmt.superclass.accept(this);
+			for (Stmt.Function method : stmt.methods) function(method.params, method.body);
+			if (stmt.metaclass != null) {
+				for (Stmt.Function method : stmt.metaclass.methods) function(method.params, method.body);
+			}
+			return null;
+		}
+
+		@Override
+		public Void visitExpressionStmt(Stmt.Expression stmt) {
+			stmt.expression.accept(this);
+			return null;
+		}
+
+		@Override
+		public Void visitFunctionStmt(Stmt.Function stmt) {
+			if (scopes.isEmpty()) {
+				functions.put(stmt.name.lexeme, stmt);
+				staticMethods.put(stmt, "fn_" + identifier(stmt.name.lexeme) + "_" + unique++);
+			}
+			declare(stmt, stmt.name);
+			function(stmt.params, stmt.body);
+			return null;
+		}
+
+		@Override
+		public Void visitIfStmt(Stmt.If stmt) {
+			stmt.condition.accept(this);
+			stmt.thenBranch.accept(this);
+			if (stmt.elseBranch != null) stmt.elseBranch.accept(this);
+			return null;
+		}
+
+		@Override
+		public Void visitPrintStmt(Stmt.Print stmt) {
+			stmt.expression.accept(this);
+			return null;
+		}
+
+		@Override
+		public Void visitReturnStmt(Stmt.Return stmt) {
+			if (stmt.value != null) stmt.value.accept(this);
+			return null;
+		}
+
+		@Override
+		public Void visitVarStmt(Stmt.Var stmt) {
+			if (stmt.initializer != null) stmt.initializer.accept(this);
+			declare(stmt, stmt.name);
+			return null;
+		}
+
+		@Override
+		public Void visitWhileStmt(Stmt.While stmt) {
+			stmt.condition.accept(this);
+			stmt.body.accept(this);
+			return null;
+		}
+
+		@Override
+		public Void visitBreakStmt(Stmt.Break stmt) {
+			return null;
+		}
+
+		@Override
+		public Void visitImportStmt(Stmt.Import stmt) {
+			reporter.error(stmt.keyword, "Can't import a module into a compiled program; run it with jlox.");
+			return null;
+		}
+
+		@Override
+		public Void visitTernaryExpr(Expr.Ternary expr) {
+			expr.cond.accept(this);
+			expr.left.accept(this);
+			expr.right.accept(this);
+			return null;
+		}
+
+		@Override
+		public Void visitAssignExpr(Expr.Assign expr) {
+			expr.value.accept(this);
+			reference(expr, expr.name, true);
+			return null;
+		}
+
+		@Override
+		public Void visitBinaryExpr(Expr.Binary expr) {
+			expr.left.accept(this);
+			expr.right.accept(this);
+			return null;
+		}
+
+		@Override
+		public Void visitBinaryErrorExpr(Expr.BinaryError expr) {
+			return null;
+		}
+
+		@Override
+		public Void visitCallExpr(Expr.Call expr) {
+			expr.callee.accept(this);
+			for (Expr argument : expr.arguments) argument.accept(this);
+			return null;
+		}
+
+		@Override
+		public Void visitGetExpr(Expr.Get expr) {
+			expr.object.accept(this);
+			return null;
+		}
+
+		@Override
+		public Void visitGroupingExpr(Expr.Grouping expr) {
+			expr.expression.accept(this);
+			return null;
+		}
+
+		@Override
+		public Void visitLiteralExpr(Expr.Literal expr) {
+			return null;
+		}
+
+		@Override
+		public Void visitLogicalExpr(Expr.Logical expr) {
+			expr.left.accept(this);
+			expr.right.accept(this);
+			return null;
+		}
+
+		@Override
+		public Void visitSetExpr(Expr.Set expr) {
+			expr.object.accept(this);
+			expr.value.accept(this);
+			return null;
+		}
+
+		@Override
+		public Void visitSuperExpr(Expr.Super expr) {
+			return null;
+		}
+
+		@Override
+		public Void visitThisExpr(Expr.This expr) {
+			return null;
+		}
+
+		@Override
+		public Void visitUnaryExpr(Expr.Unary expr) {
+			expr.right.accept(this);
+			return null;
+		}
+
+		@Override
+		public Void visitVariableExpr(Expr.Variable expr) {
+			reference(expr, expr.name, false);
+			return null;
+		}
+
+		@Override
+		public Void visitLambdaExpr(Expr.Lambda expr) {
+			function(expr.params, expr.body);
+			return null;
+		}
+
+		@Override
+		public Void visitIncrementExpr(Expr.Increment expr) {
+			return expr.original.accept(this);
+		}
+
+		@Override
+		public Void visitCompareExpr(Expr.Compare expr) {
+			return expr.original.accept(this);
+		}
+
+		@Override
+		public Void visitSetThisExpr(Expr.SetThis expr) {
+			return expr.original.accept(this);
+		}
+
+		@Override
+		public Void visitGetFieldExpr(Expr.GetField expr) {
+			return expr.original.accept(this);
+		}
+	}
+}
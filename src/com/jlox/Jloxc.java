@@ -0,0 +1,218 @@
+package com.jlox;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+import com.jlox.runtime.LoxRuntime;
+
+class Jloxc {
+
+	/* jloxc, the ahead-of-time compiler (--compile). Scans, parses and resolves a script, then
+	 * translates it to Java with a JavaGenerator, so that running it does no front-end work at
+	 * all and HotSpot sees ordinary Java code.
+	 *
+	 * Given a directory, it writes the Java source there. Given a jar, it compiles the source
+	 * with the platform's Java compiler and packages the classes, with a Main-Class, together
+	 * with the runtime: those classes of the runtime package, which LoxRuntime is the front of,
+	 * that the program can reach, found by following the class references in each class file
+	 * from the program's. The runtime uses nothing else of jlox, so the jar runs with java -jar
+	 * and needs nothing else. The class is named after the script. A script which imports a
+	 * module can't be compiled (see JavaGenerator).
+	 * */
+
+	private static final String RUNTIME = "com/jlox/runtime/";
+	private static final Pattern INTERNAL_NAME = Pattern.compile("com/jlox/runtime/[\\w$]+");
+
+	private Jloxc() {}
+
+	static int compile(String script, String output) throws IOException {
+		/* Returns the exit code: 65 if the script has errors, 70 if the Java doesn't compile. */
+		ErrorReporter reporter = new ErrorReporter(new PrintWriter(System.err, true));
+		Path path = Paths.get(script);
+		CharSequence source = MappedSource.open(path);
+		Parser parser;
+		if (source.length() >= Scanner.PARALLEL_THRESHOLD) {
+			parser = new Parser(Scanner.scanParallel(source, reporter), false, reporter);
+		} else {
+			parser = new Parser(new Scanner(source, reporter), reporter);
+		}
+		List<Stmt> statements = parser.parse();
+		if (!reporter.hadError) new Resolver(new Interpreter(reporter)).resolve(statements);
+		if (reporter.hadError) return 65;
+
+		String name = className(path);
+		String java = new JavaGenerator(name, reporter).generate(statements, path.getFileName().toString());
+		if (java == null) return 65;
+
+		Path target = Paths.get(output);
+		if (!output.endsWith(".jar")) {
+			Files.createDirectories(target);
+			Files.writeString(target.resolve(name + ".java"), java);
+			return 0;
+		}
+
+		JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+		if (javac == null) {
+			System.err.println("No Java compiler: jloxc needs to run on a JDK to write a jar.");
+			return 70;
+		}
+		Path runtime = runtime();
+		Path work = Files.createTempDirectory("jloxc");
+		try {
+			Path file = work.resolve(name + ".java");
+			Files.writeString(file, java);
+			Path classes = Files.createDirectory(work.resolve("classes"));
+			int status = javac.run(null, null, null, "-nowarn", "-encoding", "UTF-8",
+					"-cp", runtime.toString(), "-d", classes.toString(), file.toString());
+			if (status != 0) return 70;
+			jar(target, name, classes, runtime);
+		} finally {
+			try (Stream<Path> files = Files.walk(work)) {
+				for (Path file : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) {
+					Files.delete(file);
+				}
+			}
+		}
+		return 0;
+	}
+
+	static String className(Path script) {
+		String file = script.getFileName().toString();
+		if (file.endsWith(".lox")) file = file.substring(0, file.length() - 4);
+		String name = JavaGenerator.identifier(file);
+		name = Character.toUpperCase(name.charAt(0)) + name.substring(1);
+		// It mustn't hide the class it runs on.
+		return name.equals("LoxRuntime") ? name + "Program" : name;
+	}
+
+	private static Path runtime() throws IOException {
+		/* The directory or jar the runtime's classes were loaded from. */
+		try {
+			return Paths.get(LoxRuntime.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+		} catch (URISyntaxException e) {
+			throw new IOException(e);
+		}
+	}
+
+	private static void jar(Path target, String name, Path classes, Path runtime) throws IOException {
+		Manifest manifest = new Manifest();
+		manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+		manifest.getMainAttributes().put(Attributes.Name.MAIN_CLASS, name);
+
+		Map<String, byte[]> available = runtimeClasses(runtime);
+		Deque<byte[]> pending = new ArrayDeque<>();
+		Set<String> included = new HashSet<>();
+
+		try (JarOutputStream jar = new JarOutputStream(Files.newOutputStream(target), manifest)) {
+			try (Stream<Path> files = Files.walk(classes)) {
+				for (Path file : files.filter(Files::isRegularFile).collect(Collectors.toList())) {
+					byte[] bytes = Files.readAllBytes(file);
+					add(jar, classes.relativize(file).toString().replace('\\', '/'), bytes);
+					pending.add(bytes);
+				}
+			}
+
+			while (!pending.isEmpty()) {
+				for (String reference : references(pending.poll())) {
+					byte[] bytes = available.get(reference);
+					if (bytes == null || !included.add(reference)) continue;
+					add(jar, reference + ".class", bytes);
+					pending.add(bytes);
+				}
+			}
+		}
+	}
+
+	private static Map<String, byte[]> runtimeClasses(Path runtime) throws IOException {
+		/* The classes of the runtime package, by internal name, such as com/jlox/runtime/LoxClass. */
+		Map<String, byte[]> classes = new HashMap<>();
+		if (Files.isDirectory(runtime)) {
+			Path jlox = runtime.resolve(RUNTIME);
+			try (Stream<Path> files = Files.list(jlox)) {
+				for (Path file : files.filter(f -> f.toString().endsWith(".class")).collect(Collectors.toList())) {
+					String name = file.getFileName().toString();
+					classes.put(RUNTIME + name.substring(0, name.length() - 6), Files.readAllBytes(file));
+				}
+			}
+		} else {
+			try (JarFile from = new JarFile(runtime.toFile())) {
+				Enumeration<JarEntry> entries = from.entries();
+				while (entries.hasMoreElements()) {
+					JarEntry entry = entries.nextElement();
+					String entryName = entry.getName();
+					if (entryName.startsWith(RUNTIME) && entryName.endsWith(".class") && entryName.indexOf('/', RUNTIME.length()) < 0) {
+						classes.put(entryName.substring(0, entryName.length() - 6), from.getInputStream(entry).readAllBytes());
+					}
+				}
+			}
+		}
+		return classes;
+	}
+
+	private static Set<String> references(byte[] classFile) throws IOException {
+		/* The runtime's classes a class file names in its constant pool, which holds every
+		 * class it refers to, as a class or in a field or method descriptor. */
+		Set<String> references = new HashSet<>();
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(classFile));
+		in.skipBytes(8);
+		int count = in.readUnsignedShort();
+		for (int i = 1; i < count; i++) {
+			int tag = in.readUnsignedByte();
+			switch (tag) {
+			case 1: // Utf8
+				Matcher matcher = INTERNAL_NAME.matcher(in.readUTF());
+				while (matcher.find()) references.add(matcher.group());
+				break;
+			case 5: case 6: // Long and Double take two entries
+				in.skipBytes(8);
+				i++;
+				break;
+			case 3: case 4: case 9: case 10: case 11: case 12: case 17: case 18:
+				in.skipBytes(4);
+				break;
+			case 15:
+				in.skipBytes(3);
+				break;
+			case 7: case 8: case 16: case 19: case 20:
+				in.skipBytes(2);
+				break;
+			default:
+				throw new IOException("Unknown constant pool tag: " + tag);
+			}
+		}
+		return references;
+	}
+
+	private static void add(JarOutputStream jar, String name, byte[] bytes) throws IOException {
+		jar.putNextEntry(new JarEntry(name));
+		jar.write(bytes);
+		jar.closeEntry();
+	}
+}
@@ -0,0 +1,75 @@
+package com.jlox;
+
+import java.util.AbstractList;
+import java.util.List;
+
+final class LazyBody extends AbstractList<Stmt> {
+
+	/* The body of a function which hasn't been parsed yet (see --lazy).
+	 *
+	 * When parsing lazily, the Parser only matches the braces of a function body, building
+	 * nothing, and records where in the token buffer it starts. The Resolver declares the
+	 * parameters as usual, but then leaves behind a copy of itself rather than resolving the
+	 * body. The first time the body is looked at (normally when the function is first called) it
+	 * is parsed, resolved with that copy and fused, and from then on it is just a list of
+	 * statements.
+	 *
+	 * So --lazy doesn't reject every program that parsing everything up front would. A body's
+	 * syntax and resolution errors are only found on that first call, once the program is
+	 * already running: they're reported as the message of a runtime error, which stops it with
+	 * exit code 70, and a body that's never called is never checked. Only a body without its
+	 * closing brace is a syntax error up front, as nothing after it could be parsed.
+	 * */
+
+	private final TokenBuffer tokens;
+	private final int from;
+	private final boolean insideLoop;
+	private final Token name;
+	private final ErrorReporter reporter;
+	private Resolver resolver = null;
+	private Interpreter interpreter = null;
+	private List<Stmt> body = null;
+
+	LazyBody(TokenBuffer tokens, int from, boolean insideLoop, Token name, ErrorReporter reporter){
+		this.tokens = tokens;
+		this.from = from;
+		this.insideLoop = insideLoop;
+		this.name = name;
+		this.reporter = reporter;
+	}
+
+	void defer(Resolver resolver, Interpreter interpreter) {
+		this.resolver = resolver;
+		this.interpreter = interpreter;
+	}
+
+	private List<Stmt> body() {
+		if (body == null) {
+			// Not the program's reporter, whose errors would mean it never should have run
+			ErrorReporter errors = reporter.deferred();
+			List<Stmt> statements = new Parser(tokens, from, errors).parseBody(insideLoop);
+			if (!errors.hadError && resolver != null) {
+				resolver.reportingTo(errors).resolve(statements);
+				statements = new Fuser(interpreter).fuse(statements);
+			}
+			if (errors.hadError) {
+				throw new RuntimeError(name, "Errors in the body of '" + name.lexeme + "':\n" + errors.report().trim());
+			}
+			// Nothing is needed to parse the body again, so let it all go.
+			resolver = null;
+			interpreter = null;
+			body = statements;
+		}
+		return body;
+	}
+
+	@Override
+	public Stmt get(int index) {
+		return body().get(index);
+	}
+
+	@Override
+	public int size() {
+		return body().size();
+	}
+}
@@ -4,60 +4,262 @@ package com.jlox;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.nio.charset.Charset;
-import java.nio.file.Files;
+import java.io.PrintWriter;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.Arrays;
 import java.util.List;
 
 public class Lox {
 	
-	private static final Interpreter interpreter = new Interpreter();
-	
-	static boolean hadError = false;
-	static boolean hadRuntimeError = false;
+	// Where errors go when running a script or the prompt, created before the interpreter uses it
+	static final ErrorReporter reporter = new ErrorReporter(new PrintWriter(System.err, true));
+	private static final Interpreter interpreter = new Interpreter(reporter);
+
+	// Set by --pipeline, to lex, parse and resolve concurrently
+	private static boolean pipeline = false;
+	// Set by --lazy, to parse function bodies on their first call
+	private static boolean lazy = false;
+	// Set by --cache, to reuse the resolved tree from an earlier run of the same script
+	private static boolean cache = false;
+	// Set by --flat, to run the program from a FlatAst instead of the tree of nodes
+	private static boolean flat = false;
+	// Set by --share, to keep one instance of each repeated subtree
+	private static boolean share = false;
+	// Set by --shake, to drop the functions, classes and methods the program can't reach
+	private static boolean shake = false;
+	// Set by --verbose, to say on stderr how much --share and --shake saved
+	private static boolean verbose = false;
+	// Set by --snapshot, the image to write a script's definitions to instead of running it all
+	private static Path snapshot = null;
+	// Set by --from-snapshot, an image to start from
+	private static Path fromSnapshot = null;
 
 	public static void main(String[] args) throws IOException{
 		
-		if (args.length > 1) {
-			System.out.println("Usage: jlox [script]");
-			System.exit(64);
-		} else if (args.length == 1) {
-			runFile(args[0]);
+		int first = 0;
+		while (first < args.length && args[first].startsWith("--")) {
+			switch (args[first]) {
+			case "--pipeline":
+				pipeline = true;
+				break;
+			case "--lazy":
+				lazy = true;
+				break;
+			case "--cache":
+				cache = true;
+				break;
+			case "--flat":
+				flat = true;
+				break;
+			case "--share":
+				share = true;
+				break;
+			case "--shake":
+				shake = true;
+				break;
+			case "--verbose":
+				verbose = true;
+				break;
+			case "--snapshot":
+				if (++first == args.length) usage();
+				snapshot = Paths.get(args[first]);
+				break;
+			case "--from-snapshot":
+				if (++first == args.length) usage();
+				fromSnapshot = Paths.get(args[first]);
+				break;
+			case "--daemon":
+				// The socket to listen on, then optionally a prelude for every script
+				if (first + 2 != args.length && first + 3 != args.length) usage();
+				Daemon.serve(Paths.get(args[first + 1]), first + 3 == args.length ? Paths.get(args[first + 2]) : null);
+				return;
+			case "--compile":
+				// The script, then a directory for the Java source or a jar to write
+				if (first + 3 != args.length) usage();
+				System.exit(Jloxc.compile(args[first + 1], args[first + 2]));
+				return;
+			case "--check":
+				// Everything after this is a file or directory to check
+				if (first + 1 == args.length) usage();
+				System.exit(Checker.check(Arrays.copyOfRange(args, first + 1, args.length)));
+				return;
+			default:
+				usage();
+			}
+			first++;
+		}
+		// Every function body is converted up front, so there's nothing to parse lazily.
+		if (flat) lazy = false;
+		// Shaking has to see every function body.
+		if (shake) lazy = false;
+		// A snapshot is of the tree interpreter's objects, with every function body in it.
+		if (snapshot != null) {
+			flat = false;
+			lazy = false;
+		}
+		if (pipeline && lazy) {
+			System.err.println("--lazy has no effect with --pipeline, which parses every function body.");
+			lazy = false;
+		}
+		
+		if (args.length - first > 1) {
+			usage();
+		} else if (snapshot != null) {
+			if (fromSnapshot != null || args.length - first == 0) usage();
+			writeSnapshot(args[first]);
+		} else if (fromSnapshot != null) {
+			runSnapshot(args.length - first == 1 ? args[first] : null);
+		} else if (args.length - first == 1) {
+			runFile(args[first]);
 		} else {
 			runPrompt();
 		}
 		
 	}
 	
+	private static void usage() {
+		System.out.println("Usage: jlox [--pipeline] [--lazy] [--cache] [--flat] [--share] [--shake] [--verbose] [--from-snapshot <image>] [script]");
+		System.out.println("       jlox --snapshot <image> <script>");
+		System.out.println("       jlox --check <file or directory>...");
+		System.out.println("       jlox --daemon <socket> [prelude]");
+		System.out.println("       jlox --compile <script> <directory or jar>");
+		System.exit(64);
+	}
+	
 	private static void runFile(String path) throws IOException {
-		byte[] bytes = Files.readAllBytes(Paths.get(path));
-		run(new String(bytes, Charset.defaultCharset()));
+		CharSequence source = MappedSource.open(Paths.get(path));
+		// Lazy function bodies are parsed from the tokens, which aren't cached.
+		if (cache && !lazy) {
+			runCached(source, new AstCache(AstCache.defaultDirectory()));
+		} else {
+			run(source);
+		}
 		
 		// Indicate an error in the exit code
-		if (hadError) System.exit(65);
-		if (hadRuntimeError) System.exit(70);
+		if (reporter.hadError) System.exit(65);
+		if (reporter.hadRuntimeError) System.exit(70);
+	}
+
+	private static void writeSnapshot(String path) throws IOException {
+		/* Runs the definitions at the start of the script, and writes them to the image along
+		 * with the rest of the script, which isn't run (see Snapshot). */
+		List<Stmt> statements = shake(frontEnd(MappedSource.open(Paths.get(path))));
+		if (reporter.hadError) System.exit(65);
+		
+		int definitions = Snapshot.definitions(statements);
+		execute(statements.subList(0, definitions));
+		if (reporter.hadRuntimeError) System.exit(70);
+		Snapshot.write(snapshot, statements.subList(definitions, statements.size()), interpreter);
+	}
+	
+	private static void runSnapshot(String path) throws IOException {
+		/* Starts from the image's globals and runs the rest of the script it was made from,
+		 * then the given script, if any. */
+		execute(Snapshot.read(fromSnapshot, interpreter));
+		if (reporter.hadRuntimeError) System.exit(70);
+		if (path != null) runFile(path);
 	}
 
 	private static void runPrompt() throws IOException {
 		InputStreamReader input = new InputStreamReader(System.in);
 		BufferedReader reader = new BufferedReader(input);
+		// Keeps the resolver and the top-level declarations from one line to the next
+		ReplSession session = new ReplSession(interpreter);
+		// An entry goes on over several lines while its last statement is unfinished, until a blank line
+		IncrementalParser entry = null;
 		
 		for(;;) {
-			System.out.print("> ");
+			System.out.print(entry == null ? "> " : "... ");
 			String line = reader.readLine();
 			if (line == null) break;
-			run(line);
+			if (entry == null) {
+				entry = new IncrementalParser(line + "\n");
+			} else if (!line.isEmpty()) {
+				// Only the unfinished statement is parsed again
+				int end = entry.source().length();
+				entry.edit(end, end, line + "\n");
+			}
+			if (entry.unfinished() && !line.isEmpty()) continue;
+			session.run(entry);
+			entry = null;
 			
 			// Reset error flag if user makes a mistake
-			hadError = false;
+			reporter.reset();
 		}
 	}
 	
-	private static void run(String source) {
-		Scanner scanner = new Scanner(source);
-		List<Token> tokens = scanner.scanTokens(); 
+	private static void run(CharSequence source) {
+		// Nothing here keeps the statements, so --flat can let them go once they're converted
+		execute(shake(frontEnd(source)));
+	}
+	
+	private static void runCached(CharSequence source, AstCache cache) {
+		execute(shake(cached(source, cache)));
+	}
+	
+	private static List<Stmt> cached(CharSequence source, AstCache cache) {
+		/* Loads the resolved statements from the cache when the source hasn't changed,
+		 * otherwise runs the front end and caches what it produced. */
+		Path entry = cache.entry(source);
+		List<Stmt> statements = cache.load(entry, interpreter);
+		if (statements == null) {
+			statements = frontEnd(source);
+			if(reporter.hadError) return statements;
+			cache.store(entry, statements, interpreter);
+		}
+		// Shaken after it's stored, as what's reachable depends on the modules too
+		return statements;
+	}
+	
+	private static List<Stmt> shake(List<Stmt> statements) {
+		if (!shake || reporter.hadError) return statements;
+		TreeShaker shaker = new TreeShaker(interpreter);
+		statements = shaker.shake(statements);
+		if (verbose) System.err.println(shaker.report());
+		return statements;
+	}
+	
+	private static void execute(List<Stmt> statements) {
+		// stop if there are parse or resolver errors
+		if(reporter.hadError) return;
+		
+		if (flat) {
+			FlatAst ast = FlatAst.of(statements, interpreter);
+			// The tree is garbage from here on
+			statements = null;
+			new FlatInterpreter(interpreter).interpret(ast);
+			return;
+		}
+		statements = new Fuser(interpreter).fuse(statements);
+		if (share) {
+			HashConser sharing = new HashConser(interpreter);
+			statements = sharing.share(statements);
+			if (verbose) System.err.println(sharing.report());
+		}
+		interpreter.interpret(statements);
+	}
+	
+	private static List<Stmt> frontEnd(CharSequence source) {
+		/* Scans, parses and resolves the source. Callers check the reporter afterwards. */
+		if (pipeline) {
+			if (source.length() >= Scanner.PARALLEL_THRESHOLD) {
+				System.err.println("--pipeline lexes on a single thread, so this source isn't lexed in parallel.");
+			}
+			return new Pipeline(source, interpreter).run();
+		}
 		
-		Parser parser = new Parser(tokens);
+		// The parser pulls tokens from the scanner as it needs them, except for very large
+		// sources, which are lexed in parallel first.
+		Parser parser;
+		if (source.length() >= Scanner.PARALLEL_THRESHOLD) {
+			parser = new Parser(Scanner.scanParallel(source), lazy);
+		} else if (lazy) {
+			// Function bodies are parsed later, from the token buffer.
+			parser = new Parser(new Scanner(source).scanBuffer(), true);
+		} else {
+			parser = new Parser(new Scanner(source));
+		}
 		List<Stmt> statements = parser.parse();
 		
 		/* AST Printer instance for debugging.
@@ -67,14 +269,11 @@ public class Lox {
 		}
 		*/
 		
-		if(hadError) return;
+		if(reporter.hadError) return statements;
 		
 		Resolver resolver = new Resolver(interpreter);
 		resolver.resolve(statements);
-		
-		// stop if there are resolver errors		
-		if(hadError) return;
-		interpreter.interpret(statements);
+		return statements;
 	}
 	
 	private static void printTokens(List<Token> list) {		
@@ -83,31 +282,6 @@ public class Lox {
 		}
 	}
 	
-	static void error(int line, String message) {
-		report(line, "", message);
-	}
-	
-	static void runtimeError(RuntimeError error) {
-		System.err.println(error.getMessage() + "\n[line " + error.token.line + "]");
-		hadRuntimeError = true;
-	}
-	
-	private static void report(int line, String where, String message) {
-		System.err.println("[line " + line + "] Error " + where + " : " + message);
-		hadError = true;
-	}
-	
-	static void error(Token token, String message) {
-		if (token == null) {
-			report(token.line, " at '" + token.lexeme + "'", message);
-		}
-		if(token.type == TokenType.EOF) {
-			report(token.line, " at end", message);
-		} else {
-			report(token.line, " at '" + token.lexeme + "'", message);
-		}
-	}
-	
 	private static void demoScanner(String source) {
 		Scanner scanner = new Scanner(source);
 		List<Token> tokens = scanner.scanTokens(); 
@@ -9,22 +9,22 @@ public class LoxClass extends LoxInstance implements LoxCallable{
 	/*Members from LoxInstance*/
 	public LoxClass klass;//Field which stores the class's metaclass
 	final LoxClass superclass;
-	private final Map<String, Object> fields = null;//null since the class itself has no fields.
+	private final Map<Symbol, Object> fields = null;//null since the class itself has no fields.
 	
 	final String name;
-	private final Map<String, LoxFunction> methods;
+	private final Map<Symbol, LoxFunction> methods;
 	/*Methods are owned by the class itself, but accessed through instances.
 	 * Instances store state.
 	 * */
 	
-	LoxClass(LoxClass klass, LoxClass superclass, String name, Map<String, LoxFunction> methods){
+	LoxClass(LoxClass klass, LoxClass superclass, String name, Map<Symbol, LoxFunction> methods){
 		super(klass);
 		this.superclass = superclass;
 		this.name = name;
 		this.methods = methods;
 	}
 	
-	LoxFunction findMethod(String name) {
+	LoxFunction findMethod(Symbol name) {
 		if (methods.containsKey(name)) {
 			return methods.get(name);	
 		}
@@ -35,12 +35,16 @@ public class LoxClass extends LoxInstance implements LoxCallable{
 		return null;
 	}
 	
+	Map<Symbol, LoxFunction> methods() {
+		return methods;
+	}
+	
 	@Override
 	public int arity() {
-		if (findMethod("init") == null) {
+		if (findMethod(SymbolTable.INIT) == null) {
 			return 0;
 		}
-		return findMethod("init").arity();
+		return findMethod(SymbolTable.INIT).arity();
 	}
 	
 	@Override
@@ -53,7 +57,7 @@ public class LoxClass extends LoxInstance implements LoxCallable{
 		 * i.e. The constructor is called by calling the class name itself.
 		 * */
 		LoxInstance instance = new LoxInstance(this);
-		LoxFunction initializer = findMethod("init");
+		LoxFunction initializer = findMethod(SymbolTable.INIT);
 		if (initializer != null) {
 			initializer.bind(instance).call(interpreter, arguments);
 		}
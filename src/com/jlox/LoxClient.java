@@ -0,0 +1,61 @@
+package com.jlox;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+public class LoxClient {
+
+	/* Runs a script on a jlox daemon (see Daemon), printing its output and exiting with its exit
+	 * code, as if jlox had run it. Kept apart from Lox so that starting it loads none of the
+	 * interpreter: the daemon's constants are inlined when this is compiled.
+	 *
+	 * Usage: LoxClient <socket> [script], reading the script from standard input if it's not
+	 * given.
+	 * */
+
+	private LoxClient(){}
+
+	public static void main(String[] args) throws IOException {
+		if (args.length < 1 || args.length > 2) {
+			System.out.println("Usage: jlox-client <socket> [script]");
+			System.exit(64);
+		}
+		byte[] source = args.length == 2 ? Files.readAllBytes(Paths.get(args[1])) : System.in.readAllBytes();
+
+		try (SocketChannel daemon = SocketChannel.open(UnixDomainSocketAddress.of(args[0]))) {
+			ByteBuffer request = ByteBuffer.wrap(source);
+			while (request.hasRemaining()) daemon.write(request);
+			daemon.shutdownOutput();
+
+			DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(daemon)));
+			for (;;) {
+				int tag = in.read();
+				if (tag == -1) throw new IOException("The daemon hung up before the script finished.");
+				int value = in.readInt();
+				switch (tag) {
+				case Daemon.STDOUT:
+					System.out.print(new String(in.readNBytes(value), StandardCharsets.UTF_8));
+					System.out.flush();
+					break;
+				case Daemon.STDERR:
+					System.err.print(new String(in.readNBytes(value), StandardCharsets.UTF_8));
+					System.err.flush();
+					break;
+				case Daemon.EXIT:
+					System.exit(value);
+					return;
+				default:
+					throw new IOException("Unknown frame from the daemon: " + tag);
+				}
+			}
+		}
+	}
+}
@@ -1,26 +1,30 @@
 package com.jlox;
 
 import java.util.List;
+import java.util.Map;
 
 import com.jlox.Stmt.Function;
 
 public class LoxFunction implements LoxCallable {
 
-	private final Stmt.Function declaration;
-	private final Environment closure;
-	private final boolean isInitializer;
+	final Stmt.Function declaration;
+	final Environment closure;
+	final boolean isInitializer;
+	// The Resolver's depths for the program the function was declared in
+	final Map<Expr, Integer> locals;
 	
 	
-	LoxFunction(Stmt.Function declaration, Environment closure, boolean isInitializer){
+	LoxFunction(Stmt.Function declaration, Environment closure, boolean isInitializer, Map<Expr, Integer> locals){
 		this.declaration = declaration;
 		this.closure = closure;
 		this.isInitializer = isInitializer;
+		this.locals = locals;
 	}
 	
 	LoxFunction bind(LoxInstance instance) {
 		Environment environment = new Environment(closure);
-		environment.define("this", instance);
-		return new LoxFunction(declaration, environment, isInitializer);
+		environment.define(SymbolTable.THIS, instance);
+		return new LoxFunction(declaration, environment, isInitializer, locals);
 	}
 	
 	
@@ -40,21 +44,21 @@ public class LoxFunction implements LoxCallable {
 		*/
 		Environment environment = new Environment(closure);
 		for(int i = 0; i < declaration.params.size(); i++) {
-			environment.define(declaration.params.get(i).lexeme, arguments.get(i));
+			environment.define(declaration.params.get(i).symbol, arguments.get(i));
 		}
 		
 		try {
-			interpreter.executeBlock(declaration.body, environment);	
+			interpreter.executeBody(declaration.body, environment, locals);	
 		}catch(Return returnValue) {
 			/*If an empty return statement exists inside a class's
 			 * initializer, it should return 'this' rather than 'nil'*/
 			if (isInitializer) {
-				return closure.getAt(0, "this");
+				return closure.getAt(0, SymbolTable.THIS);
 			}
 			return returnValue.value;
 		}
 		
-		if (isInitializer) return closure.getAt(0, "this");
+		if (isInitializer) return closure.getAt(0, SymbolTable.THIS);
 		
 		return null;
 	}
@@ -6,7 +6,7 @@ import java.util.HashMap;
 public class LoxInstance {
 
 	private LoxClass klass;
-	private final Map<String, Object> fields = new HashMap<>();
+	private final Map<Symbol, Object> fields = new HashMap<>();
 	
 	LoxInstance(LoxClass klass){
 		this.klass = klass;
@@ -14,17 +14,17 @@ public class LoxInstance {
 	
 	Object get(Token name) {
 		/*Since we look for fields first, that implies that fields shadow methods.*/
-		if (fields.containsKey(name.lexeme)) {
-			return fields.get(name.lexeme);
+		if (fields.containsKey(name.symbol)) {
+			return fields.get(name.symbol);
 		}
 		
 		LoxFunction method = null;
 		if (klass.klass != null) {
-			if (klass.klass.findMethod(name.lexeme) != null) {
+			if (klass.klass.findMethod(name.symbol) != null) {
 				throw new RuntimeError(name, "Cannot access static method " + name.lexeme +  " through an instance.");
 			}
 		}else {
-			method = klass.findMethod(name.lexeme);
+			method = klass.findMethod(name.symbol);
 		}
 		
 		//LoxFunction method = klass.findMethod(name.lexeme);
@@ -34,7 +34,15 @@ public class LoxInstance {
 	}
 	
 	void set(Token name, Object value) {
-		fields.put(name.lexeme, value);
+		fields.put(name.symbol, value);
+	}
+	
+	LoxClass klass() {
+		return klass;
+	}
+	
+	Map<Symbol, Object> fields() {
+		return fields;
 	}
 	
 	@Override
@@ -1,15 +1,19 @@
 package com.jlox;
 
 import java.util.List;
+import java.util.Map;
 
 public class LoxLambda implements LoxCallable {
 	
 	final Expr.Lambda declaration;
 	final Environment closure;
+	// The Resolver's depths for the program the lambda was declared in
+	final Map<Expr, Integer> locals;
 
-	LoxLambda(Expr.Lambda declaration, Environment closure){
+	LoxLambda(Expr.Lambda declaration, Environment closure, Map<Expr, Integer> locals){
 		this.declaration = declaration;
 		this.closure = closure;
+		this.locals = locals;
 	}
 	
 	@Override
@@ -23,11 +27,11 @@ public class LoxLambda implements LoxCallable {
 		 * define the arguments passed to the parameters*/
 		Environment local = new Environment(closure);
 		for (int i = 0; i < declaration.params.size(); i++) {
-			local.define(declaration.params.get(i).lexeme, arguments.get(i));
+			local.define(declaration.params.get(i).symbol, arguments.get(i));
 		}
 		
 		try {
-			interpreter.executeBlock(declaration.body, local);
+			interpreter.executeBody(declaration.body, local, locals);
 		}catch(Return returnValue) {
 			return returnValue.value;
 		}
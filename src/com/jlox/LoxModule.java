@@ -0,0 +1,136 @@
+package com.jlox;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+final class LoxModule {
+
+	/* A script loaded by an import statement. Each is compiled into a Program and run once per
+	 * process, the first time anything imports it, and then kept: every later import, from any
+	 * script, Isolate or thread, gets the same module without scanning, parsing, resolving or
+	 * running it again.
+	 *
+	 * What a module exports is its globals, as they are when it's finished running. They're then
+	 * frozen, so that the one environment can be shared by everything that imports it: an
+	 * importer looks in it after its own globals (see Environment.addImport), and neither it nor
+	 * the module's own functions may assign to it. A module's functions look globals up in the
+	 * module's environment, not the importer's, and a module may import other modules.
+	 *
+	 * Freezing covers the bindings, not the values bound: an instance a module exports is the
+	 * same object for every importer, and its fields can be set by any of them, from any thread,
+	 * with no synchronization. A module meant to be imported from more than one thread should
+	 * only export instances which nothing changes after it has run.
+	 *
+	 * A module is loaded on the thread which first imports it, holding no lock, so modules with
+	 * different paths load at the same time. An import of a path that's still being loaded waits
+	 * for it, unless that would never end because the load is waiting, perhaps through loads on
+	 * other threads, for the importer: the module then imports itself, which is an error.
+	 *
+	 * Paths are relative to the working directory. Anything a module prints while it's loaded
+	 * goes to whatever imported it first.
+	 * */
+
+	private static final class Load {
+		final Thread thread = Thread.currentThread();
+		final CompletableFuture<LoxModule> module = new CompletableFuture<>();
+	}
+
+	// Modules loaded or being loaded. A load that fails is removed, so a later import tries again.
+	private static final Map<Path, Load> loads = new ConcurrentHashMap<>();
+	// Programs compiled ahead of their import, by a TreeShaker, to use instead of the source
+	private static final Map<Path, Program> provided = new ConcurrentHashMap<>();
+	// For each thread waiting for another thread's load, that load; guarded by itself
+	private static final Map<Thread, Load> waiting = new HashMap<>();
+
+	final Path path;
+	final Environment environment;
+
+	private LoxModule(Path path, Environment environment){
+		this.path = path;
+		this.environment = environment;
+	}
+
+	static Path path(String name) {
+		return Paths.get(name).toAbsolutePath().normalize();
+	}
+
+	static void provide(Path path, Program program) {
+		provided.put(path, program);
+	}
+
+	static LoxModule load(Token keyword, String name, Interpreter importer) {
+		Path path = path(name);
+		Load load = loads.get(path);
+		if (load == null) {
+			Load mine = new Load();
+			load = loads.putIfAbsent(path, mine);
+			if (load == null) return load(mine, path, keyword, name, importer);
+		}
+		if (load.module.isDone()) return result(load, keyword);
+
+		Thread current = Thread.currentThread();
+		synchronized (waiting) {
+			// Follows what the load is waiting for, which comes back here if it's a cycle
+			for (Load next = load; next != null; next = waiting.get(next.thread)) {
+				if (next.thread == current) {
+					throw new RuntimeError(keyword, "Module '" + name + "' imports itself.");
+				}
+			}
+			waiting.put(current, load);
+		}
+		try {
+			return result(load, keyword);
+		} finally {
+			synchronized (waiting) {
+				waiting.remove(current);
+			}
+		}
+	}
+
+	private static LoxModule load(Load load, Path path, Token keyword, String name, Interpreter importer) {
+		try {
+			Program program = provided.remove(path);
+			if (program == null) {
+				CharSequence source;
+				try {
+					source = MappedSource.open(path);
+				} catch (IOException e) {
+					throw new RuntimeError(keyword, "Can't read module '" + name + "'.");
+				}
+				program = Program.compile(source, importer.reporter);
+				if (program == null) {
+					throw new RuntimeError(keyword, "Module '" + name + "' has errors.");
+				}
+			}
+
+			Interpreter loader = new Interpreter(importer.reporter, importer.out);
+			loader.load(program);
+			loader.globals.freeze();
+			LoxModule module = new LoxModule(path, loader.globals);
+			load.module.complete(module);
+			return module;
+		} catch (Throwable t) {
+			loads.remove(path, load);
+			load.module.completeExceptionally(t);
+			throw t;
+		}
+	}
+
+	private static LoxModule result(Load load, Token keyword) {
+		/* Waits for a load, and gives the error it failed with, if it did, at this import. */
+		try {
+			return load.module.join();
+		} catch (CompletionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeError) throw new RuntimeError(keyword, cause.getMessage());
+			if (cause instanceof Error) throw (Error)cause;
+			throw e;
+		}
+	}
+}
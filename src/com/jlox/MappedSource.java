@@ -0,0 +1,74 @@
+package com.jlox;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+class MappedSource implements CharSequence {
+
+	/* A read-only view of a memory-mapped source file as characters.
+	 *
+	 * Scripts are read as UTF-8. When a file is pure ASCII (the common case for generated scripts)
+	 * every byte is one character, so the Scanner can work straight off the mapping without the
+	 * file ever being copied into a byte array or decoded into a String. Files containing other
+	 * characters fall back to decoding the mapping into a String.
+	 * */
+
+	private final ByteBuffer bytes;
+
+	private MappedSource(ByteBuffer bytes) {
+		this.bytes = bytes;
+	}
+
+	static CharSequence open(Path path) throws IOException {
+		MappedByteBuffer mapped;
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+
+		if (isAscii(mapped)) {
+			return new MappedSource(mapped);
+		}
+		return StandardCharsets.UTF_8.decode(mapped).toString();
+	}
+
+	private static boolean isAscii(ByteBuffer buffer) {
+		int i = 0;
+		int limit = buffer.limit();
+		// Check eight bytes at a time for any high bits.
+		for (; i + 8 <= limit; i += 8) {
+			if ((buffer.getLong(i) & 0x8080808080808080L) != 0) return false;
+		}
+		for (; i < limit; i++) {
+			if (buffer.get(i) < 0) return false;
+		}
+		return true;
+	}
+
+	@Override
+	public int length() {
+		return bytes.limit();
+	}
+
+	@Override
+	public char charAt(int index) {
+		return (char)bytes.get(index);
+	}
+
+	@Override
+	public CharSequence subSequence(int start, int end) {
+		/* Copies straight into a String, since the slice is only ever used for lexemes. */
+		byte[] slice = new byte[end - start];
+		bytes.get(start, slice);
+		return new String(slice, StandardCharsets.ISO_8859_1);
+	}
+
+	@Override
+	public String toString() {
+		return subSequence(0, length()).toString();
+	}
+}
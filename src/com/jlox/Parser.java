@@ -6,6 +6,7 @@ import com.jlox.Stmt.Function;
 
 import java.util.Arrays;
 import java.util.ArrayList;
+import java.util.Iterator;
 
 import static com.jlox.TokenType.*;
 
@@ -18,7 +19,11 @@ class Parser {
 	 * not cause synchronising. Hence an error is returned, not thrown.*/
 	private static class ParseError extends RuntimeException{}
 	
-	private final List<Token> tokens;
+	/* Tokens are pulled one at a time, so only the current and previous tokens are held. Neither
+	 * is used when parsing from a TokenBuffer. */
+	private Iterator<Token> tokens;
+	private Token currentToken;
+	private Token previousToken = null;
 	private enum BinaryOps {
 			AND, OR, PLUS, MINUS, SLASH, STAR, BANG_EQUAL,
 			EQUAL, EQUAL_EQUAL,
@@ -27,9 +32,92 @@ class Parser {
 	}
 	private int current = 0;
 	private boolean insideLoop = false;
+	private final ErrorReporter reporter;
+	// Only set when parsing from a TokenBuffer, which lets function bodies be skipped and parsed later.
+	private TokenBuffer buffer = null;
+	private boolean lazyBodies = false;
+	
+	/* Binding powers of the infix operators, lowest first. Unary operators, calls and property
+	 * access are handled by operand(), so bind tighter than all of these. */
+	private static final class Precedence {
+		static final int NONE = 0;
+		static final int ASSIGNMENT = 1;
+		static final int OR = 2;
+		static final int AND = 3;
+		static final int COMMA = 4;
+		static final int TERNARY = 5;
+		static final int EQUALITY = 6;
+		static final int COMPARISON = 7;
+		static final int TERM = 8;
+		static final int FACTOR = 9;
+		static final int HIGHEST = 10;
+	}
+	
+	// Indexed by TokenType ordinal, NONE for tokens which aren't infix operators.
+	private static final byte[] precedence = new byte[TokenType.values().length];
+	private static final boolean[] binaryErrorTokens = new boolean[TokenType.values().length];
+	
+	static {
+		precedence[EQUAL.ordinal()] = Precedence.ASSIGNMENT;
+		precedence[OR.ordinal()] = Precedence.OR;
+		precedence[AND.ordinal()] = Precedence.AND;
+		precedence[COMMA.ordinal()] = Precedence.COMMA;
+		precedence[QMARK.ordinal()] = Precedence.TERNARY;
+		precedence[BANG_EQUAL.ordinal()] = Precedence.EQUALITY;
+		precedence[EQUAL_EQUAL.ordinal()] = Precedence.EQUALITY;
+		precedence[LESS.ordinal()] = Precedence.COMPARISON;
+		precedence[LESS_EQUAL.ordinal()] = Precedence.COMPARISON;
+		precedence[GREATER.ordinal()] = Precedence.COMPARISON;
+		precedence[GREATER_EQUAL.ordinal()] = Precedence.COMPARISON;
+		precedence[PLUS.ordinal()] = Precedence.TERM;
+		precedence[MINUS.ordinal()] = Precedence.TERM;
+		precedence[STAR.ordinal()] = Precedence.FACTOR;
+		precedence[SLASH.ordinal()] = Precedence.FACTOR;
+		
+		for (TokenType type : new TokenType[] {PLUS, MINUS, SLASH, STAR, EQUAL, EQUAL_EQUAL,
+				BANG_EQUAL, LESS, LESS_EQUAL, GREATER, GREATER_EQUAL, AND, OR}) {
+			binaryErrorTokens[type.ordinal()] = true;
+		}
+	}
 	
 	Parser(List<Token> tokens){
+		this(tokens.iterator());
+	}
+	
+	Parser(TokenBuffer tokens){
+		this(tokens, false);
+	}
+	
+	Parser(TokenBuffer tokens, boolean lazyBodies){
+		this(tokens, lazyBodies, Lox.reporter);
+	}
+	
+	Parser(TokenBuffer tokens, boolean lazyBodies, ErrorReporter reporter){
+		/* With lazyBodies, function and method bodies are left as LazyBodys. */
+		this.buffer = tokens;
+		this.reporter = reporter;
+		this.lazyBodies = lazyBodies;
+	}
+	
+	Parser(TokenBuffer tokens, int from){
+		this(tokens, from, Lox.reporter);
+	}
+	
+	Parser(TokenBuffer tokens, int from, ErrorReporter reporter){
+		/* Starts parsing part way through a token buffer, at a top-level declaration. */
+		this.buffer = tokens;
+		this.reporter = reporter;
+		this.current = from;
+	}
+	
+	Parser(Iterator<Token> tokens){
+		this(tokens, Lox.reporter);
+	}
+	
+	Parser(Iterator<Token> tokens, ErrorReporter reporter){
 		this.tokens = tokens;
+		this.reporter = reporter;
+		this.currentToken = tokens.next();
 	}
 	
 	// Initial method to begin parsing:
@@ -42,6 +130,37 @@ class Parser {
 		
 		return statements;
 	}
+	
+	/* Used to parse a program one top-level declaration at a time. */
+	
+	Stmt parseDeclaration() {
+		return declaration();
+	}
+	
+	boolean atEnd() {
+		return isAtEnd();
+	}
+	
+	int position() {
+		return current;
+	}
+	
+	int line() {
+		/* The line of the token it's at, for an error it didn't report itself. */
+		return buffer != null ? buffer.line(current) : currentToken.line;
+	}
+	
+	List<Stmt> parseBody(boolean insideLoop) {
+		/* Parses a LazyBody, from just after its opening brace. Any functions nested inside it are
+		 * left lazy in turn. Errors are reported, and what was parsed is returned regardless. */
+		this.insideLoop = insideLoop;
+		this.lazyBodies = true;
+		try {
+			return block();
+		} catch (ParseError error) {
+			return new ArrayList<>();
+		}
+	}
 
 	private Stmt statement() {
 		if (match(FOR)) {
@@ -73,7 +192,7 @@ class Parser {
 			consume(SEMICOLON, "Expect ';' after 'break' statement.");
 			return new Stmt.Break(null);
 		}
-		throw error(peek(), "'break' statement cannot occur outside a loop.");
+		throw error("'break' statement cannot occur outside a loop.");
 	}
 	
 	private Stmt forStatement() {
@@ -160,7 +279,8 @@ class Parser {
 	}
 	
 	private Stmt variableDeclaration() {
-		Token name = consume(IDENTIFIER, "Expect a variable identifier.");
+		consume(IDENTIFIER, "Expect a variable identifier.");
+		Token name = previous();
 		Expr initializer = null;
 		if (match(EQUAL)){
 			initializer = expression();
@@ -188,25 +308,45 @@ class Parser {
 	}
 	
 	private Stmt function(String kind) {
-		Token name = consume(IDENTIFIER, "Expect " + kind + " name.");
+		consume(IDENTIFIER, "Expect " + kind + " name.");
+		Token name = previous();
 		consume(LEFT_PAREN, "Expect '(' after " + kind + " name.");
 		List<Token> params = new ArrayList<>();
 		
 		if (!check(RIGHT_PAREN)) {
 			do {
 				if (params.size() >= 255) {
-					error(peek(), "Cannot have more than 255 arguments.");
+					error("Cannot have more than 255 arguments.");
 				}
 				
-				params.add(consume(IDENTIFIER, "Expect parameter name."));
+				consume(IDENTIFIER, "Expect parameter name.");
+				params.add(previous());
 			} while (match(COMMA));
 		}
 		
 		consume (RIGHT_PAREN, "Expect ')' after " + kind +  " parameters.");		
 		consume(LEFT_BRACE, "Expect '{ before " + kind + " body.");
-		List<Stmt> body = block();
+		List<Stmt> body = lazyBodies ? skipBody(name) : block();
 		return new Stmt.Function(name, params, body);
 	}
+	
+	private List<Stmt> skipBody(Token name) {
+		/* Skips the body by matching its braces, building nothing, and leaves a LazyBody to
+		 * parse it the first time it's called. Only a body that's never closed is an error here:
+		 * any other in it is found on that first call (see LazyBody). */
+		LazyBody body = new LazyBody(buffer, current, insideLoop, name, reporter);
+		int depth = 1;
+		while (!isAtEnd()) {
+			TokenType type = peekType();
+			advance();
+			if (type == LEFT_BRACE) {
+				depth++;
+			} else if (type == RIGHT_BRACE && --depth == 0) {
+				return body;
+			}
+		}
+		throw error("Expect '}' after block");
+	}
 
 	/*Methods for each expression type*/
 	
@@ -214,8 +354,7 @@ class Parser {
 		if (match(FUN)) {
 			return lambdaFunction();
 		}
-		return assignment();
-		//return comma();
+		return parsePrecedence(Precedence.ASSIGNMENT);
 	}
 	
 	private Expr lambdaFunction() {
@@ -225,10 +364,11 @@ class Parser {
 		if (!check(RIGHT_PAREN)) {
 			do {
 				if (params.size() >= 255) {
-					error(peek(), "Cannot have more than 255 arguments.");
+					error("Cannot have more than 255 arguments.");
 				}
 				
-				params.add(consume(IDENTIFIER, "Expect parameter name."));
+				consume(IDENTIFIER, "Expect parameter name.");
+				params.add(previous());
 			} while (match(COMMA));
 		}
 		
@@ -238,51 +378,108 @@ class Parser {
 		return new Expr.Lambda(params, body);
 	}
 	
-	private Expr assignment() {
-		//Expr expression = comma();
-		Expr expression = or();
+	private Expr parsePrecedence(int minLevel) {
+		/* Parses an expression whose infix operators all bind at least as tightly as minLevel.
+		 * 
+		 * The loop only applies an operator at or below the level of the one it last applied,
+		 * which is how the old one-method-per-level descent behaved: once the comma has parsed its
+		 * right-hand side at equality, a following ? no longer applies to it. */
+		Expr expr = operand();
+		int lastLevel = Precedence.HIGHEST;
 		
-		if (match(EQUAL)) {
-			Token equals = previous();
-			Expr value = assignment();
+		while (true) {
+			int level = precedence[peekType().ordinal()];
+			if (level < minLevel || level > lastLevel) break;
+			advance();
+			Token operator = previous();
+			expr = infix(expr, operator, level);
+			lastLevel = level;
+		}
+		
+		return expr;
+	}
+	
+	private Expr infix(Expr left, Token operator, int level) {
+		switch (operator.type) {
+		case EQUAL: {
+			Expr value = parsePrecedence(Precedence.ASSIGNMENT);
 			
 			// ensures the lhs is a valid assignment target
-			if (expression instanceof Expr.Variable) {
-				Token name = ((Expr.Variable)expression).name;
+			if (left instanceof Expr.Variable) {
+				Token name = ((Expr.Variable)left).name;
 				// converting the r-value expression into an l-value representation
 				/* this is great when we have assignment expressions where the assignment target is
 				 * also a stand-alone variable expression.*/
 				return new Expr.Assign(name, value);
 			}
-			else if (expression instanceof Expr.Get) {
-				Expr.Get get = (Expr.Get)expression;
+			else if (left instanceof Expr.Get) {
+				Expr.Get get = (Expr.Get)left;
 				return new Expr.Set(get.object, get.name, value);
-			}			
+			}
 			
-			error(equals, "Invalid assignment target.");
+			error(operator, "Invalid assignment target.");
+			return left;
+		}
+		case OR:
+		case AND:
+			return new Expr.Logical(left, operator, parsePrecedence(level + 1));
+		case COMMA: {
+			/* Supports the comma (,) operator from C/C++ , pursuant to Exercise 1
+			 * of Parsing Expressions. */
+			Expr right = parsePrecedence(Precedence.EQUALITY);
+			return new Expr.Binary(right, operator, left);
+		}
+		case QMARK: {
+			/* Supports the ternary conditional operator a ? b : c from C/C++ , pursuant to 
+			 * Exercise 2 from Parsing Expressions. 
+			 * 
+			 *  - The ? is above equality in precedence, and the : is above term, except when nesting.
+			 *  - The ? operator is right-associative, i.e. the following: a ? b : c ? e : f
+			 *  is equivalent to: a ? b : (c ? e : f), NOT: (a ? b : c) ? e : f
+			 * */
+			Expr middle = parsePrecedence(Precedence.TERNARY);
+			if (!match(COLON)) {
+				throw error("Colon expected as part of ternary expression");
+			}
+			Expr right = parsePrecedence(Precedence.TERNARY);
+			return new Expr.Ternary(operator, left, middle, right);
+		}
+		default:
+			// Creates left-associated nested tree of binary expressions:
+			return new Expr.Binary(left, operator, parsePrecedence(level + 1));
 		}
-		
-		return expression;
 	}
 	
-	private Expr or() {
-		Expr expr = and();
-		while (match(OR)) {
+	private Expr operand() {
+		/* A prefix expression, or a primary with any calls and property accesses after it.
+		 * Unary operators apply to a bare primary. */
+		switch (peekType()) {
+		case BANG:
+		case MINUS: {
+			advance();
 			Token operator = previous();
-			Expr right = and();
-			expr = new Expr.Logical(expr, operator, right);
+			return new Expr.Unary(operator, primary());
+		}
+		default:
+			break;
 		}
-		return expr;
-	}
-	
-	private Expr and() {
-		Expr expr = comma();
 		
-		while (match(AND)) {
-			Token operator = previous();
-			Expr right = comma();
-			expr = new Expr.Logical(expr, operator, right);
+		Expr expr = primary();
+		
+		while (true) {
+			if (match(LEFT_PAREN)) {
+				expr = finishCall(expr);
+			}
+			else if (match(DOT)) {
+				consume(IDENTIFIER, "Expected property name after '.'");
+				Token name = previous();
+				expr = new Expr.Get(expr, name);
+			}
+			else {
+				break;
+			}
 		}
+		
 		return expr;
 	}
 	
@@ -298,6 +495,9 @@ class Parser {
 			if(match(VAR)) { 
 				return variableDeclaration();
 			}
+			if (match(IMPORT)) {
+				return importDeclaration();
+			}
 			
 			return statement();
 		} catch(ParseError e) {
@@ -306,8 +506,17 @@ class Parser {
 		}
 	}
 
+	private Stmt importDeclaration() {
+		Token keyword = previous();
+		consume(STRING, "Expect a module path after 'import'.");
+		Token path = previous();
+		consume(SEMICOLON, "Expect ';' after import.");
+		return new Stmt.Import(keyword, path);
+	}
+
 	private Stmt classDeclaration() {
-		Token name = consume(IDENTIFIER, "Expect Class name.");
+		consume(IDENTIFIER, "Expect Class name.");
+		Token name = previous();
 		
 		Expr.Variable superclass = null;
 		if (match(LESS)) {
@@ -334,240 +543,150 @@ class Parser {
 		}
 	}
 	
-	private Expr comma() {
-		/* Method added to support the comma (,) operator from C/C++ , pursuant to Exercise 1
-		 * of Parsing Expressions. */
-		//Expr expr = equality();
-		Expr expr = ternary();
-		while (match(COMMA)) {
-			Token operator = previous();
-			Expr left = equality();
-			expr = new Expr.Binary(left, operator, expr);
-		}
-		
-		return expr;
-		
-	}
-	
-	private Expr ternary() {
-		/* Method to add support for the ternary conditional operator a ? b : c from C/C++ , pursuant to 
-		 * Exercise 2 from Parsing Expressions. 
-		 * 
-		 *  - The ? is above equality in precedence, and the : is above term, except when nesting.
-		 *  - The ? operator is right-associative, i.e. the following: a ? b : c ? e : f
-		 *  is equivalent to: a ? b : (c ? e : f), NOT: (a ? b : c) ? e : f
-		 * */
-		
-		Expr expr = equality();
-		while (match(QMARK)) {
-			Token qmark = previous();
-			Expr left = ternary();//this can perhaps be made recursive by swapping it with ternary()
-			if (match(COLON)) {
-				Expr right = ternary();//this can perhaps be made recursive by swapping it with ternary()
-				expr = new Expr.Ternary(qmark, expr, left, right);
-			}
-			else {
-				throw error(peek(), "Colon expected as part of ternary expression");
-			}			
-		}
-		
-		return expr;
-	}
-	
-	private Expr equality() {
-		Expr expr = comparison();
-		
-		while (match(BANG_EQUAL, EQUAL_EQUAL)) {
-			Token operator = previous();
-			Expr right = comparison();
-			// Creates left-associated nested tree of binary expressions:
-			expr = new Expr.Binary(expr, operator, right);
-		} 
-		
-		return expr;
-	}
-	
-	private Expr comparison() {
-		Expr expr = term();
-		
-		while (match(LESS, LESS_EQUAL, GREATER, GREATER_EQUAL)) {
-			Token operator = previous();
-			Expr right = term();
-			expr = new Expr.Binary(expr, operator, right);
-		}
-		
-		return expr;
-	}
-	
-	private Expr term() {
-		Expr expr = factor();
-		
-		while (match(PLUS, MINUS)) {
-			Token operator = previous();
-			Expr right = factor();
-			expr = new Expr.Binary(expr, operator, right);
-		}
-		
-		return expr;
-	}
-	
-	private Expr factor() {
-		Expr expr = unary();
-		
-		while (match(STAR, SLASH)) {
-			Token operator = previous();
-			Expr right = unary();
-			expr = new Expr.Binary(expr, operator, right);
-		}
-		
-		return expr;
-	}
-	
-	private Expr unary() {
-		while (match(BANG, MINUS)) {
-			Token operator = previous();
-			Expr right = primary();
-			return new Expr.Unary(operator, right);
-		}
-		
-		return call();
-	}
-	
-	private Expr call() {
-		Expr expr = primary();
-		
-		while (true) {
-			if (match(LEFT_PAREN)) {
-				expr = finishCall(expr);
-			}
-			else if (match(DOT)) {
-				Token name = consume(IDENTIFIER, "Expected property name after '.'");
-				expr = new Expr.Get(expr, name);
-			}
-			else {
-				break;
-			}
-		}
-		
-		return expr;
-	}
-	
 	private Expr finishCall(Expr callee) {
 		List<Expr> arguments = new ArrayList<>();
 		if (!check(RIGHT_PAREN)) {
 			do {
 				if (arguments.size() >= 255) {
-					error(peek(), "Cannot have more than 255 arguments.");
+					error("Cannot have more than 255 arguments.");
 				}
 				arguments.add(expression());
 			}while(match(COMMA));
 		}
 		
-		Token paren = consume(RIGHT_PAREN, "Expect ')' after arguments.");
+		consume(RIGHT_PAREN, "Expect ')' after arguments.");
+		Token paren = previous();
 		return new Expr.Call(callee, paren, arguments);
 	}
 	
 	private Expr primary() {
 		
-		boolean binErrorCond = match(PLUS) || match(MINUS) || match(SLASH) || match(STAR)
-				|| match(EQUAL) || match(EQUAL_EQUAL) || match(BANG_EQUAL) || match(LESS)
-				|| match(LESS_EQUAL) || match(GREATER) || match(GREATER_EQUAL) || match(AND) 
-				|| match(OR);
-				
-		if (match(FALSE)) {
+		// A stray binary operator is skipped, and reported as a BinaryError if nothing follows it.
+		boolean binErrorCond = binaryErrorTokens[peekType().ordinal()];
+		if (binErrorCond) advance();
+		
+		switch (peekType()) {
+		case FALSE:
+			advance();
 			return new Expr.Literal(false);
-		}
-		else if (match(TRUE)) {
+		case TRUE:
+			advance();
 			return new Expr.Literal(true);
-		}
-		else if (match(NIL)) {
+		case NIL:
+			advance();
 			return new Expr.Literal(null);
-		}
-		else if (match(NUMBER, STRING)) {
-			return new Expr.Literal(previous().literal);
-		}
-		else if (match(LEFT_PAREN)) {
+		case NUMBER:
+		case STRING:
+			advance();
+			return new Expr.Literal(previousLiteral());
+		case LEFT_PAREN: {
+			advance();
 			Expr expr = expression();
 			consume(RIGHT_PAREN, "Expect ')' after expression.");
 			return new Expr.Grouping(expr);
-		} 
-		else if (match(SUPER)) {
+		}
+		case SUPER: {
+			advance();
 			Token keyword = previous();
 			consume(DOT, "Expect '.' after 'super'.");
-			Token method = consume(IDENTIFIER, "Expect superclass method name.");
+			consume(IDENTIFIER, "Expect superclass method name.");
+			Token method = previous();
 			return new Expr.Super(keyword, method);
 		}
-		else if (match(THIS)) {
+		case THIS:
+			advance();
 			return new Expr.This(previous());
-		}
-		else if (match(IDENTIFIER)) {
+		case IDENTIFIER:
+			advance();
 			return new Expr.Variable(previous());
-		}
-		else if (match(BREAK)) {
-			throw error(peek(), "Break statement cannot be used outside of a loop.");
-		}
-		else if (binErrorCond){//changed from 'else' to make error throw reachable
-			//condition needs revising - dirty but functional atm
-			return binaryError();
+		case BREAK:
+			advance();
+			throw error("Break statement cannot be used outside of a loop.");
+		default:
+			if (binErrorCond) {
+				return binaryError();
+			}
 		}
 		
 		// If the parser has found a token that cannot start a statement:
-		throw error(peek(), "Expression expected");
+		throw error("Expression expected");
 	}
 	
 	private Expr binaryError() { 
-		Token operator = peek();
 		advance();
+		Token operator = previous();
 		try {
 			Expr right = primary();
 			return new Expr.BinaryError(operator, right);
 		}catch(java.lang.Exception e) {
-			throw error(peek(), "Expression expected");
+			throw error("Expression expected");
 		}	
 
 	}
 	
-	private boolean match(TokenType... types) {
+	private boolean match(TokenType type) {
 		// Checks type of current token and consumes it if it matches
-		for (TokenType type : types) {
-			if (check(type)) {
-				advance();
-				return true;
-			}
+		if (check(type)) {
+			advance();
+			return true;
 		}
 		return false;
 	}
 	
-	private Token consume(TokenType type, String message) {
-		if (check(type)) return advance();
+	private void consume(TokenType type, String message) {
+		/* A token a node keeps is taken with previous() afterwards. */
+		if (check(type)) {
+			advance();
+			return;
+		}
 		
-		throw error(peek(), message);
+		throw error(message);
 	}
 	
 	private boolean check(TokenType type) {
 		if (isAtEnd()) return false;
-		return peek().type == type;
+		return peekType() == type;
 	}
 	
-	private Token advance() {
-		if(!isAtEnd()) current++;
-		return previous();
+	private void advance() {
+		if(!isAtEnd()) {
+			current++;
+			if (buffer == null) {
+				previousToken = currentToken;
+				currentToken = tokens.next();
+			}
+		}
 	}
 	
 	private boolean isAtEnd() {
-		return peek().type == EOF;
+		return peekType() == EOF;
+	}
+	
+	/* From a TokenBuffer the parser reads types and literals straight from its arrays, and only
+	 * builds a Token in previous(), which is only called for a token a node keeps. */
+	
+	private TokenType peekType() {
+		return buffer != null ? buffer.type(current) : currentToken.type;
+	}
+	
+	private TokenType previousType() {
+		return buffer != null ? buffer.type(current - 1) : previousToken.type;
 	}
 	
-	private Token peek() {
-		return tokens.get(current);
+	private Object previousLiteral() {
+		return buffer != null ? buffer.literal(current - 1) : previousToken.literal;
 	}
 	
 	private Token previous() {
-		return tokens.get(current - 1);
+		return buffer != null ? buffer.token(current - 1) : previousToken;
 	}
 	
 	private ParseError error(Token token, String message) {
-		Lox.error(current, message);
+		return error(message);
+	}
+	
+	private ParseError error(String message) {
+		reporter.error(current, message);
 		return new ParseError();
 	}
 	
@@ -576,12 +695,13 @@ class Parser {
 		advance();
 		
 		while (!isAtEnd()) {
-			if (previous().type == SEMICOLON) return;
+			if (previousType() == SEMICOLON) return;
 			
-			switch(peek().type) {
+			switch(peekType()) {
 			case CLASS:
 			case FUN:
 			case VAR:
+			case IMPORT:
 			case FOR:
 			case IF:
 			case WHILE:
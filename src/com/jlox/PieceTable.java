@@ -0,0 +1,118 @@
+package com.jlox;
+
+final class PieceTable implements CharSequence {
+
+	/* An editable source, as a piece table: the text is a list of pieces, each a run of either
+	 * the original text or of the text added by edits, which is only ever appended to. An edit
+	 * splits at most two pieces and adds one, so it costs the length of the replacement plus
+	 * the number of pieces, however long the text is.
+	 *
+	 * charAt() remembers the piece it last landed in, so reading forwards, as the Scanner does,
+	 * takes no search. Not thread safe.
+	 * */
+
+	private final String original;
+	private final StringBuilder added = new StringBuilder();
+	// Where each piece starts in its buffer: the original if non-negative, otherwise added at -(start + 1)
+	private int[] starts = new int[16];
+	private int[] lengths = new int[16];
+	private int pieces = 0;
+	private int length = 0;
+	// The piece charAt() last landed in, and where it starts in the text
+	private int lastPiece = 0;
+	private int lastOffset = 0;
+
+	PieceTable(String original){
+		this.original = original;
+		if (!original.isEmpty()) {
+			starts[0] = 0;
+			lengths[0] = original.length();
+			pieces = 1;
+		}
+		length = original.length();
+	}
+
+	void replace(int start, int end, String text) {
+		/* Replaces the text in [start, end) with the given text. */
+		int[] newStarts = new int[pieces + 3];
+		int[] newLengths = new int[pieces + 3];
+		int count = 0;
+		int offset = 0;
+		boolean inserted = false;
+
+		for (int i = 0; i < pieces; i++) {
+			int pieceEnd = offset + lengths[i];
+			// The part of the piece before the edit
+			if (offset < start) {
+				newStarts[count] = starts[i];
+				newLengths[count++] = Math.min(pieceEnd, start) - offset;
+			}
+			if (!inserted && pieceEnd >= start) {
+				count = insert(text, newStarts, newLengths, count);
+				inserted = true;
+			}
+			// The part of the piece after the edit
+			if (pieceEnd > end) {
+				int skip = Math.max(end - offset, 0);
+				newStarts[count] = starts[i] >= 0 ? starts[i] + skip : starts[i] - skip;
+				newLengths[count++] = lengths[i] - skip;
+			}
+			offset = pieceEnd;
+		}
+		if (!inserted) count = insert(text, newStarts, newLengths, count);
+
+		starts = newStarts;
+		lengths = newLengths;
+		pieces = count;
+		length += text.length() - (end - start);
+		lastPiece = 0;
+		lastOffset = 0;
+	}
+
+	private int insert(String text, int[] newStarts, int[] newLengths, int count) {
+		if (text.isEmpty()) return count;
+		newStarts[count] = -(added.length() + 1);
+		newLengths[count] = text.length();
+		added.append(text);
+		return count + 1;
+	}
+
+	@Override
+	public int length() {
+		return length;
+	}
+
+	@Override
+	public char charAt(int index) {
+		if (index < lastOffset) {
+			lastPiece = 0;
+			lastOffset = 0;
+		}
+		while (index >= lastOffset + lengths[lastPiece]) {
+			lastOffset += lengths[lastPiece++];
+			if (lastPiece >= pieces) {
+				lastPiece = 0;
+				lastOffset = 0;
+				throw new IndexOutOfBoundsException(index);
+			}
+		}
+		int start = starts[lastPiece];
+		int at = index - lastOffset;
+		return start >= 0 ? original.charAt(start + at) : added.charAt(-(start + 1) + at);
+	}
+
+	@Override
+	public CharSequence subSequence(int start, int end) {
+		/* Copies straight into a String, since the slice is only ever used for lexemes. */
+		char[] slice = new char[end - start];
+		for (int i = start; i < end; i++) {
+			slice[i - start] = charAt(i);
+		}
+		return new String(slice);
+	}
+
+	@Override
+	public String toString() {
+		return subSequence(0, length).toString();
+	}
+}
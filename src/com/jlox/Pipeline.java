@@ -0,0 +1,103 @@
+package com.jlox;
+
+import java.util.ArrayList;
+import java.util.List;
+
+class Pipeline {
+
+	/* Runs the front end as a pipeline, so that lexing, parsing and resolution overlap:
+	 *
+	 *   scanner thread -> tokens -> parser thread -> declarations -> resolver (calling thread)
+	 *
+	 * Each stage is connected to the next by a RingBuffer. The resolver takes each top-level
+	 * declaration as soon as the parser has finished it, and once a declaration has failed to
+	 * parse it stops resolving (but keeps draining). Its errors are held back until the other
+	 * stages have finished, and only reported if they reported nothing, as the sequential front
+	 * end doesn't resolve a program that failed to scan or parse. Scanner and parser errors may
+	 * still be reported in a different order to the sequential front end, since those two run
+	 * concurrently.
+	 *
+	 * If the parser thread dies (say its stack overflows on deeply nested code), that's reported
+	 * as an error at the line it got to, and the stages before and after it are let go: the
+	 * scanner stops at its next put, and the resolver gets what was parsed up to then.
+	 *
+	 * Every function body is parsed up front, and the source is lexed on one thread however
+	 * large it is, so --lazy and parallel lexing don't apply.
+	 * */
+
+	private static final int TOKEN_CAPACITY = 4096;
+	private static final int STATEMENT_CAPACITY = 256;
+
+	private final CharSequence source;
+	private final Interpreter interpreter;
+
+	Pipeline(CharSequence source, Interpreter interpreter){
+		this.source = source;
+		this.interpreter = interpreter;
+	}
+
+	List<Stmt> run() {
+		/* Returns the parsed and resolved statements. Errors go to the interpreter's reporter, which
+		 * callers check as usual. */
+		RingBuffer<Token> tokens = new RingBuffer<>(TOKEN_CAPACITY);
+		RingBuffer<Stmt> declarations = new RingBuffer<>(STATEMENT_CAPACITY);
+
+		Thread scanner = new Thread(() -> {
+			try {
+				Scanner lexer = new Scanner(source, interpreter.reporter);
+				while (lexer.hasNext()) {
+					tokens.put(lexer.next());
+				}
+				tokens.close();
+			} catch (Throwable e) {
+				tokens.fail(e);
+			}
+		}, "jlox-scanner");
+
+		Thread parser = new Thread(() -> {
+			Parser grammar = null;
+			try {
+				grammar = new Parser(tokens, interpreter.reporter);
+				while (!grammar.atEnd()) {
+					declarations.put(grammar.parseDeclaration());
+				}
+			} catch (Throwable e) {
+				tokens.abandon();
+				interpreter.reporter.error(grammar == null ? 1 : grammar.line(), "The parser stopped with " + e + ".");
+			} finally {
+				declarations.close();
+			}
+		}, "jlox-parser");
+
+		scanner.setDaemon(true);
+		parser.setDaemon(true);
+		scanner.start();
+		parser.start();
+
+		List<Stmt> statements = new ArrayList<>();
+		ErrorReporter resolution = interpreter.reporter.deferred();
+		Resolver resolver = new Resolver(interpreter, resolution);
+		boolean resolving = true;
+		try {
+			while (declarations.hasNext()) {
+				Stmt declaration = declarations.next();
+				statements.add(declaration);
+				if (declaration == null) resolving = false;
+				if (resolving) resolver.resolve(declaration);
+			}
+		} finally {
+			// Lets the parser go if the resolver died.
+			declarations.abandon();
+		}
+
+		try {
+			// Makes everything the stages did visible here.
+			scanner.join();
+			parser.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		if (!interpreter.reporter.hadError) interpreter.reporter.replay(resolution);
+		return statements;
+	}
+}
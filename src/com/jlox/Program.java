@@ -0,0 +1,56 @@
+package com.jlox;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public final class Program {
+
+	/* A compiled script: its scanned, parsed, resolved and fused statements, together with the
+	 * Resolver's depths. Nothing in a Program changes once it's compiled, so any number of
+	 * Isolates may run the same one at once, on different threads. Functions keep the depths of
+	 * the Program that declared them, so a function from one Program (say a prelude) may be
+	 * called from another.
+	 * */
+
+	final List<Stmt> statements;
+	final Map<Expr, Integer> locals;
+
+	private Program(List<Stmt> statements, Map<Expr, Integer> locals){
+		this.statements = statements;
+		this.locals = locals;
+	}
+
+	static Program of(List<Stmt> statements, Map<Expr, Integer> locals) {
+		/* Statements resolved elsewhere, a line at a time say (see ReplSession). */
+		return new Program(statements, locals);
+	}
+
+	public static Program compile(CharSequence source, ErrorReporter reporter) {
+		/* Returns null if the source has errors, which have been given to the reporter. */
+		ErrorReporter errors = reporter.deferred();
+		// Only for the Resolver's depths and the Fuser, it never runs anything
+		Interpreter compiler = new Interpreter(errors);
+
+		// Function bodies are always parsed up front, as a lazy body would be resolved (so would
+		// change the Program) when it's first called.
+		Parser parser;
+		if (source.length() >= Scanner.PARALLEL_THRESHOLD) {
+			parser = new Parser(Scanner.scanParallel(source, errors), false, errors);
+		} else {
+			parser = new Parser(new Scanner(source, errors), errors);
+		}
+		List<Stmt> statements = parser.parse();
+		if (!errors.hadError) {
+			new Resolver(compiler).resolve(statements);
+		}
+
+		reporter.replay(errors);
+		if (errors.hadError) return null;
+
+		statements = new Fuser(compiler).fuse(statements);
+		Map<Expr, Integer> locals = new HashMap<>(compiler.resolutions());
+		return new Program(Collections.unmodifiableList(statements), Collections.unmodifiableMap(locals));
+	}
+}
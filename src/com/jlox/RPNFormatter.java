@@ -112,4 +112,24 @@ public class RPNFormatter implements Expr.Visitor<String> {
 	public String visitSuperExpr(Super expr) {
 		return revPolish("super");
 	}
+
+	@Override
+	public String visitIncrementExpr(Expr.Increment expr) {
+		return expr.original.accept(this);
+	}
+
+	@Override
+	public String visitCompareExpr(Expr.Compare expr) {
+		return expr.original.accept(this);
+	}
+
+	@Override
+	public String visitSetThisExpr(Expr.SetThis expr) {
+		return expr.original.accept(this);
+	}
+
+	@Override
+	public String visitGetFieldExpr(Expr.GetField expr) {
+		return expr.original.accept(this);
+	}
 }
@@ -0,0 +1,100 @@
+package com.jlox;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+final class Reloader {
+
+	/* Swaps new versions of a program's top-level functions and classes into a running
+	 * interpreter's globals, leaving everything else as it is: no other statement is run again,
+	 * so variables and instances keep their state.
+	 *
+	 * A declaration is swapped in only if it differs from the one last run or swapped in, by its
+	 * encoded tree (see AstCodec), so an unchanged function stays the very same object, along
+	 * with anything that has been specialized for it. A changed function is simply rebound. A
+	 * changed class has its methods replaced in place, so existing instances, and subclasses,
+	 * pick up the new ones; unless its superclass, or whether it has static methods, has changed,
+	 * in which case it's rebound and existing instances keep the class they were made with.
+	 * Declarations that are no longer in the program are left alone.
+	 *
+	 * Nothing may be running on the interpreter while it's reloaded.
+	 * */
+
+	private final Interpreter interpreter;
+	// Only for encoding trees, and never resolves anything, so they're encoded without depths
+	private final Interpreter encoder;
+	private final Map<Symbol, byte[]> trees = new HashMap<>();
+
+	Reloader(Interpreter interpreter){
+		this.interpreter = interpreter;
+		this.encoder = new Interpreter(interpreter.reporter);
+	}
+
+	void remember(Program program) {
+		/* Takes program's declarations as the ones that have been run. */
+		for (Stmt statement : program.statements) {
+			Token name = declared(statement);
+			if (name != null) trees.put(name.symbol, encode(statement));
+		}
+	}
+
+	int reload(Program program) {
+		/* Returns how many declarations were swapped in, or -1 if one of them stopped with a
+		 * runtime error, which has been reported. Those before it have been swapped in. */
+		int swapped = 0;
+		for (Stmt statement : program.statements) {
+			Token name = declared(statement);
+			if (name == null) continue;
+			byte[] tree = encode(statement);
+			if (Arrays.equals(trees.get(name.symbol), tree)) continue;
+			try {
+				swap(name.symbol, statement, program.locals);
+			} catch (RuntimeError error) {
+				interpreter.reporter.runtimeError(error);
+				return -1;
+			}
+			trees.put(name.symbol, tree);
+			swapped++;
+		}
+		return swapped;
+	}
+
+	private void swap(Symbol name, Stmt statement, Map<Expr, Integer> locals) {
+		// Declared in a scope of its own, so the old value is still there to compare with
+		Environment scratch = new Environment(interpreter.globals);
+		interpreter.executeBody(Collections.singletonList(statement), scratch, locals);
+		Object value = scratch.values().get(name);
+		Object old = interpreter.globals.values().get(name);
+
+		if (value instanceof LoxClass && old instanceof LoxClass) {
+			LoxClass klass = (LoxClass)value;
+			LoxClass existing = (LoxClass)old;
+			LoxClass metaclass = klass.klass();
+			LoxClass existingMetaclass = existing.klass();
+			if (klass.superclass == existing.superclass && (metaclass == null) == (existingMetaclass == null)) {
+				existing.methods().clear();
+				existing.methods().putAll(klass.methods());
+				if (metaclass != null) {
+					existingMetaclass.methods().clear();
+					existingMetaclass.methods().putAll(metaclass.methods());
+				}
+				return;
+			}
+		}
+		interpreter.globals.define(name, value);
+	}
+
+	private static Token declared(Stmt statement) {
+		if (statement instanceof Stmt.Function) return ((Stmt.Function)statement).name;
+		if (statement instanceof Stmt.Class) return ((Stmt.Class)statement).name;
+		return null;
+	}
+
+	private byte[] encode(Stmt statement) {
+		AstOutput out = new AstOutput();
+		new AstCodec(out, encoder).writeStmt(statement);
+		return out.toByteArray();
+	}
+}
@@ -0,0 +1,130 @@
+package com.jlox;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+final class ReplSession {
+
+	/* The prompt's state from one entry to the next. One Resolver sees every entry, in order, and
+	 * each entry is compiled into a Program of its own, with its own depths: functions keep the
+	 * depths they were declared with, so an entry's depths live only as long as something it
+	 * declared, rather than piling up in the interpreter for the rest of the session.
+	 *
+	 * The session also keeps a table of the functions and classes declared at the top level,
+	 * each with its encoded tree (see AstCodec) and the value it bound. A declaration that's
+	 * entered again unchanged, while its name still holds what it bound the last time, is
+	 * neither resolved nor run again; one that differs, or whose name has been rebound since,
+	 * shadows the old one and replaces it in the table. Either way nothing entered earlier is
+	 * run again, and since globals are looked up when they're used, code that calls a
+	 * redefined function calls the new one.
+	 * */
+
+	private final Interpreter interpreter;
+	private final ErrorReporter reporter;
+	// Only for the Resolver's depths, which are taken from it a line at a time
+	private final Interpreter compiler;
+	private final Resolver resolver;
+	private final Map<Symbol, Definition> definitions = new HashMap<>();
+
+	private static final class Definition {
+		final byte[] tree;
+		// What the declaration bound its name to, and for a class the superclass it was given
+		final Object value;
+		final Object superclass;
+
+		Definition(byte[] tree, Object value, Object superclass){
+			this.tree = tree;
+			this.value = value;
+			this.superclass = superclass;
+		}
+	}
+
+	ReplSession(Interpreter interpreter){
+		this.interpreter = interpreter;
+		this.reporter = interpreter.reporter;
+		this.compiler = new Interpreter(reporter);
+		this.resolver = new Resolver(compiler);
+	}
+
+	void run(IncrementalParser entry) {
+		/* Runs one entry, which may span several lines. Errors go to the interpreter's reporter,
+		 * which the caller resets. Runtime errors give lines counted from the start of the
+		 * statement they're in (see IncrementalParser). */
+		entry.report(reporter);
+		if (reporter.hadError) return;
+		List<Stmt> statements = entry.statements();
+
+		List<Stmt> changed = new ArrayList<>();
+		Map<Stmt, byte[]> trees = new HashMap<>();
+		for (Stmt statement : statements) {
+			Token name = declared(statement);
+			if (name != null) {
+				// Encoded before it's resolved, so two declarations compare by their text alone
+				byte[] tree = encode(statement);
+				if (unchanged(name.symbol, statement, tree)) continue;
+				trees.put(statement, tree);
+			} else if (statement instanceof Stmt.Var) {
+				definitions.remove(((Stmt.Var)statement).name.symbol);
+			}
+			changed.add(statement);
+		}
+
+		resolver.resolve(changed);
+		if (reporter.hadError) {
+			compiler.resolutions().clear();
+			return;
+		}
+		List<Stmt> fused = new Fuser(compiler).fuse(changed);
+		Map<Expr, Integer> locals = new HashMap<>(compiler.resolutions());
+		compiler.resolutions().clear();
+
+		// A statement at a time, so the table only takes in declarations that were run.
+		// The flag is left set by an earlier entry's runtime error, and reset() only clears hadError.
+		reporter.hadRuntimeError = false;
+		for (int i = 0; i < fused.size(); i++) {
+			Stmt statement = fused.get(i);
+			interpreter.interpret(Program.of(Collections.singletonList(statement), locals));
+			if (reporter.hadRuntimeError) return;
+			Token name = declared(statement);
+			if (name != null) record(name.symbol, trees.get(changed.get(i)));
+		}
+	}
+
+	private static Token declared(Stmt statement) {
+		if (statement instanceof Stmt.Function) return ((Stmt.Function)statement).name;
+		if (statement instanceof Stmt.Class) return ((Stmt.Class)statement).name;
+		return null;
+	}
+
+	private byte[] encode(Stmt statement) {
+		AstOutput out = new AstOutput();
+		new AstCodec(out, compiler).writeStmt(statement);
+		return out.toByteArray();
+	}
+
+	private boolean unchanged(Symbol name, Stmt statement, byte[] tree) {
+		Definition definition = definitions.get(name);
+		if (definition == null || !Arrays.equals(definition.tree, tree)) return false;
+		if (current(name) != definition.value) return false;
+
+		// The same class under a superclass that's been redefined since is a different class.
+		if (statement instanceof Stmt.Class && ((Stmt.Class)statement).superclass != null) {
+			return current(((Stmt.Class)statement).superclass.name.symbol) == definition.superclass;
+		}
+		return true;
+	}
+
+	private void record(Symbol name, byte[] tree) {
+		Object value = current(name);
+		Object superclass = value instanceof LoxClass ? ((LoxClass)value).superclass : null;
+		definitions.put(name, new Definition(tree, value, superclass));
+	}
+
+	private Object current(Symbol name) {
+		return interpreter.globals.values().get(name);
+	}
+}
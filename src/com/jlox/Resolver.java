@@ -36,9 +36,10 @@ import com.jlox.Stmt.While;
 public class Resolver implements Visitor<Void>, com.jlox.Stmt.Visitor<Void> {
 	
 	private final Interpreter interpreter;
+	private final ErrorReporter reporter;
 	/*The scopes stack stores only local block scopes, i.e. not the
 	 * global scope.*/
-	private Stack<Map<String, Boolean>> scopes = new Stack<>();
+	private Stack<Map<Symbol, Boolean>> scopes = new Stack<>();
 	private Map<Token, Boolean> localsUsed = new HashMap<>();
 	private FunctionType currentFunction = FunctionType.NONE;
 	private ClassType currentClass = ClassType.NONE;
@@ -58,7 +59,29 @@ public class Resolver implements Visitor<Void>, com.jlox.Stmt.Visitor<Void> {
 	}
 	
 	Resolver(Interpreter interpreter){
+		// Errors go wherever the program's runtime errors will
+		this(interpreter, interpreter.reporter);
+	}
+	
+	Resolver(Interpreter interpreter, ErrorReporter reporter){
 		this.interpreter = interpreter;
+		this.reporter = reporter;
+	}
+	
+	private Resolver(Resolver resolver, ErrorReporter reporter) {
+		/* A snapshot of a resolver part way through, for resolving a LazyBody later. */
+		this.interpreter = resolver.interpreter;
+		this.reporter = reporter;
+		for (Map<Symbol, Boolean> scope : resolver.scopes) {
+			scopes.push(new HashMap<>(scope));
+		}
+		this.currentFunction = resolver.currentFunction;
+		this.currentClass = resolver.currentClass;
+	}
+
+	Resolver reportingTo(ErrorReporter reporter) {
+		/* A copy of this one, as it is now, which reports its errors somewhere else. */
+		return new Resolver(this, reporter);
 	}
 
 	void resolve(List<Stmt> stmts) {
@@ -67,7 +90,7 @@ public class Resolver implements Visitor<Void>, com.jlox.Stmt.Visitor<Void> {
 		}
 	}
 	
-	private void resolve(Stmt stmt) {
+	void resolve(Stmt stmt) {
 		stmt.accept(this);
 	}
 
@@ -84,13 +107,18 @@ public class Resolver implements Visitor<Void>, com.jlox.Stmt.Visitor<Void> {
 			declare(param);
 			define(param);
 		}
-		resolve(stmt.body);
+		if (stmt.body instanceof LazyBody) {
+			// Resolved when the body is first parsed, in a copy of the scopes as they are now.
+			((LazyBody)stmt.body).defer(new Resolver(this, reporter), interpreter);
+		} else {
+			resolve(stmt.body);
+		}
 		endScope();
 		currentFunction = enclosingFunction;
 	}
 	
 	private void beginScope() {
-		scopes.push(new HashMap<String, Boolean>());
+		scopes.push(new HashMap<Symbol, Boolean>());
 		localsUsed.clear();
 	}
 	
@@ -99,7 +127,7 @@ public class Resolver implements Visitor<Void>, com.jlox.Stmt.Visitor<Void> {
 		for (Token local : localsUsed.keySet()) {
 			if (localsUsed.get(local) == false) {
 				//Doesn't work
-				//Lox.error(local, "Unused local variable: '" + local.lexeme + "'");
+				//reporter.error(local, "Unused local variable: '" + local.lexeme + "'");
 			}
 		}
 	}
@@ -107,26 +135,26 @@ public class Resolver implements Visitor<Void>, com.jlox.Stmt.Visitor<Void> {
 	private void declare(Token name) {
 		if (scopes.isEmpty()) return;
 		
-		Map<String, Boolean> scope = scopes.peek();
-		if (scope.containsKey(name.lexeme)) {
-			Lox.error(name, "Already a variable with this name in this scope.");
+		Map<Symbol, Boolean> scope = scopes.peek();
+		if (scope.containsKey(name.symbol)) {
+			reporter.error(name, "Already a variable with this name in this scope.");
 		}
 		
 		/*setting the value to false marks the identifier as 'not ready',
 		 * i.e. its initializer is not resolved, or it is declared but
 		 * not yet defined.*/
-		scope.put(name.lexeme, false);
+		scope.put(name.symbol, false);
 		localsUsed.put(name, false);
 	}
 	
 	private void define(Token name) {
 		if(scopes.isEmpty()) return;
-		scopes.peek().put(name.lexeme, true);
+		scopes.peek().put(name.symbol, true);
 	}
 	
 	private void resolveLocal(Expr expr, Token name) {
 		for(int i = scopes.size() - 1; i >= 0; i--) {
-			if (scopes.get(i).containsKey(name.lexeme)) {
+			if (scopes.get(i).containsKey(name.symbol)) {
 				interpreter.resolve(expr, scopes.size() - 1 - i);
 				localsUsed.put(name, true);
 				return;
@@ -149,8 +177,8 @@ public class Resolver implements Visitor<Void>, com.jlox.Stmt.Visitor<Void> {
 		declare(stmt.name);
 		define(stmt.name);
 		
-		if (stmt.superclass != null && stmt.name.lexeme.equals(stmt.superclass.name.lexeme)) {
-			Lox.error(stmt.superclass.name, "A class can't inherit from itself.");
+		if (stmt.superclass != null && stmt.name.symbol == stmt.superclass.name.symbol) {
+			reporter.error(stmt.superclass.name, "A class can't inherit from itself.");
 		}
 		
 		if (stmt.superclass != null) {
@@ -165,7 +193,7 @@ public class Resolver implements Visitor<Void>, com.jlox.Stmt.Visitor<Void> {
 	
 		if (stmt.superclass != null) {
 			beginScope();
-			scopes.peek().put("super", true);
+			scopes.peek().put(SymbolTable.SUPER, true);
 		}
 		
 		beginScope();
@@ -183,11 +211,11 @@ public class Resolver implements Visitor<Void>, com.jlox.Stmt.Visitor<Void> {
 		
 		/*We declare 'this' as an implicit field of the class in its
 		 * own scope which is a closure for the class's methods.*/
-		scopes.peek().put("this", true);
+		scopes.peek().put(SymbolTable.THIS, true);
 		
 		for (Stmt.Function method : stmt.methods) {
 			FunctionType declaration = FunctionType.METHOD;
-			if (method.name.lexeme.equals("init")) {
+			if (method.name.symbol == SymbolTable.INIT) {
 				declaration = FunctionType.INITIALIZER;
 			}
 			resolveFunction(method, declaration);
@@ -243,10 +271,10 @@ public class Resolver implements Visitor<Void>, com.jlox.Stmt.Visitor<Void> {
 	@Override
 	public Void visitReturnStmt(Return stmt) {
 		if (currentFunction == FunctionType.NONE) {
-			Lox.error(stmt.keyword, "Can't return from top-level code.");
+			reporter.error(stmt.keyword, "Can't return from top-level code.");
 		}
 		else if (currentFunction == FunctionType.INITIALIZER) {
-			Lox.error(stmt.keyword, "Can't return a value from an initializer.");
+			reporter.error(stmt.keyword, "Can't return a value from an initializer.");
 		}
 		
 		if (stmt.value != null) {
@@ -278,6 +306,16 @@ public class Resolver implements Visitor<Void>, com.jlox.Stmt.Visitor<Void> {
 		return null;
 	}
 
+	@Override
+	public Void visitImportStmt(Stmt.Import stmt) {
+		/* A module's names are bound into the globals, so it can only be imported where
+		 * they're in scope as globals. */
+		if (!scopes.isEmpty()) {
+			reporter.error(stmt.keyword, "Can only import at the top level.");
+		}
+		return null;
+	}
+
 	@Override
 	public Void visitTernaryExpr(Ternary expr) {
 		resolve(expr.cond);
@@ -353,10 +391,10 @@ public class Resolver implements Visitor<Void>, com.jlox.Stmt.Visitor<Void> {
 	@Override
 	public Void visitSuperExpr(Super expr) {
 		if (currentClass == ClassType.NONE) {
-			Lox.error(expr.keyword, "Cannot use 'super' keyword outside of a class.");
+			reporter.error(expr.keyword, "Cannot use 'super' keyword outside of a class.");
 		}
 		else if (currentClass != ClassType.SUBCLASS) {
-			Lox.error(expr.keyword, "Cannot use 'super' keyword inside a class with no superclass.");
+			reporter.error(expr.keyword, "Cannot use 'super' keyword inside a class with no superclass.");
 		}
 		resolveLocal(expr, expr.keyword);
 		return null;
@@ -365,7 +403,7 @@ public class Resolver implements Visitor<Void>, com.jlox.Stmt.Visitor<Void> {
 	@Override
 	public Void visitThisExpr(This expr) {
 		if (currentClass == ClassType.NONE) {
-			Lox.error(expr.keyword, "Cannot use 'this' keyword outside of a class.");
+			reporter.error(expr.keyword, "Cannot use 'this' keyword outside of a class.");
 			return null;
 		}
 		resolveLocal(expr, expr.keyword);
@@ -380,8 +418,8 @@ public class Resolver implements Visitor<Void>, com.jlox.Stmt.Visitor<Void> {
 
 	@Override
 	public Void visitVariableExpr(Variable expr) {
-		if (!scopes.isEmpty() && scopes.peek().get(expr.name.lexeme) == Boolean.FALSE) {
-			Lox.error(expr.name, "Can't read local variable in its own initializer.");
+		if (!scopes.isEmpty() && scopes.peek().get(expr.name.symbol) == Boolean.FALSE) {
+			reporter.error(expr.name, "Can't read local variable in its own initializer.");
 		}
 		
 		resolveLocal(expr, expr.name);
@@ -401,4 +439,33 @@ public class Resolver implements Visitor<Void>, com.jlox.Stmt.Visitor<Void> {
 		return null;
 	}
 
+	/* The fused nodes are only created by the Fuser once resolution is done, but
+	 * resolving them again is harmless. */
+
+	@Override
+	public Void visitIncrementExpr(Expr.Increment expr) {
+		resolve(expr.variable);
+		resolveLocal(expr.original, expr.original.name);
+		return null;
+	}
+
+	@Override
+	public Void visitCompareExpr(Expr.Compare expr) {
+		resolve(expr.left);
+		resolve(expr.right);
+		return null;
+	}
+
+	@Override
+	public Void visitSetThisExpr(Expr.SetThis expr) {
+		resolve(expr.value);
+		resolve(expr.keyword);
+		return null;
+	}
+
+	@Override
+	public Void visitGetFieldExpr(Expr.GetField expr) {
+		resolve(expr.object);
+		return null;
+	}
 }
@@ -0,0 +1,108 @@
+package com.jlox;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+final class RingBuffer<T> implements Iterator<T> {
+
+	/* A bounded, lock-free queue between exactly one producer thread and one consumer thread.
+	 *
+	 * The producer only ever writes tail and the consumer only ever writes head, so each side
+	 * publishes its position with a release store (lazySet) and no locks or CAS are needed. Each
+	 * side also keeps a cached copy of the other's position and only re-reads it when the buffer
+	 * looks full (or empty). A side with nothing to do spins briefly, then yields, then parks.
+	 *
+	 * Either side may give up: the producer with fail(), after which the consumer's hasNext()
+	 * throws, and the consumer with abandon(), after which a put() that has to wait throws.
+	 * */
+
+	private final Object[] items;
+	private final int mask;
+	private final AtomicLong head = new AtomicLong();
+	private final AtomicLong tail = new AtomicLong();
+	private volatile boolean closed = false;
+	private volatile Throwable failure = null;
+	private volatile boolean abandoned = false;
+
+	// Owned by the producer
+	private long cachedHead = 0;
+	// Owned by the consumer
+	private long cachedTail = 0;
+
+	RingBuffer(int capacity) {
+		// Rounded up to a power of two, so positions wrap with a mask.
+		int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+		items = new Object[size];
+		mask = size - 1;
+	}
+
+	void put(T item) {
+		long position = tail.get();
+		int spins = 0;
+		while (position - cachedHead == items.length) {
+			if (abandoned) throw new IllegalStateException("Nothing takes from this buffer any more.");
+			cachedHead = head.get();
+			if (position - cachedHead == items.length) idle(spins++);
+		}
+		items[(int)position & mask] = item;
+		tail.lazySet(position + 1);
+	}
+
+	void close() {
+		/* Called by the producer after its last put. */
+		closed = true;
+	}
+
+	void fail(Throwable cause) {
+		/* Called by the producer if it dies, so the consumer doesn't wait forever. */
+		failure = cause;
+		closed = true;
+	}
+
+	void abandon() {
+		/* Called by the consumer if it stops taking items, so the producer doesn't wait forever. */
+		abandoned = true;
+	}
+
+	@Override
+	public boolean hasNext() {
+		long position = head.get();
+		int spins = 0;
+		while (position == cachedTail) {
+			// Read closed before tail, so everything put before close() is seen.
+			boolean done = closed;
+			cachedTail = tail.get();
+			if (position != cachedTail) break;
+			if (done) {
+				if (failure != null) throw new RuntimeException(failure);
+				return false;
+			}
+			idle(spins++);
+		}
+		return true;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public T next() {
+		if (!hasNext()) throw new NoSuchElementException();
+		long position = head.get();
+		int index = (int)position & mask;
+		T item = (T)items[index];
+		items[index] = null;
+		head.lazySet(position + 1);
+		return item;
+	}
+
+	private static void idle(int spins) {
+		if (spins < 64) {
+			Thread.onSpinWait();
+		} else if (spins < 128) {
+			Thread.yield();
+		} else {
+			LockSupport.parkNanos(50_000);
+		}
+	}
+}
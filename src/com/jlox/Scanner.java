@@ -1,93 +1,310 @@
 package com.jlox;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import com.jlox.runtime.NumberParser;
 
 import static com.jlox.TokenType.*;
 
-class Scanner {
+class Scanner implements Iterator<Token> {
 	
 	/*A class to scan the input source given as a string and return a list of tokens.
+	 * 
+	 * The scanner can also be used as a pull iterator, producing one token at a time,
+	 * so that the whole token list never has to be held in memory at once.
 	 * */
 
-	private final String source;
+	private final CharSequence source;
+	private final ErrorReporter reporter;
 	private final List<Token> tokens = new ArrayList<>();
+	private Token pending = null;
+	private TokenBuffer buffer = null;
+	private boolean reachedEnd = false;
+	private final int end;
 	private int start = 0;
 	private int current = 0;
 	private int line = 1;
-	private static final Map<String, TokenType> keywords;
+	
+	// Sources shorter than this aren't worth splitting up for parallel lexing
+	static final int PARALLEL_THRESHOLD = 1 << 22;
+	private static final int MIN_CHUNK = 1 << 20;
+	
+	/* Character classes for the ASCII range, used to dispatch on the first character of a
+	 * lexeme with a single table lookup. Anything outside ASCII takes the slow path. */
+	private static final byte OTHER = 0;
+	private static final byte WHITESPACE = 1;
+	private static final byte NEWLINE = 2;
+	private static final byte DIGIT = 3;
+	private static final byte ALPHA = 4;
+	private static final byte SINGLE = 5;
+	private static final byte ONE_OR_TWO = 6;
+	private static final byte SLASH_CHAR = 7;
+	private static final byte QUOTE = 8;
+	
+	private static final byte[] charClass = new byte[128];
+	// The token for a single character, and for the same character followed by '='
+	private static final TokenType[] singleTokens = new TokenType[128];
+	private static final TokenType[] equalTokens = new TokenType[128];
+	// The fixed lexeme for every token type that has one, so those tokens need no substring
+	private static final String[] lexemes = new String[TokenType.values().length];
 	static {
-		keywords = new HashMap<String, TokenType>();
-		keywords.put("and", AND);
-		keywords.put("break", BREAK);
-		keywords.put("class", CLASS);
-		keywords.put("else", ELSE);
-		keywords.put("false", FALSE);
-		keywords.put("for", FOR);
-		keywords.put("fun", FUN);
-		keywords.put("if", IF);
-		keywords.put("nil", NIL);
-		keywords.put("or", OR);
-		keywords.put("print", PRINT);
-		keywords.put("return", RETURN);
-		keywords.put("super", SUPER);
-		keywords.put("this", THIS);
-		keywords.put("true", TRUE);
-		keywords.put("var", VAR);
-		keywords.put("while", WHILE);
-	}
-	
-	Scanner (String source){
+		for (char c = 'a'; c <= 'z'; c++) charClass[c] = ALPHA;
+		for (char c = 'A'; c <= 'Z'; c++) charClass[c] = ALPHA;
+		for (char c = '0'; c <= '9'; c++) charClass[c] = DIGIT;
+		charClass[' '] = WHITESPACE;
+		charClass['\r'] = WHITESPACE;
+		charClass['\t'] = WHITESPACE;
+		charClass['\n'] = NEWLINE;
+		charClass['/'] = SLASH_CHAR;
+		charClass['"'] = QUOTE;
+		
+		single('(', LEFT_PAREN);
+		single(')', RIGHT_PAREN);
+		single('{', LEFT_BRACE);
+		single('}', RIGHT_BRACE);
+		single(',', COMMA);
+		single('.', DOT);
+		single('-', MINUS);
+		single('+', PLUS);
+		single(';', SEMICOLON);
+		single('*', STAR);
+		single('?', QMARK);
+		single(':', COLON);
+		
+		oneOrTwo('!', BANG, BANG_EQUAL);
+		oneOrTwo('<', LESS, LESS_EQUAL);
+		oneOrTwo('>', GREATER, GREATER_EQUAL);
+		oneOrTwo('=', EQUAL, EQUAL_EQUAL);
+		lexemes[SLASH.ordinal()] = "/";
+		
+		// Keyword lexemes are the lower case names of their token types
+		for (TokenType type : new TokenType[] {AND, BREAK, CLASS, ELSE, FALSE, FOR, FUN, IF, IMPORT, NIL, OR,
+				PRINT, RETURN, SUPER, THIS, TRUE, VAR, WHILE}) {
+			lexemes[type.ordinal()] = type.name().toLowerCase();
+		}
+	}
+	
+	private static void single(char c, TokenType type) {
+		charClass[c] = SINGLE;
+		singleTokens[c] = type;
+		lexemes[type.ordinal()] = String.valueOf(c);
+	}
+	
+	private static void oneOrTwo(char c, TokenType one, TokenType two) {
+		charClass[c] = ONE_OR_TWO;
+		singleTokens[c] = one;
+		equalTokens[c] = two;
+		lexemes[one.ordinal()] = String.valueOf(c);
+		lexemes[two.ordinal()] = c + "=";
+	}
+	
+	Scanner (CharSequence source){
+		this(source, Lox.reporter);
+	}
+	
+	Scanner (CharSequence source, ErrorReporter reporter){
+		this.source = source;
+		this.end = source.length();
+		this.reporter = reporter;
+	}
+	
+	Scanner(CharSequence source, int from, ErrorReporter reporter) {
+		/* Starts scanning at a lexeme boundary part way through the source, counting lines from
+		 * there. */
+		this(source, from, source.length(), 1, reporter);
+	}
+	
+	private Scanner(CharSequence source, int from, int to, int line, ErrorReporter reporter) {
+		/* A scanner for one chunk of a larger source, starting on the given line. */
 		this.source = source;
+		this.end = to;
+		this.current = from;
+		this.line = line;
+		this.reporter = reporter;
 	}
 	
 	List<Token> scanTokens(){
-		// In each cycle of this loop, we scan one token.
+		while (hasNext()) {
+			tokens.add(next());
+		}
+		return tokens;
+	}
+	
+	TokenBuffer scanBuffer() {
+		/* Scans the whole source into a compact TokenBuffer instead of Token objects. */
+		buffer = new TokenBuffer(source);
 		while (!isAtEnd()) {
-			// We are at beginning of the next lexeme
 			start = current;
 			scanToken();
 		}
 		
-		tokens.add(new Token(EOF, "", null, line));
+		buffer.add(EOF, current, 0, line, 0);
+		reachedEnd = true;
+		return buffer;
+	}
+	
+	int tokenStart() {
+		/* Where the token last returned by next() starts, or the end of the source for EOF. */
+		return reachedEnd ? current : start;
+	}
+	
+	int tokenLine() {
+		/* The line the token last returned by next() starts on. A multi-line string's token
+		 * carries the line it ends on. */
+		int startLine = line;
+		for (int i = tokenStart(); i < current; i++) {
+			if (source.charAt(i) == '\n') startLine--;
+		}
+		return startLine;
+	}
+	
+	static TokenBuffer scanParallel(CharSequence source) {
+		return scanParallel(source, Lox.reporter);
+	}
+	
+	static TokenBuffer scanParallel(CharSequence source, ErrorReporter reporter) {
+		/* Splits a large source into chunks and lexes them concurrently.
+		 * 
+		 * A quick pre-pass finds newlines that are outside strings and comments. No token can span
+		 * one of those, so each chunk can be scanned on its own, starting on the line the pre-pass
+		 * counted up to. The chunks' tokens are then stitched together in order.
+		 * */
+		int length = source.length();
+		int chunkSize = Math.max(MIN_CHUNK, length / (ForkJoinPool.getCommonPoolParallelism() * 4));
+		
+		List<int[]> chunks = new ArrayList<>();
+		int from = 0;
+		int fromLine = 1;
+		int line = 1;
+		int i = 0;
+		while (i < length) {
+			char c = source.charAt(i++);
+			switch (c) {
+				case '\n':
+					line++;
+					if (i - from >= chunkSize) {
+						chunks.add(new int[] {from, i, fromLine});
+						from = i;
+						fromLine = line;
+					}
+					break;
+				case '"':
+					while (i < length && source.charAt(i) != '"') {
+						if (source.charAt(i) == '\n') line++;
+						i++;
+					}
+					if (i < length) i++;
+					break;
+				case '/':
+					if (i < length && source.charAt(i) == '/') {
+						while (i < length && source.charAt(i) != '\n') i++;
+					} else if (i < length && source.charAt(i) == '*') {
+						// Mirrors the way scanToken() skips a multi-line comment
+						i++;
+						while (true) {
+							boolean star = i < length && source.charAt(i) == '*';
+							if (star) i++;
+							if (star && i < length && source.charAt(i) == '/') break;
+							if (i >= length) break;
+							i++;
+						}
+					}
+					break;
+			}
+		}
+		chunks.add(new int[] {from, length, fromLine});
+		
+		List<ForkJoinTask<Scanner>> tasks = new ArrayList<>();
+		for (int[] chunk : chunks) {
+			tasks.add(ForkJoinPool.commonPool().submit(() -> {
+				// Errors are held back, so they can be reported in source order.
+				Scanner scanner = new Scanner(source, chunk[0], chunk[1], chunk[2], reporter.deferred());
+				scanner.buffer = new TokenBuffer(source);
+				while (!scanner.isAtEnd()) {
+					scanner.start = scanner.current;
+					scanner.scanToken();
+				}
+				return scanner;
+			}));
+		}
+		
+		List<Scanner> scanners = new ArrayList<>();
+		int count = 1;
+		for (ForkJoinTask<Scanner> task : tasks) {
+			Scanner scanner = task.join();
+			scanners.add(scanner);
+			count += scanner.buffer.size();
+		}
+		
+		TokenBuffer tokens = new TokenBuffer(source, count);
+		for (Scanner scanner : scanners) {
+			tokens.append(scanner.buffer);
+			reporter.replay(scanner.reporter);
+		}
+		tokens.add(EOF, length, 0, scanners.get(scanners.size() - 1).line, 0);
 		return tokens;
 	}
 	
+	@Override
+	public boolean hasNext() {
+		return !reachedEnd;
+	}
+	
+	@Override
+	public Token next() {
+		if (reachedEnd) throw new NoSuchElementException();
+		
+		// In each cycle of this loop, we scan one lexeme, which may or may not produce a token.
+		while (!isAtEnd()) {
+			// We are at beginning of the next lexeme
+			start = current;
+			scanToken();
+			if (pending != null) {
+				Token token = pending;
+				pending = null;
+				return token;
+			}
+		}
+		
+		reachedEnd = true;
+		return new Token(EOF, "", null, line);
+	}
+	
 	private void scanToken() {
 		char c = advance();
-		switch (c) {
-			// Starting with single-character lexemes
-			case '(': addToken(LEFT_PAREN); break;
-			case ')': addToken(RIGHT_PAREN); break;
-			case '{': addToken(LEFT_BRACE); break;
-			case '}': addToken(RIGHT_BRACE); break;
-			case ',': addToken(COMMA); break;
-			case '.': addToken(DOT); break;
-			case '-': addToken(MINUS); break;
-			case '+': addToken(PLUS); break;
-			case ';': addToken(SEMICOLON); break;
-			case '*': addToken(STAR); break;
-			case '?': addToken(QMARK); break;
-			case ':': addToken(COLON); break;
-			
-			// Two-character lexemes
-			case '!': 
-				addToken(match('=')? BANG_EQUAL : BANG);
+		if (c >= 128) {
+			// Unicode slow path, only letters can start a lexeme here
+			if (isAlpha(c)) {
+				identifier();
+			} else {
+				reporter.error(line, "Unexpected character.");
+			}
+			return;
+		}
+		
+		switch (charClass[c]) {
+			// Ignore whitespace
+			case WHITESPACE:
 				break;
-			case '<':
-				addToken(match('=')? LESS_EQUAL : LESS);
+			case NEWLINE:
+				// Move on a line when encountering the newline character
+				line++;
 				break;
-			case '>':
-				addToken(match('=')? GREATER_EQUAL : GREATER);
+				
+			case SINGLE:
+				addToken(singleTokens[c]);
 				break;
-			case '=':
-				addToken(match('=')? EQUAL_EQUAL : EQUAL);
+			case ONE_OR_TWO:
+				addToken(match('=')? equalTokens[c] : singleTokens[c]);
 				break;
 				
 			// Handling '/'
-			case '/':
+			case SLASH_CHAR:
 				if (match('/')) {
 					// A comment goes until the end of the line
 					while (peek() != '\n' && !isAtEnd()) {
@@ -102,43 +319,80 @@ class Scanner {
 				else {
 					addToken(SLASH);
 				}
-				
-			// Ignore whitespace
-			case ' ':
-			case '\r':
-			case '\t':
-				break;
-			case '\n':
-				// Move on a line when encountering the newline character
-				line++;
 				break;
 				
 			// String literals
-			case '"': string(); break;
+			case QUOTE: string(); break;
+			
+			// Handling number literals
+			case DIGIT: number(); break;
+			
+			// Handling identifiers
+			case ALPHA: identifier(); break;
 			
 			// Unexpected character handling
 			default:
-				// Handling number literals
-				if (isDigit(c)) {
-					number();
-				} else if (isAlpha(c)) { 
-					// Handling identifiers
-					identifier();
-				} else {		
-					Lox.error(line, "Unexpected character.");
-				}
+				reporter.error(line, "Unexpected character.");
 				break;
 		}
 		
 	}
 	
 	private void identifier() {
-		while(isAlphaNumeric(peek())) advance();
-		String text = source.substring(start, current);
-		TokenType type = keywords.get(text);
-		if (type == null) type = IDENTIFIER;
-		
-		addToken(type);
+		while(current < end && isAlphaNumeric(source.charAt(current))) current++;
+		addToken(keyword());
+	}
+	
+	private TokenType keyword() {
+		/* Recognises keywords with a trie over the characters of the lexeme, so that
+		 * no substring has to be made to look them up. */
+		switch (source.charAt(start)) {
+			case 'a': return checkKeyword(1, "nd", AND);
+			case 'b': return checkKeyword(1, "reak", BREAK);
+			case 'c': return checkKeyword(1, "lass", CLASS);
+			case 'e': return checkKeyword(1, "lse", ELSE);
+			case 'f':
+				if (current - start > 1) {
+					switch (source.charAt(start + 1)) {
+						case 'a': return checkKeyword(2, "lse", FALSE);
+						case 'o': return checkKeyword(2, "r", FOR);
+						case 'u': return checkKeyword(2, "n", FUN);
+					}
+				}
+				break;
+			case 'i':
+				if (current - start > 1) {
+					switch (source.charAt(start + 1)) {
+						case 'f': return checkKeyword(2, "", IF);
+						case 'm': return checkKeyword(2, "port", IMPORT);
+					}
+				}
+				break;
+			case 'n': return checkKeyword(1, "il", NIL);
+			case 'o': return checkKeyword(1, "r", OR);
+			case 'p': return checkKeyword(1, "rint", PRINT);
+			case 'r': return checkKeyword(1, "eturn", RETURN);
+			case 's': return checkKeyword(1, "uper", SUPER);
+			case 't':
+				if (current - start > 1) {
+					switch (source.charAt(start + 1)) {
+						case 'h': return checkKeyword(2, "is", THIS);
+						case 'r': return checkKeyword(2, "ue", TRUE);
+					}
+				}
+				break;
+			case 'v': return checkKeyword(1, "ar", VAR);
+			case 'w': return checkKeyword(1, "hile", WHILE);
+		}
+		return IDENTIFIER;
+	}
+	
+	private TokenType checkKeyword(int offset, String rest, TokenType type) {
+		if (current - start != offset + rest.length()) return IDENTIFIER;
+		for (int i = 0; i < rest.length(); i++) {
+			if (source.charAt(start + offset + i) != rest.charAt(i)) return IDENTIFIER;
+		}
+		return type;
 	}
 
 	private void number() {
@@ -150,7 +404,12 @@ class Scanner {
 			// Consume fractional part
 			while(isDigit(peek())) advance();
 		}		
-		addToken(NUMBER, Double.parseDouble(source.substring(start, current)));
+		double value = NumberParser.parse(source, start, current);
+		if (buffer != null) {
+			buffer.add(NUMBER, start, current - start, line, value);
+		} else {
+			addToken(NUMBER, value);
+		}
 	}
 
 	private void string() {
@@ -160,15 +419,20 @@ class Scanner {
 		}
 		
 		if (isAtEnd()) {
-			Lox.error(line, "Unterminated string.");
+			reporter.error(line, "Unterminated string.");
 			return;
 		}
 		
 		// To close the string
 		advance();
 		
+		if (buffer != null) {
+			addToken(STRING);
+			return;
+		}
+		
 		// Trim the surrounding quotes
-		String value = source.substring(start + 1, current - 1);
+		String value = source.subSequence(start + 1, current - 1).toString();
 		addToken(STRING, value);
 		return;
 	}
@@ -190,16 +454,21 @@ class Scanner {
 	
 	private char peekNext() {
 		/* A function to provide a second character of lookahead*/
-		if (current + 1 >= source.length()) return '\0';
+		if (current + 1 >= end) return '\0';
 		return source.charAt(current + 1);
 	}
 	
 	private boolean isAlpha(char c) {
+		if (c < 128) return charClass[c] == ALPHA;
 		return Character.isLetter(c);
 	}
 	
 	private boolean isAlphaNumeric(char c) {
-		return isAlpha(c) || isDigit(c);
+		if (c < 128) {
+			byte kind = charClass[c];
+			return kind == ALPHA || kind == DIGIT;
+		}
+		return Character.isLetter(c);
 	}
 	
 	private boolean isDigit(char c) {
@@ -207,7 +476,7 @@ class Scanner {
 	}
 	
 	private boolean isAtEnd() {
-		return current >= source.length();
+		return current >= end;
 	}
 	
 	private char advance() {
@@ -220,7 +489,22 @@ class Scanner {
 	}
 	
 	private void addToken(TokenType type, Object literal) {
-		String text = source.substring(start, current);
-		tokens.add(new Token(type, text, literal, line));
+		if (buffer != null) {
+			// String literals are sliced out of the source by the buffer when asked for.
+			buffer.add(type, start, current - start, line, 0);
+			return;
+		}
+		String text = lexemes[type.ordinal()];
+		Symbol symbol = null;
+		if (type == IDENTIFIER) {
+			// Identifiers are interned, and share the interned name as their lexeme
+			symbol = SymbolTable.intern(source, start, current);
+			text = symbol.name;
+		} else if (Token.isNamed(type)) {
+			symbol = SymbolTable.intern(text);
+		} else if (text == null) {
+			text = source.subSequence(start, current).toString();
+		}
+		pending = new Token(type, text, literal, line, symbol);
 	}
 }
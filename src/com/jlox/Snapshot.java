@@ -0,0 +1,379 @@
+package com.jlox;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+final class Snapshot {
+
+	/* An image of the interpreter just after a script's definitions have run (see --snapshot and
+	 * --from-snapshot), so that a script which starts with a large prelude of classes and
+	 * functions doesn't have to scan, parse, resolve or run any of it again.
+	 *
+	 * The definitions are the var, fun and class declarations at the top of the script, up to the
+	 * first statement of any other kind. What's written is every object reachable from the
+	 * globals: environments, classes, functions, lambdas and instances, along with the syntax
+	 * trees and resolved depths of the functions and lambdas, and then the rest of the script,
+	 * still to run. Natives such as clock are written by name, and bound to the same names again
+	 * when the image is read. Objects are written once each, so sharing (two functions closing
+	 * over one environment, say) and cycles (a function held by its own closure) survive.
+	 *
+	 * An image is laid out so that it can be read in a single pass, with no patching up: first
+	 * the syntax trees, then each object with only what its constructor needs, in an order where
+	 * it only refers to objects before it, and last the bindings, methods and fields of each
+	 * object. The image is memory-mapped to read it.
+	 *
+	 * What's left of starting up is the JVM's own work, most of which is loading and linking the
+	 * interpreter's classes. An AppCDS archive takes care of that: with the classes in a jar
+	 * (the JVM only archives classes from jars), run once with
+	 *     java -XX:ArchiveClassesAtExit=jlox.jsa -cp jlox.jar com.jlox.Lox --from-snapshot <image>
+	 * and from then on with -XX:SharedArchiveFile=jlox.jsa.
+	 * */
+
+	// Bump this when the layout below changes. The node format is AstCodec's own.
+	static final int VERSION = 1;
+	private static final int MAGIC = 0x4A4C5849; // JLXI
+
+	// Tags for values which aren't literals, following AstOutput's
+	private static final int FUNCTION = 5;
+	private static final int LAMBDA = 6;
+	private static final int CLASS = 7;
+	private static final int INSTANCE = 8;
+	private static final int NATIVE = 9;
+
+	private final Interpreter interpreter;
+	// The globals are always environment 0.
+	private final List<Environment> environments = new ArrayList<>();
+	private final List<LoxClass> classes = new ArrayList<>();
+	private final List<LoxFunction> functions = new ArrayList<>();
+	private final List<LoxLambda> lambdas = new ArrayList<>();
+	private final List<LoxInstance> instances = new ArrayList<>();
+	private final List<Stmt.Function> declarations = new ArrayList<>();
+	private final List<Expr.Lambda> lambdaDeclarations = new ArrayList<>();
+	// The index of each object and syntax tree in its list above
+	private final Map<Object, Integer> ids = new IdentityHashMap<>();
+	private final Map<Object, String> natives = new IdentityHashMap<>();
+	// Objects whose references haven't been followed yet
+	private final Deque<Object> pending = new ArrayDeque<>();
+
+	private Snapshot(Interpreter interpreter){
+		this.interpreter = interpreter;
+		environments.add(interpreter.globals);
+		ids.put(interpreter.globals, 0);
+	}
+
+	static int definitions(List<Stmt> statements) {
+		/* How many statements at the start of the list are definitions. */
+		int count = 0;
+		while (count < statements.size()) {
+			Stmt statement = statements.get(count);
+			if (!(statement instanceof Stmt.Var || statement instanceof Stmt.Function || statement instanceof Stmt.Class)) break;
+			count++;
+		}
+		return count;
+	}
+
+	static void write(Path image, List<Stmt> rest, Interpreter interpreter) throws IOException {
+		/* Writes the interpreter's globals and everything reachable from them, followed by the
+		 * statements still to run. */
+		Snapshot snapshot = new Snapshot(interpreter);
+		snapshot.collect();
+
+		AstOutput out = new AstOutput();
+		for (int shift = 24; shift >= 0; shift -= 8) out.writeByte(MAGIC >>> shift);
+		out.writeString(AstCodec.FORMAT);
+		out.writeInt(VERSION);
+		snapshot.write(out, rest);
+		Files.write(image, out.toByteArray());
+	}
+
+	static List<Stmt> read(Path image, Interpreter interpreter) throws IOException {
+		/* Brings the image's globals back into the interpreter's, and returns the statements
+		 * still to run. */
+		try (FileChannel channel = FileChannel.open(image, StandardOpenOption.READ)) {
+			MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			AstInput in = new AstInput(mapped);
+			if (mapped.getInt() != MAGIC || !in.readString().equals(AstCodec.FORMAT) || in.readInt() != VERSION) {
+				throw new IOException("Not a snapshot from this version of jlox: " + image);
+			}
+			List<Stmt> rest = new Snapshot(interpreter).read(in);
+			if (!in.atEnd()) throw new IOException("Malformed snapshot: " + image);
+			return rest;
+		} catch (RuntimeException e) {
+			throw new IOException("Malformed snapshot: " + image, e);
+		}
+	}
+
+	private void collect() {
+		for (Map.Entry<Symbol, Object> global : interpreter.globals.values().entrySet()) {
+			Object value = global.getValue();
+			if (value instanceof LoxCallable && !(value instanceof LoxFunction || value instanceof LoxLambda || value instanceof LoxClass)) {
+				natives.put(value, global.getKey().name);
+			}
+		}
+
+		pending.add(interpreter.globals);
+		while (!pending.isEmpty()) {
+			Object next = pending.poll();
+			if (next instanceof Environment) {
+				for (Object value : ((Environment)next).values().values()) reach(value);
+			} else if (next instanceof LoxFunction) {
+				LoxFunction function = (LoxFunction)next;
+				environment(function.closure);
+				declaration(function.declaration, declarations);
+			} else if (next instanceof LoxLambda) {
+				LoxLambda lambda = (LoxLambda)next;
+				environment(lambda.closure);
+				declaration(lambda.declaration, lambdaDeclarations);
+			} else {
+				if (next instanceof LoxClass) {
+					for (LoxFunction method : ((LoxClass)next).methods().values()) reach(method);
+				}
+				LoxInstance instance = (LoxInstance)next;
+				reach(instance.klass());
+				for (Object value : instance.fields().values()) reach(value);
+			}
+		}
+	}
+
+	private void reach(Object value) {
+		if (value == null || value instanceof Boolean || value instanceof Double || value instanceof String) return;
+		if (ids.containsKey(value) || natives.containsKey(value)) return;
+
+		if (value instanceof FlatFunction) {
+			throw new IllegalArgumentException("Can't snapshot " + value + " from a flat program.");
+		} else if (value instanceof LoxFunction) {
+			add(value, functions);
+		} else if (value instanceof LoxLambda) {
+			add(value, lambdas);
+		} else if (value instanceof LoxClass) {
+			// Its metaclass and superclass are made before it.
+			LoxClass klass = (LoxClass)value;
+			reach(klass.klass());
+			reach(klass.superclass);
+			add(value, classes);
+		} else if (value instanceof LoxInstance) {
+			add(value, instances);
+		} else {
+			throw new IllegalArgumentException("Can't snapshot " + value + ".");
+		}
+	}
+
+	private void environment(Environment environment) {
+		/* The environments enclosing one are made before it. */
+		if (ids.containsKey(environment)) return;
+		if (environment.enclosing == null) {
+			throw new IllegalArgumentException("Can't snapshot an environment from another interpreter.");
+		}
+		environment(environment.enclosing);
+		add(environment, environments);
+	}
+
+	@SuppressWarnings("unchecked")
+	private <T> void add(Object value, List<T> list) {
+		ids.put(value, list.size());
+		list.add((T)value);
+		pending.add(value);
+	}
+
+	private <T> void declaration(T node, List<T> list) {
+		if (ids.containsKey(node)) return;
+		ids.put(node, list.size());
+		list.add(node);
+	}
+
+	private void write(AstOutput out, List<Stmt> rest) {
+		AstCodec codec = new AstCodec(out, interpreter);
+		codec.writeStmts(declarations);
+		codec.writeExprs(lambdaDeclarations);
+
+		out.writeInt(environments.size() - 1);
+		for (Environment environment : environments.subList(1, environments.size())) {
+			out.writeInt(ids.get(environment.enclosing));
+		}
+		out.writeInt(classes.size());
+		for (LoxClass klass : classes) {
+			out.writeString(klass.name);
+			writeClass(out, klass.klass());
+			writeClass(out, klass.superclass);
+		}
+		out.writeInt(functions.size());
+		for (LoxFunction function : functions) {
+			out.writeInt(ids.get(function.declaration));
+			out.writeInt(ids.get(function.closure));
+			out.writeByte(function.isInitializer ? 1 : 0);
+		}
+		out.writeInt(lambdas.size());
+		for (LoxLambda lambda : lambdas) {
+			out.writeInt(ids.get(lambda.declaration));
+			out.writeInt(ids.get(lambda.closure));
+		}
+		out.writeInt(instances.size());
+		for (LoxInstance instance : instances) {
+			out.writeInt(ids.get(instance.klass()));
+		}
+
+		for (Environment environment : environments) {
+			writeBindings(out, environment.values());
+			out.writeInt(environment.declaredOnly().size());
+			for (Symbol name : environment.declaredOnly()) out.writeString(name.name);
+		}
+		for (LoxClass klass : classes) {
+			writeBindings(out, klass.methods());
+			writeBindings(out, klass.fields());
+		}
+		for (LoxInstance instance : instances) {
+			writeBindings(out, instance.fields());
+		}
+
+		codec.writeStmts(rest);
+	}
+
+	private void writeClass(AstOutput out, LoxClass klass) {
+		out.writeInt(klass == null ? 0 : ids.get(klass) + 1);
+	}
+
+	private void writeBindings(AstOutput out, Map<Symbol, ?> bindings) {
+		out.writeInt(bindings.size());
+		for (Map.Entry<Symbol, ?> binding : bindings.entrySet()) {
+			out.writeString(binding.getKey().name);
+			writeValue(out, binding.getValue());
+		}
+	}
+
+	private void writeValue(AstOutput out, Object value) {
+		if (value == null || value instanceof Boolean || value instanceof Double || value instanceof String) {
+			out.writeValue(value);
+			return;
+		}
+		String nativeName = natives.get(value);
+		if (nativeName != null) {
+			out.writeByte(NATIVE);
+			out.writeString(nativeName);
+			return;
+		}
+		if (value instanceof LoxFunction) {
+			out.writeByte(FUNCTION);
+		} else if (value instanceof LoxLambda) {
+			out.writeByte(LAMBDA);
+		} else if (value instanceof LoxClass) {
+			out.writeByte(CLASS);
+		} else {
+			out.writeByte(INSTANCE);
+		}
+		out.writeInt(ids.get(value));
+	}
+
+	private List<Stmt> read(AstInput in) {
+		/* The mirror image of write(). The depths of the syntax trees go to the interpreter as
+		 * they're read, and its depths are the ones every function and lambda uses. */
+		AstCodec codec = new AstCodec(in, interpreter);
+		for (Stmt declaration : codec.readStmts()) declarations.add((Stmt.Function)declaration);
+		for (Expr declaration : codec.readExprs()) lambdaDeclarations.add((Expr.Lambda)declaration);
+		Map<Expr, Integer> locals = interpreter.resolutions();
+
+		int count = in.readInt();
+		for (int i = 0; i < count; i++) {
+			environments.add(new Environment(environments.get(in.readInt())));
+		}
+		// The methods are filled in once every function exists.
+		List<Map<Symbol, LoxFunction>> methods = new ArrayList<>();
+		count = in.readInt();
+		for (int i = 0; i < count; i++) {
+			String name = in.readString();
+			LoxClass metaclass = readClass(in);
+			LoxClass superclass = readClass(in);
+			methods.add(new HashMap<>());
+			classes.add(new LoxClass(metaclass, superclass, name, methods.get(i)));
+		}
+		count = in.readInt();
+		for (int i = 0; i < count; i++) {
+			Stmt.Function declaration = declarations.get(in.readInt());
+			Environment closure = environments.get(in.readInt());
+			functions.add(new LoxFunction(declaration, closure, in.readByte() == 1, locals));
+		}
+		count = in.readInt();
+		for (int i = 0; i < count; i++) {
+			Expr.Lambda declaration = lambdaDeclarations.get(in.readInt());
+			lambdas.add(new LoxLambda(declaration, environments.get(in.readInt()), locals));
+		}
+		count = in.readInt();
+		for (int i = 0; i < count; i++) {
+			instances.add(new LoxInstance(classes.get(in.readInt())));
+		}
+
+		for (Environment environment : environments) {
+			readBindings(in, environment.values());
+			count = in.readInt();
+			for (int i = 0; i < count; i++) {
+				environment.declaredOnly().add(SymbolTable.intern(in.readString()));
+			}
+		}
+		for (int i = 0; i < classes.size(); i++) {
+			count = in.readInt();
+			for (int j = 0; j < count; j++) {
+				Symbol name = SymbolTable.intern(in.readString());
+				methods.get(i).put(name, (LoxFunction)readValue(in));
+			}
+			readBindings(in, classes.get(i).fields());
+		}
+		for (LoxInstance instance : instances) {
+			readBindings(in, instance.fields());
+		}
+
+		return codec.readStmts();
+	}
+
+	private LoxClass readClass(AstInput in) {
+		int id = in.readInt();
+		return id == 0 ? null : classes.get(id - 1);
+	}
+
+	private void readBindings(AstInput in, Map<Symbol, Object> bindings) {
+		int count = in.readInt();
+		for (int i = 0; i < count; i++) {
+			Symbol name = SymbolTable.intern(in.readString());
+			bindings.put(name, readValue(in));
+		}
+	}
+
+	private Object readValue(AstInput in) {
+		int tag = in.readByte();
+		switch (tag) {
+		case AstOutput.NIL:
+			return null;
+		case AstOutput.FALSE:
+			return false;
+		case AstOutput.TRUE:
+			return true;
+		case AstOutput.NUMBER:
+			return Double.longBitsToDouble(in.readLong());
+		case AstOutput.STRING:
+			return in.readString();
+		case FUNCTION:
+			return functions.get(in.readInt());
+		case LAMBDA:
+			return lambdas.get(in.readInt());
+		case CLASS:
+			return classes.get(in.readInt());
+		case INSTANCE:
+			return instances.get(in.readInt());
+		case NATIVE:
+			Object value = interpreter.globals.values().get(SymbolTable.intern(in.readString()));
+			if (!(value instanceof LoxCallable)) throw new IllegalStateException("Unknown native.");
+			return value;
+		default:
+			throw new IllegalStateException("Malformed value.");
+		}
+	}
+}
@@ -19,6 +19,7 @@ abstract class Stmt {
 	R visitVarStmt(Var stmt);
 	R visitWhileStmt(While stmt);
 	R visitBreakStmt(Break stmt);
+	R visitImportStmt(Import stmt);
 	}
 static class Block extends Stmt {
 
@@ -180,4 +181,20 @@ static class Break extends Stmt {
 		return visitor.visitBreakStmt(this);
 	}
 }
+static class Import extends Stmt {
+
+	final Token keyword;
+	final Token path;
+
+	Import (Token keyword, Token path) {
+		this.keyword = keyword;
+		this.path = path;
+
+	}
+
+	@Override
+	<R> R accept(Visitor<R> visitor){
+		return visitor.visitImportStmt(this);
+	}
+}
 }
@@ -0,0 +1,34 @@
+package com.jlox;
+
+final class Symbol {
+
+	/* An interned identifier. There is only ever one Symbol per name (see SymbolTable), so
+	 * symbols are compared by identity, and their hash is worked out once when interned. Runtime
+	 * maps are keyed by symbols rather than by lexeme strings.
+	 * */
+
+	final int id;
+	final String name;
+	private final int hash;
+
+	Symbol(int id, String name, int hash) {
+		this.id = id;
+		this.name = name;
+		this.hash = hash;
+	}
+
+	@Override
+	public int hashCode() {
+		return hash;
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		return this == other;
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+}
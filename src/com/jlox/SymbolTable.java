@@ -0,0 +1,125 @@
+package com.jlox;
+
+import java.lang.ref.WeakReference;
+
+final class SymbolTable {
+
+	/* The global table of interned identifiers, shared by every scanner and interpreter.
+	 *
+	 * Identifiers can be interned straight from a range of the source, so a name the table has
+	 * already seen costs no allocation at all. The table is open-addressed. Lookups of existing
+	 * symbols take no lock; inserts are synchronized and re-check the table once they hold the lock.
+	 *
+	 * Symbols are held weakly. A process that keeps compiling new code, like a daemon or a script
+	 * engine, would otherwise keep every name it had ever seen. Once nothing refers to a symbol it
+	 * can't be compared with anything, so it may as well go. A name seen again after that simply
+	 * gets a new one. A slot whose symbol has gone is reused by the next insert that passes it,
+	 * and the table is rebuilt with only the live symbols before it grows.
+	 * */
+
+	private static final float LOAD_FACTOR = 0.5f;
+	private static final int INITIAL_CAPACITY = 1024;
+
+	private static volatile WeakReference<?>[] table = new WeakReference<?>[INITIAL_CAPACITY];
+	// Slots in use, including those whose symbol has gone
+	private static int count = 0;
+	private static int nextId = 0;
+	
+	// Names the interpreter itself refers to
+	static final Symbol THIS = intern("this");
+	static final Symbol SUPER = intern("super");
+	static final Symbol INIT = intern("init");
+
+	private SymbolTable() {}
+
+	static Symbol intern(String name) {
+		return intern(name, 0, name.length());
+	}
+
+	static Symbol intern(CharSequence chars, int start, int end) {
+		// Same hash as String.hashCode(), so names interned either way agree
+		int hash = 0;
+		for (int i = start; i < end; i++) {
+			hash = 31 * hash + chars.charAt(i);
+		}
+
+		Symbol symbol = find(table, chars, start, end, hash);
+		if (symbol != null) return symbol;
+		return insert(chars, start, end, hash);
+	}
+
+	private static synchronized Symbol insert(CharSequence chars, int start, int end, int hash) {
+		WeakReference<?>[] slots = table;
+		Symbol symbol = find(slots, chars, start, end, hash);
+		if (symbol != null) return symbol;
+
+		if (count + 1 > slots.length * LOAD_FACTOR) {
+			// A new array, so lock-free readers of the old one are unaffected
+			slots = rebuild(slots);
+		}
+
+		symbol = new Symbol(nextId++, chars.subSequence(start, end).toString(), hash);
+		int mask = slots.length - 1;
+		int index = spread(hash) & mask;
+		WeakReference<?> slot;
+		while ((slot = slots[index]) != null && slot.get() != null) {
+			index = (index + 1) & mask;
+		}
+		if (slot == null) count++;
+		slots[index] = new WeakReference<>(symbol);
+		// Publish the (possibly new) array for lock-free readers
+		table = slots;
+		return symbol;
+	}
+
+	private static Symbol find(WeakReference<?>[] slots, CharSequence chars, int start, int end, int hash) {
+		int mask = slots.length - 1;
+		int index = spread(hash) & mask;
+		WeakReference<?> slot;
+		while ((slot = slots[index]) != null) {
+			Symbol symbol = (Symbol)slot.get();
+			if (symbol != null && symbol.hashCode() == hash && matches(symbol.name, chars, start, end)) {
+				return symbol;
+			}
+			index = (index + 1) & mask;
+		}
+		return null;
+	}
+
+	private static boolean matches(String name, CharSequence chars, int start, int end) {
+		if (name.length() != end - start) return false;
+		for (int i = 0; i < name.length(); i++) {
+			if (name.charAt(i) != chars.charAt(start + i)) return false;
+		}
+		return true;
+	}
+
+	private static WeakReference<?>[] rebuild(WeakReference<?>[] slots) {
+		/* Copies the live symbols into a new table, twice the size if they'd still fill half of
+		 * this one, otherwise the same size. */
+		int live = 0;
+		for (WeakReference<?> slot : slots) {
+			if (slot != null && slot.get() != null) live++;
+		}
+		int capacity = live + 1 > slots.length * LOAD_FACTOR / 2 ? slots.length * 2 : slots.length;
+
+		WeakReference<?>[] rebuilt = new WeakReference<?>[capacity];
+		int mask = rebuilt.length - 1;
+		count = 0;
+		for (WeakReference<?> slot : slots) {
+			Symbol symbol = slot == null ? null : (Symbol)slot.get();
+			if (symbol == null) continue;
+			int index = spread(symbol.hashCode()) & mask;
+			while (rebuilt[index] != null) {
+				index = (index + 1) & mask;
+			}
+			rebuilt[index] = slot;
+			count++;
+		}
+		return rebuilt;
+	}
+
+	private static int spread(int hash) {
+		return hash ^ (hash >>> 16);
+	}
+}
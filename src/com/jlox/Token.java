@@ -9,12 +9,23 @@ class Token {
 	final String lexeme;
 	final Object literal;
 	final int line;
+	// The interned name, for identifiers and the 'this' and 'super' keywords
+	final Symbol symbol;
 	
 	Token(TokenType type, String lexeme, Object literal, int line){
+		this(type, lexeme, literal, line, isNamed(type) ? SymbolTable.intern(lexeme) : null);
+	}
+	
+	Token(TokenType type, String lexeme, Object literal, int line, Symbol symbol){
 		this.type = type;
 		this.lexeme = lexeme;
 		this.literal = literal;
 		this.line = line;
+		this.symbol = symbol;
+	}
+	
+	static boolean isNamed(TokenType type) {
+		return type == TokenType.IDENTIFIER || type == TokenType.THIS || type == TokenType.SUPER;
 	}
 	
 	public String toString() {
@@ -0,0 +1,153 @@
+package com.jlox;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+class TokenBuffer implements Iterable<Token> {
+
+	/* A compact, struct-of-arrays store for a scanned token stream.
+	 *
+	 * Rather than one Token object (plus its lexeme String and boxed literal) per token, the type,
+	 * start offset, length and line of each token live in parallel primitive arrays, indexed by
+	 * token position. Lexemes are sliced out of the source only when asked for, and number
+	 * literals are kept unboxed in a double[].
+	 * */
+
+	private static final TokenType[] TYPES = TokenType.values();
+
+	private final CharSequence source;
+	private byte[] types;
+	private int[] starts;
+	private int[] lengths;
+	private int[] lines;
+	private double[] numbers;
+	private int size = 0;
+
+	// Small, and doubled as tokens are added: a guess from the source's length over-allocates
+	// for most sources, by far the most for ones full of comments or long strings.
+	private static final int INITIAL_CAPACITY = 256;
+
+	TokenBuffer(CharSequence source) {
+		this(source, INITIAL_CAPACITY);
+	}
+	
+	TokenBuffer(CharSequence source, int capacity) {
+		this.source = source;
+		types = new byte[capacity];
+		starts = new int[capacity];
+		lengths = new int[capacity];
+		lines = new int[capacity];
+		numbers = new double[capacity];
+	}
+
+	void add(TokenType type, int start, int length, int line, double number) {
+		if (size == types.length) grow();
+		types[size] = (byte)type.ordinal();
+		starts[size] = start;
+		lengths[size] = length;
+		lines[size] = line;
+		numbers[size] = number;
+		size++;
+	}
+
+	void append(TokenBuffer other) {
+		/* Appends all of another buffer's tokens, which must be over the same source. */
+		if (size + other.size > types.length) grow(size + other.size);
+		System.arraycopy(other.types, 0, types, size, other.size);
+		System.arraycopy(other.starts, 0, starts, size, other.size);
+		System.arraycopy(other.lengths, 0, lengths, size, other.size);
+		System.arraycopy(other.lines, 0, lines, size, other.size);
+		System.arraycopy(other.numbers, 0, numbers, size, other.size);
+		size += other.size;
+	}
+	
+	private void grow() {
+		grow(types.length * 2);
+	}
+	
+	private void grow(int capacity) {
+		types = Arrays.copyOf(types, capacity);
+		starts = Arrays.copyOf(starts, capacity);
+		lengths = Arrays.copyOf(lengths, capacity);
+		lines = Arrays.copyOf(lines, capacity);
+		numbers = Arrays.copyOf(numbers, capacity);
+	}
+
+	int size() {
+		return size;
+	}
+
+	CharSequence source() {
+		return source;
+	}
+
+	TokenType type(int index) {
+		return TYPES[types[index]];
+	}
+
+	int start(int index) {
+		return starts[index];
+	}
+
+	int length(int index) {
+		return lengths[index];
+	}
+
+	int line(int index) {
+		return lines[index];
+	}
+
+	double number(int index) {
+		return numbers[index];
+	}
+
+	String lexeme(int index) {
+		return source.subSequence(starts[index], starts[index] + lengths[index]).toString();
+	}
+
+	Object literal(int index) {
+		switch (type(index)) {
+		case NUMBER:
+			return numbers[index];
+		case STRING:
+			// Trim the surrounding quotes
+			return source.subSequence(starts[index] + 1, starts[index] + lengths[index] - 1).toString();
+		default:
+			return null;
+		}
+	}
+
+	Token token(int index) {
+		/* Materializes a single token. */
+		TokenType type = type(index);
+		if (type == TokenType.IDENTIFIER) {
+			Symbol symbol = SymbolTable.intern(source, starts[index], starts[index] + lengths[index]);
+			return new Token(type, symbol.name, null, lines[index], symbol);
+		}
+		return new Token(type, lexeme(index), literal(index), lines[index]);
+	}
+
+	@Override
+	public Iterator<Token> iterator() {
+		return iterator(0);
+	}
+
+	Iterator<Token> iterator(int from) {
+		/* Tokens are materialized one at a time as the consumer pulls them. */
+		return new Iterator<Token>() {
+			private int position = from;
+
+			@Override
+			public boolean hasNext() {
+				return position < size;
+			}
+
+			@Override
+			public Token next() {
+				if (position >= size) throw new NoSuchElementException();
+				return token(position++);
+			}
+		};
+	}
+}
@@ -16,7 +16,7 @@ enum TokenType {
 	IDENTIFIER, STRING, NUMBER,
 	
 	// Keywords
-	AND, BREAK, CLASS, ELSE, FALSE, FUN, FOR, IF, NIL, OR, PRINT, RETURN, SUPER, THIS, TRUE, VAR, WHILE,
+	AND, BREAK, CLASS, ELSE, FALSE, FUN, FOR, IF, IMPORT, NIL, OR, PRINT, RETURN, SUPER, THIS, TRUE, VAR, WHILE,
 	
 	EOF;
 }
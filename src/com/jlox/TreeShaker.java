@@ -0,0 +1,431 @@
+package com.jlox;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+class TreeShaker implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+
+	/* An optional pass run on a resolved program before it's run or snapshotted (see --shake),
+	 * which drops the top-level functions, classes and methods that nothing can reach, in the
+	 * program and in every module it imports. The modules are compiled here, shaken with the
+	 * rest of the program, and handed to LoxModule to be loaded from when they're imported.
+	 *
+	 * Globals and methods are found by name at runtime, so reachability is by name too. Every
+	 * top-level statement which isn't a function or class declaration is run, so is where the
+	 * search starts; from there a global name that's read or assigned anywhere reachable makes
+	 * every top-level declaration of that name reachable, a reachable class makes its superclass
+	 * reachable, and a method is reachable when its class is and its name is used in a property
+	 * get or a super call anywhere reachable (or it's an initializer). This goes on until nothing
+	 * more is found. Functions and classes declared below the top level are kept with whatever
+	 * encloses them, and everything in them counts as used.
+	 *
+	 * What's dropped is walked once more, to forget the Resolver's depths for it, so that none of
+	 * it stays alive.
+	 *
+	 * If a module can't be read or has errors the program is left as it is, for the import to
+	 * report when it's run.
+	 * */
+
+	private final Interpreter interpreter;
+
+	// Each module imported, as it's found
+	private final Map<Path, Program> modules = new LinkedHashMap<>();
+	private boolean incomplete = false;
+
+	private final Map<Symbol, List<Stmt>> declarations = new HashMap<>();
+	private final Set<Symbol> names = new HashSet<>();
+	private final Set<Symbol> methodNames = new HashSet<>();
+	// Methods of reachable classes whose names haven't been used yet
+	private final Map<Symbol, List<Stmt.Function>> waiting = new HashMap<>();
+	private final Set<Stmt> reachable = new HashSet<>();
+	private final Deque<Stmt> work = new ArrayDeque<>();
+	// Set while walking what's dropped, which only collects its nodes
+	private boolean dropping = false;
+	private final Set<Expr> dead = new HashSet<>();
+
+	private int functions = 0;
+	private int classes = 0;
+	private int methods = 0;
+	private int dropped = 0;
+
+	TreeShaker(Interpreter interpreter){
+		// Whose depths the program was resolved into
+		this.interpreter = interpreter;
+	}
+
+	List<Stmt> shake(List<Stmt> statements) {
+		add(statements);
+		while (!work.isEmpty()) {
+			work.pop().accept(this);
+		}
+		if (incomplete) return statements;
+
+		List<Stmt> shaken = keep(statements);
+		for (Expr expr : dead) interpreter.forgetResolution(expr);
+		dead.clear();
+
+		for (Map.Entry<Path, Program> module : modules.entrySet()) {
+			Program program = module.getValue();
+			List<Stmt> kept = keep(program.statements);
+			Map<Expr, Integer> locals = new HashMap<>(program.locals);
+			locals.keySet().removeAll(dead);
+			dead.clear();
+			LoxModule.provide(module.getKey(), Program.of(Collections.unmodifiableList(kept), Collections.unmodifiableMap(locals)));
+		}
+		return shaken;
+	}
+
+	String report() {
+		return "Dropped " + dropped + " of " + (functions + classes + methods) + " functions, classes and methods.";
+	}
+
+	private void add(List<Stmt> statements) {
+		/* A program or module: its declarations wait to be reached, the rest is run. */
+		for (Stmt statement : statements) {
+			Token name = declared(statement);
+			if (name == null) {
+				work.add(statement);
+				continue;
+			}
+			declarations.computeIfAbsent(name.symbol, key -> new ArrayList<>()).add(statement);
+			if (statement instanceof Stmt.Class) {
+				classes++;
+				Stmt.Class klass = (Stmt.Class)statement;
+				methods += klass.methods.size();
+				if (klass.metaclass != null) methods += klass.metaclass.methods.size();
+			} else {
+				functions++;
+			}
+			if (names.contains(name.symbol)) reach(statement);
+		}
+	}
+
+	private static Token declared(Stmt statement) {
+		if (statement instanceof Stmt.Function) return ((Stmt.Function)statement).name;
+		if (statement instanceof Stmt.Class) return ((Stmt.Class)statement).name;
+		return null;
+	}
+
+	private void reach(Stmt statement) {
+		if (reachable.add(statement)) work.add(statement);
+	}
+
+	private void useName(Token name) {
+		if (dropping || !names.add(name.symbol)) return;
+		List<Stmt> declared = declarations.get(name.symbol);
+		if (declared == null) return;
+		for (Stmt statement : declared) reach(statement);
+	}
+
+	private void useMethod(Token name) {
+		if (dropping || !methodNames.add(name.symbol)) return;
+		List<Stmt.Function> methods = waiting.remove(name.symbol);
+		if (methods == null) return;
+		for (Stmt.Function method : methods) reach(method);
+	}
+
+	private void classMethods(List<Stmt.Function> methods) {
+		for (Stmt.Function method : methods) {
+			if (method.name.symbol == SymbolTable.INIT || methodNames.contains(method.name.symbol)) {
+				reach(method);
+			} else {
+				waiting.computeIfAbsent(method.name.symbol, key -> new ArrayList<>()).add(method);
+			}
+		}
+	}
+
+	private List<Stmt> keep(List<Stmt> statements) {
+		List<Stmt> kept = new ArrayList<>(statements.size());
+		for (Stmt statement : statements) {
+			if (declared(statement) == null) {
+				kept.add(statement);
+			} else if (reachable.contains(statement)) {
+				kept.add(statement instanceof Stmt.Class ? keep((Stmt.Class)statement) : statement);
+			} else {
+				dropped++;
+				if (statement instanceof Stmt.Class) {
+					Stmt.Class klass = (Stmt.Class)statement;
+					dropped += klass.methods.size();
+					if (klass.metaclass != null) dropped += klass.metaclass.methods.size();
+				}
+				drop(statement);
+			}
+		}
+		return kept;
+	}
+
+	private Stmt.Class keep(Stmt.Class klass) {
+		List<Stmt.Function> methods = keptMethods(klass.methods);
+		Stmt.Class metaclass = klass.metaclass;
+		if (metaclass != null) {
+			List<Stmt.Function> staticMethods = keptMethods(metaclass.methods);
+			if (staticMethods != metaclass.methods) {
+				metaclass = new Stmt.Class(metaclass.name, metaclass.superclass, staticMethods, metaclass.metaclass);
+			}
+		}
+		if (methods == klass.methods && metaclass == klass.metaclass) return klass;
+		return new Stmt.Class(klass.name, klass.superclass, methods, metaclass);
+	}
+
+	private List<Stmt.Function> keptMethods(List<Stmt.Function> methods) {
+		List<Stmt.Function> kept = new ArrayList<>(methods.size());
+		for (Stmt.Function method : methods) {
+			if (reachable.contains(method)) {
+				kept.add(method);
+			} else {
+				drop(method);
+			}
+		}
+		dropped += methods.size() - kept.size();
+		return kept.size() == methods.size() ? methods : kept;
+	}
+
+	private void drop(Stmt statement) {
+		dropping = true;
+		walk(statement);
+		dropping = false;
+	}
+
+	private void walk(Expr expr) {
+		if (expr == null) return;
+		if (dropping) dead.add(expr);
+		expr.accept(this);
+	}
+
+	private void walk(Stmt stmt) {
+		if (stmt != null) stmt.accept(this);
+	}
+
+	private void walk(List<? extends Stmt> statements) {
+		for (Stmt statement : statements) walk(statement);
+	}
+
+	@Override
+	public Void visitBlockStmt(Stmt.Block stmt) {
+		walk(stmt.statements);
+		return null;
+	}
+
+	@Override
+	public Void visitClassStmt(Stmt.Class stmt) {
+		walk(stmt.superclass);
+		if (reachable.contains(stmt) && !dropping) {
+			// A top-level class, whose methods are kept only if they're used
+			classMethods(stmt.methods);
+			if (stmt.metaclass != null) classMethods(stmt.metaclass.methods);
+			return null;
+		}
+		walk(stmt.methods);
+		if (stmt.metaclass != null) walk(stmt.metaclass.methods);
+		return null;
+	}
+
+	@Override
+	public Void visitExpressionStmt(Stmt.Expression stmt) {
+		walk(stmt.expression);
+		return null;
+	}
+
+	@Override
+	public Void visitFunctionStmt(Stmt.Function stmt) {
+		walk(stmt.body);
+		return null;
+	}
+
+	@Override
+	public Void visitIfStmt(Stmt.If stmt) {
+		walk(stmt.condition);
+		walk(stmt.thenBranch);
+		walk(stmt.elseBranch);
+		return null;
+	}
+
+	@Override
+	public Void visitPrintStmt(Stmt.Print stmt) {
+		walk(stmt.expression);
+		return null;
+	}
+
+	@Override
+	public Void visitReturnStmt(Stmt.Return stmt) {
+		walk(stmt.value);
+		return null;
+	}
+
+	@Override
+	public Void visitVarStmt(Stmt.Var stmt) {
+		walk(stmt.initializer);
+		return null;
+	}
+
+	@Override
+	public Void visitWhileStmt(Stmt.While stmt) {
+		walk(stmt.condition);
+		walk(stmt.body);
+		return null;
+	}
+
+	@Override
+	public Void visitBreakStmt(Stmt.Break stmt) {
+		return null;
+	}
+
+	@Override
+	public Void visitImportStmt(Stmt.Import stmt) {
+		/* Compiles the module the first time it's imported, as LoxModule would, and adds it to
+		 * the program. */
+		Path path = LoxModule.path((String)stmt.path.literal);
+		if (modules.containsKey(path)) return null;
+		Program program;
+		try {
+			program = Program.compile(MappedSource.open(path), interpreter.reporter);
+		} catch (IOException e) {
+			program = null;
+		}
+		if (program == null) {
+			incomplete = true;
+			return null;
+		}
+		modules.put(path, program);
+		add(program.statements);
+		return null;
+	}
+
+	@Override
+	public Void visitTernaryExpr(Expr.Ternary expr) {
+		walk(expr.cond);
+		walk(expr.left);
+		walk(expr.right);
+		return null;
+	}
+
+	@Override
+	public Void visitAssignExpr(Expr.Assign expr) {
+		// A global that's assigned has to exist, so its declaration is kept.
+		useName(expr.name);
+		walk(expr.value);
+		return null;
+	}
+
+	@Override
+	public Void visitBinaryExpr(Expr.Binary expr) {
+		walk(expr.left);
+		walk(expr.right);
+		return null;
+	}
+
+	@Override
+	public Void visitBinaryErrorExpr(Expr.BinaryError expr) {
+		walk(expr.right);
+		return null;
+	}
+
+	@Override
+	public Void visitCallExpr(Expr.Call expr) {
+		walk(expr.callee);
+		for (Expr argument : expr.arguments) walk(argument);
+		return null;
+	}
+
+	@Override
+	public Void visitGetExpr(Expr.Get expr) {
+		useMethod(expr.name);
+		walk(expr.object);
+		return null;
+	}
+
+	@Override
+	public Void visitGroupingExpr(Expr.Grouping expr) {
+		walk(expr.expression);
+		return null;
+	}
+
+	@Override
+	public Void visitLiteralExpr(Expr.Literal expr) {
+		return null;
+	}
+
+	@Override
+	public Void visitLogicalExpr(Expr.Logical expr) {
+		walk(expr.left);
+		walk(expr.right);
+		return null;
+	}
+
+	@Override
+	public Void visitSetExpr(Expr.Set expr) {
+		walk(expr.object);
+		walk(expr.value);
+		return null;
+	}
+
+	@Override
+	public Void visitSuperExpr(Expr.Super expr) {
+		useMethod(expr.method);
+		return null;
+	}
+
+	@Override
+	public Void visitThisExpr(Expr.This expr) {
+		return null;
+	}
+
+	@Override
+	public Void visitUnaryExpr(Expr.Unary expr) {
+		walk(expr.right);
+		return null;
+	}
+
+	@Override
+	public Void visitVariableExpr(Expr.Variable expr) {
+		useName(expr.name);
+		return null;
+	}
+
+	@Override
+	public Void visitLambdaExpr(Expr.Lambda expr) {
+		walk(expr.body);
+		return null;
+	}
+
+	/* A module's Program has been through the Fuser, so its fused nodes are walked through the
+	 * nodes they replaced, as well as the parts which hold depths of their own. */
+
+	@Override
+	public Void visitIncrementExpr(Expr.Increment expr) {
+		walk(expr.original);
+		walk(expr.variable);
+		return null;
+	}
+
+	@Override
+	public Void visitCompareExpr(Expr.Compare expr) {
+		walk(expr.original);
+		walk(expr.left);
+		return null;
+	}
+
+	@Override
+	public Void visitSetThisExpr(Expr.SetThis expr) {
+		walk(expr.original);
+		walk(expr.keyword);
+		return null;
+	}
+
+	@Override
+	public Void visitGetFieldExpr(Expr.GetField expr) {
+		walk(expr.original);
+		walk(expr.object);
+		return null;
+	}
+}
@@ -0,0 +1,10 @@
+package com.jlox.runtime;
+
+interface LoxCallable {
+
+	/* What a compiled program can call: a function, a class or a native. Arguments come as the
+	 * array the generated code passes, with no Interpreter to hand on. */
+
+	int arity();
+	Object call(Object[] arguments);
+}
@@ -0,0 +1,48 @@
+package com.jlox.runtime;
+
+import java.util.Map;
+
+final class LoxClass extends LoxInstance implements LoxCallable {
+
+	/* A class in a compiled program, called to make an instance. Its methods are compiled
+	 * LoxFunctions, keyed by name. */
+
+	final LoxClass superclass;
+	final String name;
+	private final Map<String, LoxFunction> methods;
+
+	LoxClass(LoxClass metaclass, LoxClass superclass, String name, Map<String, LoxFunction> methods){
+		super(metaclass);
+		this.superclass = superclass;
+		this.name = name;
+		this.methods = methods;
+	}
+
+	LoxFunction findMethod(String name) {
+		LoxFunction method = methods.get(name);
+		if (method != null) return method;
+		if (superclass != null) return superclass.findMethod(name);
+		return null;
+	}
+
+	@Override
+	public int arity() {
+		LoxFunction initializer = findMethod("init");
+		return initializer == null ? 0 : initializer.arity();
+	}
+
+	@Override
+	public Object call(Object[] arguments) {
+		LoxInstance instance = new LoxInstance(this);
+		LoxFunction initializer = findMethod("init");
+		if (initializer != null) {
+			initializer.bind(instance).call(arguments);
+		}
+		return instance;
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+}
@@ -0,0 +1,39 @@
+package com.jlox.runtime;
+
+final class LoxFunction implements LoxCallable {
+
+	/* A function, method or lambda compiled to Java by jloxc. Its body is Java code, so it has
+	 * no declaration or closure of its own: what it closes over, the body has captured. */
+
+	private final String description;
+	private final int arity;
+	final LoxRuntime.Body body;
+	// What 'this' is once bound to an instance, otherwise null
+	final Object self;
+
+	LoxFunction(String description, int arity, LoxRuntime.Body body, Object self){
+		this.description = description;
+		this.arity = arity;
+		this.body = body;
+		this.self = self;
+	}
+
+	LoxFunction bind(LoxInstance instance) {
+		return new LoxFunction(description, arity, body, instance);
+	}
+
+	@Override
+	public int arity() {
+		return arity;
+	}
+
+	@Override
+	public Object call(Object[] arguments) {
+		return body.call(self, arguments);
+	}
+
+	@Override
+	public String toString() {
+		return description;
+	}
+}
@@ -0,0 +1,38 @@
+package com.jlox.runtime;
+
+import java.util.HashMap;
+import java.util.Map;
+
+class LoxInstance {
+
+	/* An instance in a compiled program. Fields are keyed by name, and shadow methods. A class
+	 * is an instance of its metaclass, which holds its static methods. */
+
+	// Null for a class without static methods
+	private final LoxClass klass;
+	private final Map<String, Object> fields = new HashMap<>();
+
+	LoxInstance(LoxClass klass){
+		this.klass = klass;
+	}
+
+	Object get(LoxRuntime.Site name) {
+		if (fields.containsKey(name.lexeme)) {
+			return fields.get(name.lexeme);
+		}
+
+		LoxFunction method = klass == null ? null : klass.findMethod(name.lexeme);
+		if (method != null) return method.bind(this);
+
+		throw new RuntimeError(name, "Undefined property '" + name.lexeme + "'.");
+	}
+
+	void set(LoxRuntime.Site name, Object value) {
+		fields.put(name.lexeme, value);
+	}
+
+	@Override
+	public String toString() {
+		return "instance of: " + klass.toString();
+	}
+}
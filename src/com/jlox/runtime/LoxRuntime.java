@@ -0,0 +1,333 @@
+package com.jlox.runtime;
+
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.Map;
+
+public final class LoxRuntime {
+
+	/* What the Java code generated by jloxc (see JavaGenerator) links against, and the front of
+	 * the runtime package, which is all a compiled program's jar has of jlox. Nothing in it uses
+	 * the scanner, parser, resolver or interpreter: values are null, Boolean, Double, String and
+	 * this package's own LoxClass, LoxInstance and LoxFunction, and every operation the
+	 * generated code can't do by itself goes through here, with the same checks and messages as
+	 * the interpreter's, so a compiled program behaves (and fails) as it would when interpreted.
+	 * A compiled program can't import modules, which only the interpreter loads (see Jloxc).
+	 *
+	 * Each place in the source where something can go wrong is a Site, created once, which gives
+	 * the runtime errors their line. Output is buffered and flushed when the program ends.
+	 * */
+
+	private LoxRuntime() {}
+
+	public interface Body {
+		/* The body of a compiled function. self is 'this' for a bound method, or null. */
+		Object call(Object self, Object[] args);
+	}
+
+	public static final class Site {
+		final String lexeme;
+		final int line;
+
+		Site(String lexeme, int line){
+			this.lexeme = lexeme;
+			this.line = line;
+		}
+	}
+
+	public static final class Global {
+
+		/* A global variable, which follows the same rules as a binding in the global
+		 * Environment: it may be undefined, or declared but not yet initialized. */
+
+		private Object value = null;
+		private boolean bound = false;
+		// How many times it's been declared without a value since it last was given one
+		private int declarations = 0;
+
+		private Global() {}
+
+		public Object get(Site site) {
+			if (declarations == 0 && bound) return value;
+			if (declarations > 0) {
+				throw new RuntimeError(site, "Uninitialized variable '" + site.lexeme + "'.");
+			}
+			throw new RuntimeError(site, "Undefined variable '" + site.lexeme + "'.");
+		}
+
+		public void define(Object value) {
+			if (value != null) {
+				this.value = value;
+				bound = true;
+			} else {
+				declarations++;
+			}
+		}
+
+		public Object assign(Site site, Object value) {
+			if (!bound) {
+				if (declarations == 0) {
+					throw new RuntimeError(site, "Undefined variable '" + site.lexeme + "'.");
+				}
+				declarations--;
+				bound = true;
+			}
+			this.value = value;
+			return value;
+		}
+	}
+
+	public static final class ClassBuilder {
+		private final String name;
+		private final LoxClass superclass;
+		private final Map<String, LoxFunction> methods = new HashMap<>();
+		private Map<String, LoxFunction> staticMethods = null;
+
+		ClassBuilder(String name, LoxClass superclass){
+			this.name = name;
+			this.superclass = superclass;
+		}
+
+		public ClassBuilder method(String name, int arity, Body body) {
+			methods.put(name, new LoxFunction("<fn " + name + ">", arity, body, null));
+			return this;
+		}
+
+		public ClassBuilder staticMethod(String name, int arity, Body body) {
+			if (staticMethods == null) staticMethods = new HashMap<>();
+			staticMethods.put(name, new LoxFunction("<fn " + name + ">", arity, body, null));
+			return this;
+		}
+
+		public Object build() {
+			LoxClass metaclass = null;
+			if (staticMethods != null) {
+				metaclass = new LoxClass(null, superclass, name + "MetaClass", staticMethods);
+			}
+			return new LoxClass(metaclass, superclass, name, methods);
+		}
+	}
+
+	private static final PrintWriter out = new PrintWriter(new BufferedWriter(new OutputStreamWriter(System.out)));
+	// The interpreter's natives, which a global of the same name starts out as
+	private static final Map<String, Object> natives = new HashMap<>();
+
+	static {
+		natives.put("clock", new Native(0) {
+			@Override
+			public Object call(Object[] arguments) {
+				return (double)System.currentTimeMillis()/1000.0;
+			}
+		});
+		natives.put("parseNumber", new Native(1) {
+			@Override
+			public Object call(Object[] arguments) {
+				/* Parses a decimal number from a string, giving nil if it isn't one. */
+				Object text = arguments[0];
+				if (text instanceof Double) return text;
+				if (!(text instanceof String)) return null;
+				try {
+					return NumberParser.parse((String)text);
+				} catch (NumberFormatException e) {
+					return null;
+				}
+			}
+		});
+	}
+
+	private abstract static class Native implements LoxCallable {
+		private final int arity;
+
+		Native(int arity){
+			this.arity = arity;
+		}
+
+		@Override
+		public int arity() {
+			return arity;
+		}
+
+		@Override
+		public String toString() {
+			return "<native fn>";
+		}
+	}
+
+	public static void run(Runnable program) {
+		/* Runs a compiled program's top level, exiting with 70 if it stops with a runtime error,
+		 * which is reported as the interpreter's ErrorReporter would. */
+		try {
+			program.run();
+		} catch (RuntimeError error) {
+			out.flush();
+			System.err.println(error.getMessage() + "\n[line " + error.line + "]");
+			System.exit(70);
+		} finally {
+			out.flush();
+		}
+	}
+
+	public static Site site(String lexeme, int line) {
+		return new Site(lexeme, line);
+	}
+
+	public static Global global(String name) {
+		/* A global variable, already defined if it's one of the natives. */
+		Global global = new Global();
+		Object value = natives.get(name);
+		if (value != null) global.define(value);
+		return global;
+	}
+
+	public static Object function(String name, int arity, Body body) {
+		return new LoxFunction("<fn " + name + ">", arity, body, null);
+	}
+
+	public static Object lambda(String description, int arity, Body body) {
+		return new LoxFunction(description, arity, body, null);
+	}
+
+	public static Object superclass(Object value, Site site) {
+		if (!(value instanceof LoxClass)) {
+			throw new RuntimeError(site, "Superclass must be a class.");
+		}
+		return value;
+	}
+
+	public static ClassBuilder klass(String name, Object superclass) {
+		return new ClassBuilder(name, (LoxClass)superclass);
+	}
+
+	public static Object call(Object callee, Site paren, Object... arguments) {
+		if (!(callee instanceof LoxCallable)) {
+			throw new RuntimeError(paren, "Can only call functions and classes.");
+		}
+		LoxCallable function = (LoxCallable)callee;
+		if (arguments.length != function.arity()) {
+			throw new RuntimeError(paren, "Expected " + function.arity() + " arguments, but got "
+					+ arguments.length + ".");
+		}
+		return function.call(arguments);
+	}
+
+	public static Object get(Object object, Site name) {
+		if (object instanceof LoxInstance) {
+			return ((LoxInstance)object).get(name);
+		}
+		throw new RuntimeError(name, "Only instances have properties.");
+	}
+
+	public static Object fields(Object object, Site name) {
+		/* The object whose field is about to be set, checked before the value is evaluated. */
+		if (!(object instanceof LoxInstance)) {
+			throw new RuntimeError(name, "Only instances have fields.");
+		}
+		return object;
+	}
+
+	public static Object set(Object object, Site name, Object value) {
+		((LoxInstance)object).set(name, value);
+		return value;
+	}
+
+	public static Object superMethod(Object superclass, Object self, Site method) {
+		LoxFunction function = ((LoxClass)superclass).findMethod(method.lexeme);
+		if (function == null) {
+			throw new RuntimeError(method, "Undefined property: '" + method.lexeme + "'.");
+		}
+		return function.bind((LoxInstance)self);
+	}
+
+	public static Object add(Object left, Object right, Site operator) {
+		if (left instanceof Double && right instanceof Double) return (double)left + (double)right;
+		if (left instanceof String) return left + stringify(right);
+		if (right instanceof String) return stringify(left) + right;
+		throw new RuntimeError(operator, "Operands must be either two numbers or two strings");
+	}
+
+	public static Object subtract(Object left, Object right, Site operator) {
+		numbers(left, right, operator);
+		return (double)left - (double)right;
+	}
+
+	public static Object multiply(Object left, Object right, Site operator) {
+		numbers(left, right, operator);
+		return (double)left * (double)right;
+	}
+
+	public static Object divide(Object left, Object right, Site operator) {
+		numbers(left, right, operator);
+		if ((double)right == 0) throw new RuntimeError(operator, "Division by zero.");
+		return (double)left / (double)right;
+	}
+
+	public static boolean less(Object left, Object right, Site operator) {
+		numbers(left, right, operator);
+		return (double)left < (double)right;
+	}
+
+	public static boolean lessEqual(Object left, Object right, Site operator) {
+		numbers(left, right, operator);
+		return (double)left <= (double)right;
+	}
+
+	public static boolean greater(Object left, Object right, Site operator) {
+		numbers(left, right, operator);
+		return (double)left > (double)right;
+	}
+
+	public static boolean greaterEqual(Object left, Object right, Site operator) {
+		numbers(left, right, operator);
+		return (double)left >= (double)right;
+	}
+
+	private static void numbers(Object left, Object right, Site operator) {
+		if (left instanceof Double && right instanceof Double) return;
+		throw new RuntimeError(operator, "Operands must be numbers");
+	}
+
+	public static boolean equal(Object left, Object right) {
+		if (left == null) return right == null;
+		return left.equals(right);
+	}
+
+	public static Object binary(Object left, Object right, Site operator) {
+		/* Any other binary operator, which is only the comma, and has no value, as in the
+		 * interpreter. */
+		return null;
+	}
+
+	public static Object negate(Object operand, Site operator) {
+		if (operand instanceof Double) return -(double)operand;
+		throw new RuntimeError(operator, "Operand must be a number.");
+	}
+
+	public static boolean isTruthy(Object value) {
+		if (value == null) return false;
+		if (value instanceof Boolean) return (boolean)value;
+		return true;
+	}
+
+	public static Object fail(Site operator, String message) {
+		throw new RuntimeError(operator, message);
+	}
+
+	public static void print(Object value) {
+		out.println(stringify(value));
+	}
+
+	private static String stringify(Object value) {
+		if (value == null) return "nil";
+		String text = value.toString();
+		if (value instanceof Double && text.endsWith(".0")) {
+			text = text.substring(0, text.length() - 2);
+		}
+		return text;
+	}
+
+	public static void discard(Object value) {
+		/* For an expression statement whose Java isn't a statement by itself. */
+	}
+}
@@ -0,0 +1,201 @@
+package com.jlox.runtime;
+
+import java.math.BigInteger;
+
+public final class NumberParser {
+
+	/* Converts decimal number text straight from source characters to a double, without making
+	 * a substring.
+	 *
+	 * Accepts an optional sign, digits, an optional fraction and an optional exponent. Most
+	 * literals take Clinger's fast path, where the digits and the power of ten are both exactly
+	 * representable as doubles. The rest use the Eisel-Lemire algorithm. In the rare cases it cannot
+	 * decide (more than 19 significant digits, or a result that is too close to call) we fall back
+	 * on Double.parseDouble, so results are always correctly rounded.
+	 * */
+
+	private static final double[] exactPowers = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+		1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+	};
+
+	private NumberParser() {}
+
+	public static double parse(CharSequence chars) {
+		return parse(chars, 0, chars.length());
+	}
+
+	public static double parse(CharSequence chars, int start, int end) {
+		int i = start;
+		boolean negative = false;
+		if (i < end && (chars.charAt(i) == '-' || chars.charAt(i) == '+')) {
+			negative = chars.charAt(i) == '-';
+			i++;
+		}
+
+		long mantissa = 0;
+		int significant = 0;
+		int exponent = 0;
+		boolean truncated = false;
+		int digits = 0;
+
+		// Integer part
+		for (; i < end && isDigit(chars.charAt(i)); i++, digits++) {
+			int digit = chars.charAt(i) - '0';
+			if (significant < 19) {
+				if (mantissa != 0 || digit != 0) {
+					mantissa = mantissa * 10 + digit;
+					significant++;
+				}
+			} else {
+				// Digits past the nineteenth only move the decimal point
+				exponent++;
+				if (digit != 0) truncated = true;
+			}
+		}
+
+		// Fractional part
+		if (i < end && chars.charAt(i) == '.') {
+			i++;
+			for (; i < end && isDigit(chars.charAt(i)); i++, digits++) {
+				int digit = chars.charAt(i) - '0';
+				if (significant < 19) {
+					if (mantissa != 0 || digit != 0) {
+						mantissa = mantissa * 10 + digit;
+						significant++;
+					}
+					exponent--;
+				} else if (digit != 0) {
+					truncated = true;
+				}
+			}
+		}
+		if (digits == 0) throw new NumberFormatException(chars.subSequence(start, end).toString());
+
+		// Exponent part
+		if (i < end && (chars.charAt(i) == 'e' || chars.charAt(i) == 'E')) {
+			i++;
+			boolean negativeExponent = false;
+			if (i < end && (chars.charAt(i) == '-' || chars.charAt(i) == '+')) {
+				negativeExponent = chars.charAt(i) == '-';
+				i++;
+			}
+			if (i >= end || !isDigit(chars.charAt(i))) {
+				throw new NumberFormatException(chars.subSequence(start, end).toString());
+			}
+			int value = 0;
+			for (; i < end && isDigit(chars.charAt(i)); i++) {
+				// Clamp absurd exponents, the result is zero or infinity long before this
+				if (value < 100000) value = value * 10 + (chars.charAt(i) - '0');
+			}
+			exponent += negativeExponent ? -value : value;
+		}
+		if (i != end) throw new NumberFormatException(chars.subSequence(start, end).toString());
+
+		if (mantissa == 0) return negative ? -0.0 : 0.0;
+
+		if (!truncated) {
+			// Clinger's fast path. The mantissa is unsigned, since 19 digits can overflow a long.
+			if (exponent >= -22 && exponent <= 22 && Long.compareUnsigned(mantissa, 1L << 53) <= 0) {
+				double value = (double)mantissa;
+				value = exponent < 0 ? value / exactPowers[-exponent] : value * exactPowers[exponent];
+				return negative ? -value : value;
+			}
+
+			double value = eiselLemire(mantissa, exponent);
+			if (!Double.isNaN(value)) return negative ? -value : value;
+		}
+
+		return Double.parseDouble(chars.subSequence(start, end).toString());
+	}
+
+	private static boolean isDigit(char c) {
+		return c >= '0' && c <= '9';
+	}
+
+	private static double eiselLemire(long mantissa, int exponent) {
+		/* Returns NaN when the answer can't be determined this way. */
+		if (exponent < Powers.MIN_EXPONENT) return 0.0;
+		if (exponent > Powers.MAX_EXPONENT) return Double.POSITIVE_INFINITY;
+
+		// Normalization
+		int leadingZeros = Long.numberOfLeadingZeros(mantissa);
+		mantissa <<= leadingZeros;
+		long resultExponent = ((217706L * exponent) >> 16) + 64 + 1023 - leadingZeros;
+
+		// Multiplication by the 128-bit approximation of the power of ten
+		int index = exponent - Powers.MIN_EXPONENT;
+		long powerHigh = Powers.high[index];
+		long powerLow = Powers.low[index];
+		long high = multiplyHigh(mantissa, powerHigh);
+		long low = mantissa * powerHigh;
+
+		// Wider approximation, when the truncated product might be off by one
+		if ((high & 0x1FF) == 0x1FF && Long.compareUnsigned(low + mantissa, mantissa) < 0) {
+			long wideHigh = multiplyHigh(mantissa, powerLow);
+			long wideLow = mantissa * powerLow;
+			long mergedHigh = high;
+			long mergedLow = low + wideHigh;
+			if (Long.compareUnsigned(mergedLow, low) < 0) mergedHigh++;
+			if ((mergedHigh & 0x1FF) == 0x1FF && mergedLow == -1L
+					&& Long.compareUnsigned(wideLow + mantissa, mantissa) < 0) {
+				return Double.NaN;
+			}
+			high = mergedHigh;
+			low = mergedLow;
+		}
+
+		// Shifting to 54 bits
+		long topBit = high >>> 63;
+		long result = high >>> (topBit + 9);
+		resultExponent -= 1 ^ topBit;
+
+		// Halfway ambiguity
+		if (low == 0 && (high & 0x1FF) == 0 && (result & 3) == 1) return Double.NaN;
+
+		// From 54 to 53 bits
+		result += result & 1;
+		result >>>= 1;
+		if ((result >>> 53) > 0) {
+			result >>>= 1;
+			resultExponent++;
+		}
+
+		// Subnormals, infinities and NaNs are left to the slow path
+		if (Long.compareUnsigned(resultExponent - 1, 0x7FF - 1) >= 0) return Double.NaN;
+
+		return Double.longBitsToDouble(resultExponent << 52 | (result & 0x000FFFFFFFFFFFFFL));
+	}
+
+	private static long multiplyHigh(long a, long b) {
+		/* The high half of the unsigned 128-bit product. */
+		return Math.multiplyHigh(a, b) + ((a >> 63) & b) + ((b >> 63) & a);
+	}
+
+	private static final class Powers {
+
+		/* 128-bit approximations of the powers of ten, rounded down, with the top bit set.
+		 * Built on first use, so numbers that take the fast path never pay for the table. */
+
+		static final int MIN_EXPONENT = -348;
+		static final int MAX_EXPONENT = 347;
+		static final long[] high = new long[MAX_EXPONENT - MIN_EXPONENT + 1];
+		static final long[] low = new long[MAX_EXPONENT - MIN_EXPONENT + 1];
+
+		static {
+			BigInteger mask = BigInteger.ONE.shiftLeft(64).subtract(BigInteger.ONE);
+			for (int q = MIN_EXPONENT; q <= MAX_EXPONENT; q++) {
+				BigInteger power = BigInteger.TEN.pow(Math.abs(q));
+				BigInteger approximation;
+				if (q >= 0) {
+					int shift = power.bitLength() - 128;
+					approximation = shift > 0 ? power.shiftRight(shift) : power.shiftLeft(-shift);
+				} else {
+					approximation = BigInteger.ONE.shiftLeft(127 + power.bitLength()).divide(power);
+				}
+				high[q - MIN_EXPONENT] = approximation.shiftRight(64).longValue();
+				low[q - MIN_EXPONENT] = approximation.and(mask).longValue();
+			}
+		}
+	}
+}
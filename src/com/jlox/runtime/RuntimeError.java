@@ -0,0 +1,14 @@
+package com.jlox.runtime;
+
+class RuntimeError extends RuntimeException {
+
+	/* A runtime error in a compiled program, reported with the line of the Site it happened at,
+	 * as the interpreter reports its own RuntimeError with its token's. */
+
+	final int line;
+
+	RuntimeError(LoxRuntime.Site site, String message){
+		super(message);
+		this.line = site.line;
+	}
+}
@@ -0,0 +1,86 @@
+package com.jlox.script;
+
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.script.Bindings;
+import javax.script.CompiledScript;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptException;
+
+import com.jlox.ErrorReporter;
+import com.jlox.Isolate;
+import com.jlox.IsolatePool;
+import com.jlox.Program;
+
+class LoxCompiledScript extends CompiledScript {
+
+	/* A Program compiled by a LoxScriptEngine, which can be evaluated any number of times, from
+	 * any number of threads at once (see LoxScriptEngine). */
+
+	private final LoxScriptEngine engine;
+	private final Program program;
+	// For the diagnostics, may be null
+	private final String file;
+
+	LoxCompiledScript(LoxScriptEngine engine, Program program, String file){
+		this.engine = engine;
+		this.program = program;
+		this.file = file;
+	}
+
+	@Override
+	public Object eval(ScriptContext context) throws ScriptException {
+		/* Lox statements have no value, so this always returns null. */
+		Bindings globalScope = context.getBindings(ScriptContext.GLOBAL_SCOPE);
+		Bindings engineScope = context.getBindings(ScriptContext.ENGINE_SCOPE);
+		ErrorReporter reporter = ErrorReporter.buffered(file == null ? "" : file + ": ");
+
+		IsolatePool pool = engine.pool();
+		Isolate isolate = pool.acquire();
+		try {
+			// What the host defined, as Lox values, so that those left alone aren't written back
+			Map<String, Object> inputs = new HashMap<>();
+			define(isolate, globalScope, inputs);
+			define(isolate, engineScope, inputs);
+			isolate.redirect(new PrintWriter(context.getWriter()), reporter);
+			if (!isolate.run(program)) {
+				throw new ScriptException(reporter.report().trim(), file, -1);
+			}
+
+			if (engineScope != null) {
+				Map<String, Object> changed = isolate.changed();
+				// The pool's mark is from before the bindings were defined, so they count as changes too
+				changed.entrySet().removeIf(entry -> inputs.containsKey(entry.getKey())
+						&& inputs.get(entry.getKey()) == entry.getValue());
+				synchronized (engineScope) {
+					engineScope.putAll(changed);
+				}
+			}
+			return null;
+		} finally {
+			pool.release(isolate);
+		}
+	}
+
+	private static void define(Isolate isolate, Bindings bindings, Map<String, Object> inputs) {
+		if (bindings == null) return;
+		synchronized (bindings) {
+			for (Map.Entry<String, Object> binding : bindings.entrySet()) {
+				Object value = binding.getValue();
+				if (value instanceof Number && !(value instanceof Double)) {
+					value = ((Number)value).doubleValue();
+				}
+				isolate.define(binding.getKey(), value);
+				inputs.put(binding.getKey(), value);
+			}
+		}
+	}
+
+	@Override
+	public ScriptEngine getEngine() {
+		return engine;
+	}
+}
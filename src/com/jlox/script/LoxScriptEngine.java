@@ -0,0 +1,107 @@
+package com.jlox.script;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.util.concurrent.TimeUnit;
+
+import javax.script.AbstractScriptEngine;
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngineFactory;
+import javax.script.ScriptException;
+import javax.script.SimpleBindings;
+
+import com.jlox.ErrorReporter;
+import com.jlox.IsolatePool;
+import com.jlox.Program;
+
+public class LoxScriptEngine extends AbstractScriptEngine implements Compilable {
+
+	/* The javax.script engine for Lox. A script is compiled once into a Program (scanned,
+	 * parsed, resolved and fused), and each evaluation of it runs on an Isolate from this
+	 * engine's pool, so the same CompiledScript may be evaluated over and over, from any number
+	 * of threads at once, without being compiled again.
+	 *
+	 * The bindings of an evaluation's context become global variables (the engine scope's take
+	 * precedence over the global scope's). Globals aren't resolved to depths, so nothing has to
+	 * be resolved again for different bindings. Java numbers become Lox numbers, and any other
+	 * value is passed as it is. A binding to null is declared but not defined, like 'var x;'.
+	 * Afterwards, every global the script defined or assigned is put into the engine scope, so
+	 * later evaluations against the same bindings see it. A binding the script left alone isn't
+	 * put back, so it keeps its Java value and scope. Nor are the functions, classes and instances
+	 * a script defines: they're bound to the globals of the Isolate it ran on, which goes back to
+	 * the pool for other evaluations, so a script defines them again if it needs them.
+	 *
+	 * Output from print goes to the context's writer. Errors, when compiling or at runtime, are
+	 * thrown as a ScriptException, whose message is the diagnostic jlox would have printed.
+	 * */
+
+	private final LoxScriptEngineFactory factory;
+	private final IsolatePool pool = new IsolatePool(null, Runtime.getRuntime().availableProcessors(), 60, TimeUnit.SECONDS);
+
+	LoxScriptEngine(LoxScriptEngineFactory factory){
+		this.factory = factory;
+	}
+
+	@Override
+	public Object eval(String script, ScriptContext context) throws ScriptException {
+		return compile(script, context).eval(context);
+	}
+
+	@Override
+	public Object eval(Reader reader, ScriptContext context) throws ScriptException {
+		return eval(read(reader), context);
+	}
+
+	@Override
+	public CompiledScript compile(String script) throws ScriptException {
+		return compile(script, getContext());
+	}
+
+	@Override
+	public CompiledScript compile(Reader script) throws ScriptException {
+		return compile(read(script));
+	}
+
+	private CompiledScript compile(String script, ScriptContext context) throws ScriptException {
+		String file = fileName(context);
+		ErrorReporter reporter = ErrorReporter.buffered(file == null ? "" : file + ": ");
+		Program program = Program.compile(script, reporter);
+		if (program == null) {
+			throw new ScriptException(reporter.report().trim(), file, -1);
+		}
+		return new LoxCompiledScript(this, program, file);
+	}
+
+	@Override
+	public Bindings createBindings() {
+		return new SimpleBindings();
+	}
+
+	@Override
+	public ScriptEngineFactory getFactory() {
+		return factory;
+	}
+
+	IsolatePool pool() {
+		return pool;
+	}
+
+	static String fileName(ScriptContext context) {
+		Object file = context.getAttribute(FILENAME);
+		return file == null ? null : file.toString();
+	}
+
+	private static String read(Reader reader) throws ScriptException {
+		StringWriter text = new StringWriter();
+		try {
+			reader.transferTo(text);
+		} catch (IOException e) {
+			throw new ScriptException(e);
+		}
+		return text.toString();
+	}
+}
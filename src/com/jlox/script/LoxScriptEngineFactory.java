@@ -0,0 +1,102 @@
+package com.jlox.script;
+
+import java.util.List;
+
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+
+public class LoxScriptEngineFactory implements ScriptEngineFactory {
+
+	/* Makes Lox available through javax.script (JSR 223), as the engine named "lox". The factory
+	 * is found by the ScriptEngineManager through the module descriptor, or through
+	 * META-INF/services when the interpreter is on the class path. */
+
+	private static final List<String> NAMES = List.of("lox", "Lox", "jlox");
+	private static final List<String> EXTENSIONS = List.of("lox");
+	private static final List<String> MIME_TYPES = List.of("application/x-lox", "text/x-lox");
+
+	public LoxScriptEngineFactory() {}
+
+	@Override
+	public String getEngineName() {
+		return "jlox";
+	}
+
+	@Override
+	public String getEngineVersion() {
+		return "1.0";
+	}
+
+	@Override
+	public List<String> getExtensions() {
+		return EXTENSIONS;
+	}
+
+	@Override
+	public List<String> getMimeTypes() {
+		return MIME_TYPES;
+	}
+
+	@Override
+	public List<String> getNames() {
+		return NAMES;
+	}
+
+	@Override
+	public String getLanguageName() {
+		return "Lox";
+	}
+
+	@Override
+	public String getLanguageVersion() {
+		return "1.0";
+	}
+
+	@Override
+	public Object getParameter(String key) {
+		switch (key) {
+		case ScriptEngine.ENGINE:
+			return getEngineName();
+		case ScriptEngine.ENGINE_VERSION:
+			return getEngineVersion();
+		case ScriptEngine.NAME:
+			return NAMES.get(0);
+		case ScriptEngine.LANGUAGE:
+			return getLanguageName();
+		case ScriptEngine.LANGUAGE_VERSION:
+			return getLanguageVersion();
+		case "THREADING":
+			// Every evaluation runs on an Isolate of its own (see LoxScriptEngine)
+			return "MULTITHREADED";
+		default:
+			return null;
+		}
+	}
+
+	@Override
+	public String getMethodCallSyntax(String object, String method, String... arguments) {
+		return object + "." + method + "(" + String.join(", ", arguments) + ")";
+	}
+
+	@Override
+	public String getOutputStatement(String toDisplay) {
+		// Lox strings have no escapes, so a quote can't be printed from a literal.
+		return "print \"" + toDisplay.replace("\"", "'") + "\";";
+	}
+
+	@Override
+	public String getProgram(String... statements) {
+		StringBuilder program = new StringBuilder();
+		for (String statement : statements) {
+			program.append(statement);
+			if (!statement.trim().endsWith(";") && !statement.trim().endsWith("}")) program.append(';');
+			program.append('\n');
+		}
+		return program.toString();
+	}
+
+	@Override
+	public ScriptEngine getScriptEngine() {
+		return new LoxScriptEngine(this);
+	}
+}
@@ -18,7 +18,7 @@ public class GenerateAst {
 		}
 		
 		String outputDir = args[0];
-		defineAst(outputDir, "Expr", Arrays.asList(
+		List<String> exprTypes = Arrays.asList(
 				"Ternary: Token qmark, Expr cond, Expr left, Expr right",
 				"Assign: Token name, Expr value",
 				"Binary: Expr left, Token operator, Expr right",
@@ -33,9 +33,14 @@ public class GenerateAst {
 				"This: Token keyword",
 				"Unary: Token operator, Expr right",
 				"Variable: Token name",
-				"Lambda: List<Token> params, List<Stmt> body"));
+				"Lambda: List<Token> params, List<Stmt> body",
+				// Fused nodes, only ever produced by the Fuser after resolution
+				"Increment: Expr.Assign original, Expr.Variable variable, Token operator, Object delta",
+				"Compare: Expr.Binary original, Expr.Variable left, Expr right",
+				"SetThis: Expr.Set original, Expr.This keyword, Expr value",
+				"GetField: Expr.Get original, Expr.Variable object");
 		
-		defineAst(outputDir, "Stmt", Arrays.asList(
+		List<String> stmtTypes = Arrays.asList(
 				"Block: List<Stmt> statements",
 				"Class: Token name, Expr.Variable superclass, List<Stmt.Function> methods, Class metaclass",
 				"Expression: Expr expression",
@@ -45,7 +50,12 @@ public class GenerateAst {
 				"Return: Token keyword, Expr value",
 				"Var: Token name, Expr initializer",
 				"While: Expr condition, Stmt body",
-				"Break: Stmt.While enclosing"));
+				"Break: Stmt.While enclosing",
+				"Import: Token keyword, Token path");
+		
+		defineAst(outputDir, "Expr", exprTypes);
+		defineAst(outputDir, "Stmt", stmtTypes);
+		defineCodec(outputDir, exprTypes, stmtTypes);
 	}
 
 	private static void defineAst(String outputDir, String baseName, List<String> types) throws IOException {
@@ -116,6 +126,194 @@ public class GenerateAst {
 		buffer.write("}"); buffer.newLine();
 	}
 	
+	private static void defineCodec(String outputDir, List<String> exprTypes, List<String> stmtTypes) throws IOException {
+		/* A method to write AstCodec, which converts resolved trees to and from a compact binary form
+		 * (see AstOutput). Each node is written as its position in the lists above plus 1 (0 for
+		 * null), then for expressions the resolved depth, then its fields in order. */
+		
+		String path = outputDir + "/AstCodec.java";
+		PrintWriter writer = new PrintWriter(path, "UTF-8");
+		BufferedWriter buffer = new BufferedWriter(writer);
+		
+		// Any change to the node definitions changes the format, and so invalidates cached trees.
+		// Tokens are written by their type's ordinal, so a change to the token types changes it too.
+		// TokenType isn't visible from here, so it's looked up on the class path.
+		String tokenTypes;
+		try {
+			tokenTypes = Arrays.toString(Class.forName("com.jlox.TokenType").getEnumConstants());
+		} catch (ClassNotFoundException e) {
+			throw new IOException("com.jlox.TokenType must be on the class path.", e);
+		}
+		String format = Integer.toHexString((String.join("\n", exprTypes) + "\n" + String.join("\n", stmtTypes)
+				+ "\n" + tokenTypes).hashCode());
+		
+		buffer.write("/**This file has been automatically generated by: GenerateAst.java*/"); buffer.newLine();
+		buffer.newLine();
+		buffer.write("package com.jlox;"); buffer.newLine();
+		buffer.newLine();
+		buffer.write("import java.util.ArrayList;"); buffer.newLine();
+		buffer.write("import java.util.List;"); buffer.newLine();
+		buffer.newLine();
+		buffer.write("class AstCodec implements Expr.Visitor<Void>, Stmt.Visitor<Void> {"); buffer.newLine();
+		buffer.newLine();
+		buffer.write("	static final String FORMAT = \"" + format + "\";"); buffer.newLine();
+		buffer.newLine();
+		buffer.write("	private final AstOutput out;"); buffer.newLine();
+		buffer.write("	private final AstInput in;"); buffer.newLine();
+		buffer.write("	private final Interpreter interpreter;"); buffer.newLine();
+		buffer.newLine();
+		buffer.write("	AstCodec(AstOutput out, Interpreter interpreter) {"); buffer.newLine();
+		buffer.write("		this.out = out;"); buffer.newLine();
+		buffer.write("		this.in = null;"); buffer.newLine();
+		buffer.write("		this.interpreter = interpreter;"); buffer.newLine();
+		buffer.write("	}"); buffer.newLine();
+		buffer.newLine();
+		buffer.write("	AstCodec(AstInput in, Interpreter interpreter) {"); buffer.newLine();
+		buffer.write("		this.out = null;"); buffer.newLine();
+		buffer.write("		this.in = in;"); buffer.newLine();
+		buffer.write("		this.interpreter = interpreter;"); buffer.newLine();
+		buffer.write("	}"); buffer.newLine();
+		
+		for (String baseName : new String[] {"Expr", "Stmt"}) {
+			buffer.newLine();
+			buffer.write("	void write" + baseName + "s(List<? extends " + baseName + "> nodes) {"); buffer.newLine();
+			buffer.write("		out.writeInt(nodes.size());"); buffer.newLine();
+			buffer.write("		for (" + baseName + " node : nodes) write" + baseName + "(node);"); buffer.newLine();
+			buffer.write("	}"); buffer.newLine();
+			buffer.newLine();
+			buffer.write("	void write" + baseName + "(" + baseName + " node) {"); buffer.newLine();
+			buffer.write("		if (node == null) {"); buffer.newLine();
+			buffer.write("			out.writeInt(0);"); buffer.newLine();
+			buffer.write("		} else {"); buffer.newLine();
+			buffer.write("			node.accept(this);"); buffer.newLine();
+			buffer.write("		}"); buffer.newLine();
+			buffer.write("	}"); buffer.newLine();
+			buffer.newLine();
+			buffer.write("	List<" + baseName + "> read" + baseName + "s() {"); buffer.newLine();
+			buffer.write("		int count = in.readInt();"); buffer.newLine();
+			buffer.write("		List<" + baseName + "> nodes = new ArrayList<>(count);"); buffer.newLine();
+			buffer.write("		for (int i = 0; i < count; i++) nodes.add(read" + baseName + "());"); buffer.newLine();
+			buffer.write("		return nodes;"); buffer.newLine();
+			buffer.write("	}"); buffer.newLine();
+		}
+		
+		buffer.newLine();
+		buffer.write("	@SuppressWarnings(\"unchecked\")"); buffer.newLine();
+		buffer.write("	private static <T> List<T> cast(List<?> nodes) {"); buffer.newLine();
+		buffer.write("		return (List<T>)nodes;"); buffer.newLine();
+		buffer.write("	}"); buffer.newLine();
+		
+		defineReader(buffer, "Expr", exprTypes);
+		defineReader(buffer, "Stmt", stmtTypes);
+		defineWriters(buffer, "Expr", exprTypes);
+		defineWriters(buffer, "Stmt", stmtTypes);
+		
+		buffer.write("}"); buffer.newLine();
+		buffer.close();
+	}
+	
+	private static void defineReader(BufferedWriter buffer, String baseName, List<String> types) throws IOException {
+		boolean expr = baseName.equals("Expr");
+		buffer.newLine();
+		buffer.write("	" + baseName + " read" + baseName + "() {"); buffer.newLine();
+		buffer.write("		int tag = in.readInt();"); buffer.newLine();
+		buffer.write("		if (tag == 0) return null;"); buffer.newLine();
+		if (expr) {
+			buffer.write("		int depth = in.readDepth();"); buffer.newLine();
+		}
+		buffer.write("		" + baseName + " node;"); buffer.newLine();
+		buffer.write("		switch (tag) {"); buffer.newLine();
+		for (int i = 0; i < types.size(); i++) {
+			String className = types.get(i).split(":")[0].trim();
+			String[] fields = types.get(i).split(":")[1].trim().split(", ");
+			buffer.write("		case " + (i + 1) + ":"); buffer.newLine();
+			// Java evaluates arguments left to right, so the fields are read in order.
+			StringBuilder arguments = new StringBuilder();
+			for (String field : fields) {
+				if (arguments.length() > 0) arguments.append(", ");
+				arguments.append(readField(baseName, types, field.split(" ")[0]));
+			}
+			buffer.write("			node = new " + baseName + "." + className + "(" + arguments + ");"); buffer.newLine();
+			buffer.write("			break;"); buffer.newLine();
+		}
+		buffer.write("		default:"); buffer.newLine();
+		buffer.write("			throw new IllegalStateException(\"Malformed " + baseName + " tag \" + tag + \".\");"); buffer.newLine();
+		buffer.write("		}"); buffer.newLine();
+		if (expr) {
+			buffer.write("		if (depth >= 0) interpreter.resolve(node, depth);"); buffer.newLine();
+		}
+		buffer.write("		return node;"); buffer.newLine();
+		buffer.write("	}"); buffer.newLine();
+	}
+	
+	private static void defineWriters(BufferedWriter buffer, String baseName, List<String> types) throws IOException {
+		for (int i = 0; i < types.size(); i++) {
+			String className = types.get(i).split(":")[0].trim();
+			String[] fields = types.get(i).split(":")[1].trim().split(", ");
+			String node = baseName.toLowerCase();
+			buffer.newLine();
+			buffer.write("	@Override"); buffer.newLine();
+			buffer.write("	public Void visit" + className + baseName + "(" + baseName + "." + className + " " + node + ") {"); buffer.newLine();
+			buffer.write("		out.writeInt(" + (i + 1) + ");"); buffer.newLine();
+			if (baseName.equals("Expr")) {
+				buffer.write("		out.writeDepth(interpreter.resolvedDepth(" + node + "));"); buffer.newLine();
+			}
+			for (String field : fields) {
+				String type = field.split(" ")[0];
+				String name = field.split(" ")[1];
+				buffer.write("		" + writeField(baseName, types, type, node + "." + name) + ";"); buffer.newLine();
+			}
+			buffer.write("		return null;"); buffer.newLine();
+			buffer.write("	}"); buffer.newLine();
+		}
+	}
+	
+	private static String qualify(String baseName, List<String> types, String type) {
+		/* Node types can refer to their siblings unqualified, as Stmt.Class does with Class. */
+		for (String other : types) {
+			if (other.split(":")[0].trim().equals(type)) return baseName + "." + type;
+		}
+		return type;
+	}
+	
+	private static String readField(String baseName, List<String> types, String type) {
+		type = qualify(baseName, types, type);
+		switch (type) {
+		case "Token":
+			return "in.readToken()";
+		case "List<Token>":
+			return "in.readTokens()";
+		case "Object":
+			return "in.readValue()";
+		case "Expr":
+		case "Stmt":
+			return "read" + type + "()";
+		case "List<Expr>":
+		case "List<Stmt>":
+			return "read" + type.substring(5, 9) + "s()";
+		}
+		if (type.startsWith("List<")) {
+			return "AstCodec.<" + type.substring(5, type.length() - 1) + ">cast(read" + type.substring(5, 9) + "s())";
+		}
+		return "(" + type + ")read" + type.substring(0, 4) + "()";
+	}
+	
+	private static String writeField(String baseName, List<String> types, String type, String value) {
+		type = qualify(baseName, types, type);
+		switch (type) {
+		case "Token":
+			return "out.writeToken(" + value + ")";
+		case "List<Token>":
+			return "out.writeTokens(" + value + ")";
+		case "Object":
+			return "out.writeValue(" + value + ")";
+		}
+		if (type.startsWith("List<")) {
+			return "write" + type.substring(5, 9) + "s(" + value + ")";
+		}
+		return "write" + type.substring(0, 4) + "(" + value + ")";
+	}
+	
 	private static void defineVisitor(BufferedWriter buffer, String baseName, List<String> types) throws IOException {
 		/* A method to write the visitor interface, defining the signature for the visit methods
 		 * for each type defined earlier.*/
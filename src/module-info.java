@@ -6,4 +6,10 @@
  *
  */
 module JLoxInterpreter {
+	requires transitive java.scripting;
+	requires java.compiler;
+	
+	exports com.jlox.script;
+	
+	provides javax.script.ScriptEngineFactory with com.jlox.script.LoxScriptEngineFactory;
 }
\ No newline at end of file